@@ -0,0 +1,426 @@
+/*
+ * @(#) bench/net/sf/ivmaidns/dnsbench.java --
+ * DNS library hot paths micro-benchmark.
+ **
+ * Copyright (c) 2026 TerraMaster contributors
+ * All rights reserved.
+ */
+
+/*
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ **
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License (GPL) for more details.
+ **
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ **
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module. An independent module is a module which is not derived from
+ * or based on this library. If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so. If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package net.sf.ivmaidns;
+
+import net.sf.ivmaidns.dns.DNSConnection;
+import net.sf.ivmaidns.dns.DNSMsgHeader;
+import net.sf.ivmaidns.dns.DNSName;
+import net.sf.ivmaidns.dns.DNSRecord;
+
+import net.sf.ivmaidns.storage.ConcurrentHashedStorage;
+import net.sf.ivmaidns.storage.HashedStorage;
+import net.sf.ivmaidns.storage.SortedStorage;
+import net.sf.ivmaidns.storage.Storage;
+
+import net.sf.ivmaidns.util.JavaConsts;
+import net.sf.ivmaidns.util.UnsignedInt;
+
+/**
+ * DNS library hot paths micro-benchmark.
+ **
+ * Each benchmark is warmed up first (so that it is compiled by JIT),
+ * then it is run in several timed rounds, the best and the average
+ * times per operation are printed. The test zone is synthetic (A and
+ * NS records of hosts spread over some subzones).
+ **
+ * @version 3.2
+ * @author TerraMaster contributors
+ */
+public final class dnsbench
+{
+
+ public static final String NAME = "dnsbench";
+
+ public static final String VERSION = "3.2";
+
+ public static final String DESCRIPTION =
+  "DNS library hot paths micro-benchmark";
+
+ public static final String COPYRIGHT =
+  "(c) 2026 TerraMaster contributors";
+
+ public static final String LICENSE =
+  "This is free software. No warranties. All rights reserved.";
+
+ public static final String ARGS_INFO =
+  "[<records_count> [<benchmark_name_prefix>]]";
+
+ public static final int DEFAULT_COUNT = 10000;
+
+ public static final int MIN_COUNT = 100;
+
+ public static final int SUBZONES_COUNT = 64;
+
+/**
+ * NOTE: The number of records per encoded (decoded) message.
+ */
+ public static final int MSG_RECORDS = 64;
+
+ public static final int WARMUP_MILLIS = 1000;
+
+ public static final int ROUND_MILLIS = 300;
+
+ public static final int ROUNDS = 5;
+
+ protected static final String[] BENCHMARKS =
+ {
+  "name.parse", "name.compare", "record.putTo", "record.decode",
+  "msg.encode", "msg.decode", "sorted.add", "sorted.find",
+  "hashed.add", "hashed.find", "concurrent.add", "concurrent.find"
+ };
+
+ protected static final int NAME_PARSE = 0;
+
+ protected static final int NAME_COMPARE = 1;
+
+ protected static final int RECORD_PUT = 2;
+
+ protected static final int RECORD_DECODE = 3;
+
+ protected static final int MSG_ENCODE = 4;
+
+ protected static final int MSG_DECODE = 5;
+
+ protected static final int SORTED_ADD = 6;
+
+ protected static final int SORTED_FIND = 7;
+
+ protected static final int HASHED_ADD = 8;
+
+ protected static final int HASHED_FIND = 9;
+
+ protected static final int CONCURRENT_ADD = 10;
+
+ protected static final int CONCURRENT_FIND = 11;
+
+ protected String[] strings;
+
+ protected DNSName[] names;
+
+ protected DNSRecord[] records;
+
+/**
+ * NOTE: records split into chunks of MSG_RECORDS.
+ */
+ protected DNSRecord[][] chunks;
+
+ protected DNSMsgHeader[] headers;
+
+ protected byte[][] messages;
+
+ protected SortedStorage sorted;
+
+ protected HashedStorage hashed;
+
+ protected ConcurrentHashedStorage concurrent;
+
+/**
+ * NOTE: The results of the benchmarked operations are accumulated
+ * here (so that they are not optimized out by JIT).
+ */
+ protected int sink;
+
+ private dnsbench() {}
+
+ public static final void main(String[] args)
+  throws NullPointerException
+ {
+  int exitCode;
+  try
+  {
+   exitCode = (new dnsbench()).intMain(args);
+  }
+  catch (OutOfMemoryError e)
+  {
+   System.err.println("Out of memory!");
+   exitCode = 255;
+  }
+  try
+  {
+   Runtime.getRuntime().exit(exitCode);
+  }
+  catch (SecurityException e) {}
+  exitCode = 0;
+ }
+
+ public int intMain(String[] args)
+  throws NullPointerException
+ {
+  int count = DEFAULT_COUNT;
+  if (args.length > 0)
+   try
+   {
+    count = Integer.parseInt(args[0]);
+   }
+   catch (NumberFormatException e)
+   {
+    count = 0;
+   }
+  if (args.length > 2 || count < MIN_COUNT)
+  {
+   System.out.println(NAME + " v" + VERSION + " - " + DESCRIPTION);
+   System.out.println(COPYRIGHT);
+   System.out.println(LICENSE);
+   System.out.println("");
+   System.out.println("Usage: " + NAME + " " + ARGS_INFO);
+   System.out.println("");
+   System.out.println("This tool measures the time of the DNS" +
+    " library hot paths (names parsing");
+   System.out.println("and comparison, records and messages" +
+    " encoding/decoding, sorted and");
+   System.out.println("hashed storage insertion/lookup) on a" +
+    " synthetic zone of the specified");
+   System.out.println("size (" + Integer.toString(DEFAULT_COUNT) +
+    " records by default, at least " + Integer.toString(MIN_COUNT) +
+    "). Only the benchmarks");
+   System.out.println("with the specified name prefix are run" +
+    " (all by default):");
+   for (count = 0; count < BENCHMARKS.length; count++)
+    System.out.println(" " + BENCHMARKS[count]);
+   return args.length > 0 ? 2 : 0;
+  }
+  String prefix = args.length > 1 ? args[1] : "";
+  System.out.println("Preparing " + Integer.toString(count) +
+   " records...");
+  prepare(count);
+  System.out.println("Benchmark        ops/run   best ns/op" +
+   "    avg ns/op");
+  for (int kind = 0; kind < BENCHMARKS.length; kind++)
+   if (BENCHMARKS[kind].startsWith(prefix))
+    measure(kind);
+  System.out.println("; Checksum: " +
+   UnsignedInt.toHexString(this.sink, true, 8));
+  return 0;
+ }
+
+/**
+ * NOTE: count must be > 0.
+ */
+ protected void prepare(int count)
+ {
+  String[] strings = new String[count];
+  DNSName[] names = new DNSName[count];
+  DNSRecord[] records = new DNSRecord[count];
+  DNSName domain = new DNSName("example.com", null);
+  DNSName[] subzones = new DNSName[SUBZONES_COUNT];
+  int index;
+  for (index = 0; index < SUBZONES_COUNT; index++)
+   subzones[index] = new DNSName("z" +
+    Integer.toString(index), domain);
+  byte[] address = new byte[4];
+  for (index = 0; index < count; index++)
+  {
+   int value = index * JavaConsts.GOLD_MEDIAN;
+   DNSName subzone = subzones[(value >>> 1) % SUBZONES_COUNT];
+   names[index] = new DNSName(strings[index] = "h" +
+    UnsignedInt.toHexString(value, true, 8) + "." +
+    subzone.getAbsolute(), null);
+   if ((index & 7) != 0)
+   {
+    UnsignedInt.putToByteArray(address, 0, value, address.length);
+    records[index] = new DNSRecord(names[index], DNSRecord.A,
+     DNSRecord.IN, 3600, address);
+   }
+    else records[index] = new DNSRecord(subzone, DNSRecord.NS,
+          DNSRecord.IN, 86400, new Object[] { names[index] });
+  }
+  int chunksCount = (count + (MSG_RECORDS - 1)) / MSG_RECORDS, len;
+  DNSRecord[][] chunks = new DNSRecord[chunksCount][];
+  DNSMsgHeader[] headers = new DNSMsgHeader[chunksCount];
+  byte[][] messages = new byte[chunksCount][];
+  for (index = 0; index < chunksCount; index++)
+  {
+   if ((len = count - index * MSG_RECORDS) > MSG_RECORDS)
+    len = MSG_RECORDS;
+   System.arraycopy(records, index * MSG_RECORDS,
+    chunks[index] = new DNSRecord[len], 0, len);
+   messages[index] = DNSConnection.encode(headers[index] =
+    DNSMsgHeader.construct(DNSMsgHeader.QUERY, false, 0, len, 0, 0,
+    false), chunks[index]);
+  }
+  this.strings = strings;
+  this.names = names;
+  this.records = records;
+  this.chunks = chunks;
+  this.headers = headers;
+  this.messages = messages;
+  Storage storage = new SortedStorage();
+  storage.addAll(records, 0, count, true);
+  this.sorted = (SortedStorage)storage;
+  storage = new HashedStorage();
+  storage.addAll(records, 0, count, true);
+  this.hashed = (HashedStorage)storage;
+  storage = new ConcurrentHashedStorage();
+  storage.addAll(records, 0, count, true);
+  this.concurrent = (ConcurrentHashedStorage)storage;
+ }
+
+/**
+ * NOTE: Result is the number of operations performed by a single run
+ * of the benchmark of the specified kind.
+ */
+ protected int run(int kind)
+ {
+  int sink = 0, index = 0, count;
+  DNSName[] names = this.names;
+  DNSRecord[] records = this.records;
+  byte[][] messages = this.messages;
+  switch (kind)
+  {
+  case NAME_PARSE:
+   String[] strings = this.strings;
+   for (count = strings.length; index < count; index++)
+    sink += (new DNSName(strings[index], null)).getLevel();
+   break;
+  case NAME_COMPARE:
+   DNSName prev = names[(count = names.length) - 1];
+   for (DNSName name; index < count; index++)
+   {
+    sink += (name = names[index]).compareTo(prev);
+    prev = name;
+   }
+   break;
+  case RECORD_PUT:
+   byte[] msgBytes = new byte[DNSMsgHeader.UDP_PACKET_LEN << 1];
+   for (count = records.length; index < count; index++)
+    sink += records[index].putTo(msgBytes, 0, true,
+     msgBytes.length);
+   break;
+  case RECORD_DECODE:
+   int[] ofsRef = new int[1];
+   int last;
+   for (count = 0; index < messages.length; index++)
+   {
+    ofsRef[0] = DNSMsgHeader.HEADER_LEN;
+    last = count + this.chunks[index].length;
+    while (count < last)
+    {
+     sink += (new DNSRecord(messages[index], ofsRef,
+      true)).getRType();
+     count++;
+    }
+   }
+   break;
+  case MSG_ENCODE:
+   DNSRecord[][] chunks = this.chunks;
+   DNSMsgHeader[] headers = this.headers;
+   for (count = chunks.length; index < count; index++)
+    sink += DNSConnection.encode(headers[index],
+     chunks[index]).length;
+   break;
+  case MSG_DECODE:
+   for (count = messages.length; index < count; index++)
+    sink += DNSConnection.decode(messages[index]).length;
+   break;
+  case SORTED_ADD:
+  case HASHED_ADD:
+  case CONCURRENT_ADD:
+   Storage storage = kind == SORTED_ADD ? new SortedStorage() :
+    kind == HASHED_ADD ? (Storage)new HashedStorage() :
+    new ConcurrentHashedStorage();
+   for (count = records.length; index < count; index++)
+    sink += storage.add(records[index], true);
+   break;
+  case SORTED_FIND:
+  case HASHED_FIND:
+  case CONCURRENT_FIND:
+   storage = kind == SORTED_FIND ? this.sorted :
+    kind == HASHED_FIND ? (Storage)this.hashed : this.concurrent;
+   for (count = records.length; index < count; index++)
+    sink += storage.locationOf(records[index], 0, true);
+   break;
+  default:
+   count = 0;
+  }
+  this.sink += sink;
+  return count;
+ }
+
+/**
+ * NOTE: The benchmark of the specified kind is warmed up and timed,
+ * the results are printed.
+ */
+ protected void measure(int kind)
+ {
+  long time = System.currentTimeMillis() + WARMUP_MILLIS, nanos;
+  int count = 0, round = 0;
+  do
+  {
+   count = run(kind);
+  } while (System.currentTimeMillis() < time);
+  long best = -1L >>> 1, total = 0L, ops;
+  while (round++ < ROUNDS)
+  {
+   time = System.nanoTime();
+   long deadline = time + ROUND_MILLIS * 1000000L;
+   ops = 0L;
+   do
+   {
+    ops += run(kind);
+   } while ((nanos = System.nanoTime()) < deadline);
+   total += nanos = ((nanos - time) * 10L) / ops;
+   if (best > nanos)
+    best = nanos;
+  }
+  System.out.println(pad(BENCHMARKS[kind], 16, false) +
+   pad(Integer.toString(count), 8, true) +
+   pad(toDecimal(best), 13, true) +
+   pad(toDecimal(total / ROUNDS), 13, true));
+ }
+
+/**
+ * NOTE: Result is value / 10 with one decimal digit.
+ */
+ protected static String toDecimal(long value)
+ {
+  return Long.toString(value / 10L) + "." +
+   Integer.toString((int)(value % 10L));
+ }
+
+ protected static String pad(String str, int width, boolean right)
+ {
+  StringBuffer sBuf = new StringBuffer(width);
+  if (!right)
+   sBuf.append(str);
+  for (int len = str.length(); len < width; len++)
+   sBuf.append(' ');
+  if (right)
+   sBuf.append(str);
+  return new String(sBuf);
+ }
+}
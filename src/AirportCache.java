@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread-safe, size bounded cache of the airports shown on the map.
+ * Query threads add to it while the EDT paints from it; when full the
+ * least recently found airport is evicted.
+ */
+
+public class AirportCache {
+  /** default max. number of cached airports */
+  static final int MAX_AIRPORTS = 5000;
+
+  private final LinkedHashMap<String, Airport> map;
+  /** copy of the values handed to the painter, null when stale */
+  private volatile List<Airport> snapshot;
+
+  public AirportCache() {
+    this(MAX_AIRPORTS);
+  }
+
+  public AirportCache(final int maxSize) {
+    // access order, so re-found airports move to the end
+    map = new LinkedHashMap<String, Airport>(256, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Airport> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  public synchronized void put(Airport a) {
+    if (a.code == null)
+      return;
+    map.put(a.code, a);
+    snapshot = null;
+  }
+
+  public synchronized void putAll(Collection<Airport> list) {
+    for (Airport a : list) {
+      if (a.code != null)
+        map.put(a.code, a);
+    }
+    snapshot = null;
+  }
+
+  public synchronized Airport get(String code) {
+    return map.get(code);
+  }
+
+  public synchronized int size() {
+    return map.size();
+  }
+
+  public synchronized void clear() {
+    map.clear();
+    snapshot = null;
+  }
+
+  /**
+   * returns an unmodifiable copy of the cached airports, safe to iterate
+   * on any thread
+   */
+  public List<Airport> values() {
+    List<Airport> s = snapshot;
+    if (s == null) {
+      synchronized (this) {
+        if (snapshot == null)
+          snapshot = Collections.unmodifiableList(new ArrayList<Airport>(map.values()));
+        s = snapshot;
+      }
+    }
+    return s;
+  }
+}
@@ -0,0 +1,323 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Local airport database, built from an apt.dat file and/or the
+ * Airports/ tree TerraSync already downloads.
+ * Airports can be looked up by code/name prefix (trie) or by 1x1 tile
+ * (grid), without going to the web.
+ */
+
+public class AirportIndex {
+  /** max. number of airports returned by a prefix search */
+  static final int MAX_RESULTS = 500;
+
+  Logger LOG = Logger.getLogger(this.getClass().getName());
+
+  /** one node of the prefix trie */
+  private static class TrieNode {
+    HashMap<Character, TrieNode> children;
+    List<Airport> airports;
+  }
+
+  private TrieNode root = new TrieNode();
+  private HashMap<String, Airport> codes = new HashMap<String, Airport>();
+  /** airports per 1x1 tile, see gridIndex() */
+  private HashMap<Integer, List<Airport>> grid = new HashMap<Integer, List<Airport>>();
+
+  public int size() {
+    return codes.size();
+  }
+
+  public boolean isEmpty() {
+    return codes.isEmpty();
+  }
+
+  public Airport get(String code) {
+    return codes.get(code.toUpperCase());
+  }
+
+  // W and S are negative
+  static int gridIndex(int lat, int lon) {
+    return (lat + 90) * 360 + (lon + 180);
+  }
+
+  /**
+   * adds an airport to the index. An airport already known under the
+   * same code is kept.
+   */
+  void add(Airport a) {
+    if (a.code == null || codes.containsKey(a.code))
+      return;
+    int lat = (int) Math.floor(a.lat), lon = (int) Math.floor(a.lon);
+    a.tilename = TerraMaster.tilenameManager != null ? TerraMaster.tilenameManager
+        .computeTileName(lat, lon) : "";
+    codes.put(a.code, a);
+
+    Integer i = gridIndex(lat, lon);
+    List<Airport> l = grid.get(i);
+    if (l == null) {
+      l = new ArrayList<Airport>(2);
+      grid.put(i, l);
+    }
+    l.add(a);
+
+    insert(a.code.toLowerCase(), a);
+    if (a.name != null) {
+      for (String w : a.name.toLowerCase().split("[^\\p{L}\\p{Digit}]+")) {
+        if (w.length() > 0)
+          insert(w, a);
+      }
+    }
+  }
+
+  private void insert(String key, Airport a) {
+    TrieNode n = root;
+    for (int i = 0; i < key.length(); ++i) {
+      if (n.children == null)
+        n.children = new HashMap<Character, TrieNode>(4);
+      Character c = key.charAt(i);
+      TrieNode next = n.children.get(c);
+      if (next == null) {
+        next = new TrieNode();
+        n.children.put(c, next);
+      }
+      n = next;
+    }
+    if (n.airports == null)
+      n.airports = new ArrayList<Airport>(1);
+    if (!n.airports.contains(a))
+      n.airports.add(a);
+  }
+
+  private void collect(TrieNode n, Collection<Airport> result) {
+    if (n.airports != null) {
+      for (Airport a : n.airports) {
+        if (result.size() >= MAX_RESULTS)
+          return;
+        result.add(a);
+      }
+    }
+    if (n.children != null) {
+      for (TrieNode c : n.children.values()) {
+        if (result.size() >= MAX_RESULTS)
+          return;
+        collect(c, result);
+      }
+    }
+  }
+
+  /**
+   * returns the airports whose code or name words start with the given
+   * string. With several words, every word must match.
+   */
+  public List<Airport> search(String str) {
+    String[] words = str.trim().toLowerCase().split("\\s+");
+    LinkedHashSet<Airport> result = new LinkedHashSet<Airport>();
+    if (words.length == 0 || words[0].length() == 0)
+      return new ArrayList<Airport>();
+
+    TrieNode n = root;
+    for (int i = 0; n != null && i < words[0].length(); ++i)
+      n = n.children == null ? null : n.children.get(words[0].charAt(i));
+    if (n != null)
+      collect(n, result);
+
+    List<Airport> list = new ArrayList<Airport>(result.size());
+    for (Airport a : result) {
+      boolean ok = true;
+      for (int i = 1; ok && i < words.length; ++i)
+        ok = a.name != null && a.name.toLowerCase().contains(words[i]);
+      if (ok)
+        list.add(a);
+    }
+    return list;
+  }
+
+  /**
+   * returns the airports within the given 1x1 tiles
+   */
+  public List<Airport> browse(Collection<TileName> tiles) {
+    List<Airport> result = new ArrayList<Airport>();
+    for (TileName t : tiles) {
+      List<Airport> l = grid.get(gridIndex(t.getLat(), t.getLon()));
+      if (l != null)
+        result.addAll(l);
+    }
+    return result;
+  }
+
+  private static InputStream open(File f) throws IOException {
+    InputStream is = new FileInputStream(f);
+    if (f.getName().endsWith(".gz"))
+      is = new GZIPInputStream(is, 65536);
+    return is;
+  }
+
+  /**
+   * reads airports from an X-Plane/FlightGear apt.dat(.gz) file. The
+   * position is taken from the first runway, water runway or helipad.
+   */
+  public void loadAptDat(File f) throws IOException {
+    BufferedReader r = new BufferedReader(new InputStreamReader(open(f),
+        "ISO-8859-1"), 65536);
+    try {
+      Airport a = null;
+      boolean located = false;
+      String line;
+      while ((line = r.readLine()) != null) {
+        int n = line.indexOf(' ');
+        if (n <= 0)
+          continue;
+        String code = line.substring(0, n);
+        if (code.equals("1") || code.equals("16") || code.equals("17")) {
+          // 1 <elev> <ctwr> <deprecated> <icao> <name...>
+          if (a != null && located)
+            add(a);
+          String[] t = line.trim().split("\\s+", 6);
+          a = null;
+          located = false;
+          if (t.length >= 5) {
+            a = new Airport();
+            a.code = t[4].toUpperCase();
+            a.name = t.length > 5 ? t[5] : a.code;
+          }
+        } else if (a != null && !located) {
+          try {
+            String[] t = line.trim().split("\\s+");
+            if (code.equals("100") && t.length > 19) {
+              // land runway : midpoint of both ends
+              a.lat = (Float.parseFloat(t[9]) + Float.parseFloat(t[18])) / 2;
+              a.lon = (Float.parseFloat(t[10]) + Float.parseFloat(t[19])) / 2;
+              located = true;
+            } else if (code.equals("101") && t.length > 8) {
+              a.lat = (Float.parseFloat(t[4]) + Float.parseFloat(t[7])) / 2;
+              a.lon = (Float.parseFloat(t[5]) + Float.parseFloat(t[8])) / 2;
+              located = true;
+            } else if ((code.equals("102") || code.equals("10")) && t.length > 3) {
+              // helipad or pre-850 runway record
+              a.lat = Float.parseFloat(t[code.equals("10") ? 1 : 2]);
+              a.lon = Float.parseFloat(t[code.equals("10") ? 2 : 3]);
+              located = true;
+            }
+          } catch (NumberFormatException e) {
+            // skip malformed records
+          }
+        } else if (code.equals("99")) {
+          break;
+        }
+      }
+      if (a != null && located)
+        add(a);
+    } finally {
+      r.close();
+    }
+  }
+
+  /**
+   * reads airports from the "Airports/X/Y/Z/ICAO.threshold.xml" files
+   * below the TerraSync directory. These carry no names.
+   */
+  public void loadTerraSync(File sceneryDir) {
+    File dir = new File(sceneryDir, TerraSyncDirectoryTypes.AIRPORTS.dirname);
+    XMLInputFactory input = XMLInputFactory.newFactory();
+    scan(dir, input, 0);
+  }
+
+  private void scan(File dir, XMLInputFactory input, int depth) {
+    File[] list = dir.listFiles();
+    if (list == null)
+      return;
+    for (File f : list) {
+      if (depth < 3 && f.isDirectory()) {
+        scan(f, input, depth + 1);
+      } else if (depth == 3 && f.getName().endsWith(".threshold.xml")) {
+        String code = f.getName().substring(0,
+            f.getName().indexOf(".threshold.xml")).toUpperCase();
+        if (codes.containsKey(code))
+          continue;
+        try {
+          Airport a = readThreshold(f, input);
+          if (a != null) {
+            a.code = code;
+            a.name = code;
+            add(a);
+          }
+        } catch (Exception e) {
+          LOG.log(Level.FINE, "Can't read " + f, e);
+        }
+      }
+    }
+  }
+
+  // the position of the first threshold
+  private Airport readThreshold(File f, XMLInputFactory input)
+      throws IOException, XMLStreamException {
+    InputStream is = new FileInputStream(f);
+    try {
+      XMLStreamReader reader = input.createXMLStreamReader(is);
+      String lat = null, lon = null;
+      while (reader.hasNext() && (lat == null || lon == null)) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+          String n = reader.getLocalName();
+          if (lat == null && n.equals("lat"))
+            lat = reader.getElementText().trim();
+          else if (lon == null && n.equals("lon"))
+            lon = reader.getElementText().trim();
+        }
+      }
+      reader.close();
+      if (lat == null || lon == null)
+        return null;
+      Airport a = new Airport();
+      a.lat = Float.parseFloat(lat);
+      a.lon = Float.parseFloat(lon);
+      return a;
+    } catch (NumberFormatException e) {
+      return null;
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * builds an index from the given apt.dat (may be null) and the
+   * TerraSync Airports/ tree (may be null)
+   */
+  public static AirportIndex build(File aptDat, File sceneryDir) {
+    AirportIndex index = new AirportIndex();
+    if (aptDat != null && aptDat.exists()) {
+      try {
+        index.loadAptDat(aptDat);
+      } catch (IOException e) {
+        index.LOG.log(Level.WARNING, "Can't read " + aptDat, e);
+      }
+    }
+    if (sceneryDir != null)
+      index.loadTerraSync(sceneryDir);
+    index.LOG.info("Airport index : " + index.size() + " airports");
+    return index;
+  }
+
+  public Map<String, Airport> getAirports() {
+    return codes;
+  }
+}
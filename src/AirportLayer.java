@@ -0,0 +1,146 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jhlabs.map.proj.Projection;
+
+/**
+ * Paints the airport overlay of a MapPanel.
+ * Screen positions are cached until the view or the airport list changes,
+ * airports off screen are culled, and labels are placed in a coarse
+ * screen-space grid so that they never overlap. When zoomed out the
+ * hidden labels are counted into their neighbour ("EGLL +3").
+ */
+
+class AirportLayer {
+  /** size of a label slot in pixels */
+  static final int CELL_W = 32, CELL_H = 12;
+  /** below this zoom, overlapping labels are merged instead of dropped */
+  static final double MERGE_ZOOM = 16;
+
+  private MapPanel panel;
+  private Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 10);
+
+  // the view the cached positions belong to
+  private List<Airport> airports;
+  private Projection pj;
+  private double lat, lon, fromMetres;
+  private AffineTransform affine;
+  private int width, height;
+
+  // cached screen positions, only airports on screen
+  private int count;
+  private int[] index = new int[0], xs = new int[0], ys = new int[0];
+
+  AirportLayer(MapPanel p) {
+    panel = p;
+  }
+
+  private boolean isCurrent(List<Airport> apts) {
+    return apts == airports && pj == panel.pj && lat == panel.projectionLatitude
+        && lon == panel.projectionLongitude && fromMetres == panel.fromMetres
+        && width == panel.getWidth() && height == panel.getHeight()
+        && affine != null && affine.equals(panel.affine);
+  }
+
+  // projects all airports of the list and keeps the ones on screen
+  private void project(List<Airport> apts) {
+    airports = apts;
+    pj = panel.pj;
+    lat = panel.projectionLatitude;
+    lon = panel.projectionLongitude;
+    fromMetres = panel.fromMetres;
+    width = panel.getWidth();
+    height = panel.getHeight();
+    affine = new AffineTransform(panel.affine);
+
+    int n = apts.size();
+    if (index.length < n) {
+      index = new int[n];
+      xs = new int[n];
+      ys = new int[n];
+    }
+    count = 0;
+    Point2D.Double p = new Point2D.Double();
+    Point p2 = new Point();
+    for (int i = 0; i < n; ++i) {
+      Airport a = apts.get(i);
+      double x = Math.toRadians(a.lon);
+      double y = Math.toRadians(-a.lat);
+      if (!panel.inside(x, y))
+        continue;
+      panel.project(x, y, p);
+      affine.transform(p, p2);
+      if (p2.x < -CELL_W || p2.y < -CELL_H || p2.x > width + CELL_W
+          || p2.y > height + CELL_H)
+        continue;
+      index[count] = i;
+      xs[count] = p2.x;
+      ys[count] = p2.y;
+      ++count;
+    }
+  }
+
+  void paint(Graphics2D g, List<Airport> apts) {
+    if (panel.affine == null)
+      return;
+    if (!isCurrent(apts))
+      project(apts);
+
+    int n = (int) fromMetres * 2 - 16; // the circle size changes with zoom
+    if (n < 2)
+      n = 2;
+    boolean merge = fromMetres < MERGE_ZOOM;
+
+    g.setColor(Color.white);
+    g.setBackground(Color.white);
+    g.setFont(font);
+    FontMetrics fm = g.getFontMetrics();
+
+    // label slots, each holds the placed label covering it (+1)
+    int cols = width / CELL_W + 3, rows = height / CELL_H + 3;
+    int[] slots = new int[cols * rows];
+    int[] hidden = new int[count];
+    int[] placed = new int[count];
+    int np = 0;
+
+    // most recently found airports are last, give them priority
+    for (int k = count - 1; k >= 0; --k) {
+      int x = xs[k], y = ys[k];
+      g.drawOval(x - n / 2, y - n / 2, n, n);
+
+      String code = apts.get(index[k]).code;
+      int lx = x - 12, ly = y + n;
+      int c0 = Math.max(0, (lx + CELL_W) / CELL_W);
+      int c1 = Math.min(cols - 1, (lx + fm.stringWidth(code) + CELL_W) / CELL_W);
+      int r0 = Math.max(0, (ly - fm.getAscent() + CELL_H) / CELL_H);
+      int r1 = Math.min(rows - 1, (ly + CELL_H) / CELL_H);
+
+      int owner = 0;
+      for (int r = r0; owner == 0 && r <= r1; ++r)
+        for (int c = c0; owner == 0 && c <= c1; ++c)
+          owner = slots[r * cols + c];
+      if (owner != 0) {
+        hidden[owner - 1]++;
+        continue;
+      }
+      placed[np++] = k;
+      for (int r = r0; r <= r1; ++r)
+        Arrays.fill(slots, r * cols + c0, r * cols + c1 + 1, np);
+    }
+
+    for (int i = 0; i < np; ++i) {
+      int k = placed[i];
+      String code = apts.get(index[k]).code;
+      if (merge && hidden[i] > 0)
+        code += " +" + hidden[i];
+      g.drawString(code, xs[k] - 12, ys[k] + n);
+    }
+  }
+}
@@ -0,0 +1,10 @@
+
+/**
+ * Receives airports one by one while a query result is still being read.
+ * Called on the query thread.
+ */
+
+public interface AirportListener {
+
+  void airportFound(Airport a);
+}
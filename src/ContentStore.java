@@ -0,0 +1,169 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Optional local store of scenery files keyed by their SHA-1, the hash the
+ * .dirindex files already carry. Files in the TerraSync tree are hard
+ * links into the store, so a file used by several tiles takes its space
+ * once and is never downloaded again. Where hard links aren't possible
+ * (another file system, FAT) the file is copied, which still saves the
+ * download.
+ *
+ * Layout : dir/ab/cdef... like git's loose objects.
+ */
+
+public class ContentStore {
+	/** present once a file went in or out of the store as a copy */
+	static final String COPIES = ".copies";
+
+	Logger log = Logger.getLogger(this.getClass().getName());
+
+	private final File dir;
+	private volatile boolean copies;
+
+	public ContentStore(File dir) {
+		this.dir = dir;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	static boolean isSha(String sha) {
+		return sha != null && sha.matches("[0-9a-fA-F]{40}");
+	}
+
+	private File path(String sha) {
+		sha = sha.toLowerCase();
+		return new File(new File(dir, sha.substring(0, 2)), sha.substring(2));
+	}
+
+	public boolean contains(String sha) {
+		return isSha(sha) && path(sha).exists();
+	}
+
+	// links or copies from to a temporary file next to to, then renames it
+	private void place(Path from, Path to) throws IOException {
+		Path tmp = to.resolveSibling(to.getFileName() + ".tmp");
+		Files.deleteIfExists(tmp);
+		try {
+			Files.createLink(tmp, from);
+		} catch (NoSuchFileException e) {
+			throw e;
+		} catch (IOException e) {
+			// another file system
+			copied();
+			Files.copy(from, tmp);
+		} catch (UnsupportedOperationException e) {
+			copied();
+			Files.copy(from, tmp);
+		}
+		Files.move(tmp, to, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	// a copy leaves its store file with one link, which purge() must not
+	// take for unused
+	private void copied() throws IOException {
+		if (copies)
+			return;
+		dir.mkdirs();
+		new File(dir, COPIES).createNewFile();
+		copies = true;
+	}
+
+	/**
+	 * Replaces target by the stored file with the given SHA-1.
+	 *
+	 * @return false if the store doesn't have it
+	 */
+	public boolean link(String sha, File target) {
+		if (!contains(sha))
+			return false;
+		try {
+			target.getParentFile().mkdirs();
+			place(path(sha).toPath(), target.toPath());
+			return true;
+		} catch (IOException e) {
+			// purged in the meantime, or the tree isn't writable
+			log.log(Level.FINE, "Can't link " + target, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Adds a file known to have the given SHA-1. If the store has that
+	 * content already, the file is replaced by a link to it.
+	 */
+	public void add(String sha, File file) {
+		if (!isSha(sha))
+			return;
+		File f = path(sha);
+		try {
+			if (f.exists()) {
+				if (!Files.isSameFile(f.toPath(), file.toPath()))
+					place(f.toPath(), file.toPath());
+				return;
+			}
+			f.getParentFile().mkdirs();
+			try {
+				Files.createLink(f.toPath(), file.toPath());
+			} catch (FileAlreadyExistsException e) {
+				// added by another thread
+			} catch (UnsupportedOperationException e) {
+				place(file.toPath(), f.toPath());
+			} catch (IOException e) {
+				place(file.toPath(), f.toPath());
+			}
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Can't store " + file, e);
+		}
+	}
+
+	/**
+	 * Removes the files no tile links to any more. Needs a file system
+	 * reporting link counts, elsewhere nothing is removed. Nothing is
+	 * removed either once the store has had to copy a file, as the link
+	 * count of a copied file says nothing about its use.
+	 *
+	 * @return the number of files removed
+	 */
+	public int purge() {
+		int n = 0;
+		if (copies || new File(dir, COPIES).exists()) {
+			log.info("Content store " + dir + " holds copies, not purged");
+			return n;
+		}
+		File[] subdirs = dir.listFiles();
+		if (subdirs == null)
+			return n;
+		try {
+			for (File d : subdirs) {
+				File[] list = d.listFiles();
+				if (list == null)
+					continue;
+				for (File f : list) {
+					if (copies)
+						break;
+					Object links = Files.getAttribute(f.toPath(), "unix:nlink");
+					if (links instanceof Integer && (Integer) links == 1 && f.delete())
+						++n;
+				}
+			}
+		} catch (UnsupportedOperationException e) {
+			log.fine("No link counts in " + dir);
+		} catch (IllegalArgumentException e) {
+			log.fine("No link counts in " + dir);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Can't purge " + dir, e);
+		}
+		log.info("Content store " + dir + " : " + n + " unused files removed");
+		return n;
+	}
+}
@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Bytes on disk per tile and per type (Terrain, Objects, Buildings).
+ * Kept up to date from TileData.scan() results by the scanner and after
+ * each synced directory, so the queries never walk the disk.
+ */
+
+public class DiskUsage {
+  static final TerraSyncDirectoryTypes[] TYPES = {
+      TerraSyncDirectoryTypes.TERRAIN, TerraSyncDirectoryTypes.OBJECTS,
+      TerraSyncDirectoryTypes.BUILDINGS };
+
+  /** bytes per type of one tile, in TYPES order */
+  private static class Usage {
+    final TileName tile;
+    final long[] bytes = new long[TYPES.length];
+    long total;
+
+    Usage(TileName t) {
+      tile = t;
+    }
+  }
+
+  private final HashMap<TileName, Usage> tiles = new HashMap<TileName, Usage>();
+  /** largest first */
+  private final TreeSet<Usage> bySize = new TreeSet<Usage>(
+      new Comparator<Usage>() {
+        public int compare(Usage a, Usage b) {
+          if (a.total != b.total)
+            return a.total > b.total ? -1 : 1;
+          return a.tile.getName().compareTo(b.tile.getName());
+        }
+      });
+  private final long[] totals = new long[TYPES.length];
+
+  private static int index(TerraSyncDirectoryTypes type) {
+    for (int i = 0; i < TYPES.length; ++i)
+      if (TYPES[i] == type)
+        return i;
+    return -1;
+  }
+
+  private static long bytes(TileData.DirStats s) {
+    return s == null ? 0 : s.bytes;
+  }
+
+  /**
+   * takes the sizes of the tile from its last scan
+   */
+  public synchronized void update(TileName n, TileData d) {
+    remove(n);
+    Usage u = new Usage(n);
+    u.bytes[0] = d.terrain ? bytes(d.stats_terr) : 0;
+    u.bytes[1] = d.objects ? bytes(d.stats_obj) : 0;
+    u.bytes[2] = d.buildings ? bytes(d.stats_buildings) : 0;
+    for (int i = 0; i < TYPES.length; ++i) {
+      u.total += u.bytes[i];
+      totals[i] += u.bytes[i];
+    }
+    tiles.put(n, u);
+    bySize.add(u);
+  }
+
+  public synchronized void remove(TileName n) {
+    Usage u = tiles.remove(n);
+    if (u == null)
+      return;
+    bySize.remove(u);
+    for (int i = 0; i < TYPES.length; ++i)
+      totals[i] -= u.bytes[i];
+  }
+
+  public synchronized void clear() {
+    tiles.clear();
+    bySize.clear();
+    for (int i = 0; i < TYPES.length; ++i)
+      totals[i] = 0;
+  }
+
+  /** bytes of all types in the tile */
+  public synchronized long getBytes(TileName n) {
+    Usage u = tiles.get(n);
+    return u == null ? 0 : u.total;
+  }
+
+  public synchronized long getBytes(TileName n, TerraSyncDirectoryTypes type) {
+    Usage u = tiles.get(n);
+    int i = index(type);
+    return u == null || i < 0 ? 0 : u.bytes[i];
+  }
+
+  /** bytes of all tiles */
+  public synchronized long getTotal() {
+    long t = 0;
+    for (long b : totals)
+      t += b;
+    return t;
+  }
+
+  public synchronized long getTotal(TerraSyncDirectoryTypes type) {
+    int i = index(type);
+    return i < 0 ? 0 : totals[i];
+  }
+
+  /** bytes of the largest tile, 0 if none */
+  public synchronized long getMax() {
+    return bySize.isEmpty() ? 0 : bySize.first().total;
+  }
+
+  /** bytes of all types in the given tiles */
+  public synchronized long getTotal(Collection<TileName> selection) {
+    long t = 0;
+    for (TileName n : selection) {
+      Usage u = tiles.get(n);
+      if (u != null)
+        t += u.total;
+    }
+    return t;
+  }
+
+  /**
+   * @return the n largest tiles, largest first
+   */
+  public synchronized List<TileName> largest(int n) {
+    List<TileName> l = new ArrayList<TileName>(Math.min(n, bySize.size()));
+    for (Usage u : bySize) {
+      if (l.size() >= n)
+        break;
+      l.add(u.tile);
+    }
+    return l;
+  }
+}
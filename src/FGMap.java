@@ -1,9 +1,21 @@
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,17 +28,25 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 
 /**
- *  this class handles webqueries and returns results
- *  it keeps a per-session HashMap of known airports
- *  It queries the multiplayer map. 
+ *  this class handles airport queries and returns results
+ *  it keeps a per-session, size bounded cache of known airports
+ *  Queries are answered from the local {@link AirportIndex} when it has
+ *  been built, otherwise it queries the multiplayer map. 
  *  {@link http://mpmap02.flightgear.org/fg_nav_xml_proxy.cgi?sstr=wbks&apt_code} 
  */
 
 public class FGMap {
+  /** max. number of browse queries in flight at the same time */
+  static final int MAX_QUERIES = 4;
+  /** max. edge (in degrees) of a merged browse box */
+  static final int MAX_SPAN = 5;
+
   Logger LOG = Logger.getLogger(this.getClass().getName());
   XMLInputFactory input;
-  Airport apt;
-  HashMap<String, Airport> map;
+  AirportCache map;
+  ExecutorService executor;
+  /** the local airport database, replaced when rebuilt */
+  volatile AirportIndex index = new AirportIndex();
 
   public FGMap() {
     try {
@@ -34,67 +54,161 @@ public class FGMap {
     } catch (FactoryConfigurationError e) {
     }
 
-    apt = new Airport();
+    map = new AirportCache();
+
+    executor = Executors.newFixedThreadPool(MAX_QUERIES, new ThreadFactory() {
+      int count = 0;
+
+      public synchronized Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "FGMap-" + ++count);
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * the airport currently being parsed, one per query so that
+   * several queries can run at the same time
+   */
+  private class QueryState {
+    Airport apt = new Airport();
+    List<Airport> list;
+    AirportListener listener;
 
-    map = new HashMap<String, Airport>();
+    QueryState(List<Airport> list, AirportListener listener) {
+      this.list = list;
+      this.listener = listener;
+    }
   }
 
-  private void close_apt(List<Airport> list) {
-    if (apt.code != null) {
+  private void close_apt(QueryState q) {
+    if (q.apt.code != null) {
       // first add the current airport to the HashMap
-      map.put(apt.code, apt);
+      map.put(q.apt);
 
       // and to the current query's result
-      list.add(apt);
+      q.list.add(q.apt);
+
+      // hand it on while the rest is still being read
+      if (q.listener != null)
+        q.listener.airportFound(q.apt);
 
       // now start a new airport
-      apt = new Airport();
+      q.apt = new Airport();
     }
   }
 
-  private void work(XMLStreamReader reader, List<Airport> list) {
-    if (reader.getName().toString().equals("airport")) {
-      close_apt(list);
-      apt.code = reader.getAttributeValue(null, "code");
-      apt.name = reader.getAttributeValue(null, "name");
-    } else if (reader.getName().toString().equals("runway")) {
-      apt.lat = Float.parseFloat(reader.getAttributeValue(null, "lat"));
-      apt.lon = Float.parseFloat(reader.getAttributeValue(null, "lng"));
+  private void work(XMLStreamReader reader, QueryState q) {
+    // compare the local name directly, no QName string building
+    String name = reader.getLocalName();
+    if (name.equals("airport")) {
+      close_apt(q);
+      q.apt.code = reader.getAttributeValue(null, "code");
+      q.apt.name = reader.getAttributeValue(null, "name");
+    } else if (name.equals("runway")) {
+      q.apt.lat = Float.parseFloat(reader.getAttributeValue(null, "lat"));
+      q.apt.lon = Float.parseFloat(reader.getAttributeValue(null, "lng"));
     }
   }
 
-  private List<Airport> webquery(URL url) {
+  private List<Airport> webquery(URL url, AirportListener listener) {
     List<Airport> result = new LinkedList<Airport>();
+    QueryState q = new QueryState(result, listener);
     try {
       XMLStreamReader reader = input.createXMLStreamReader(url.openStream());
       while (reader.hasNext()) {
         reader.nextTag();
         if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
-          work(reader, result);
+          work(reader, q);
         }
         if (reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
-          close_apt(result);
+          close_apt(q);
         }
       }
 
     } catch (XMLStreamException e) {
       LOG.log(Level.WARNING, e.toString(), e);
-    } catch (Exception e) {
+    } catch (final Exception e) {
       LOG.log(Level.WARNING, e.toString(), e);
-      JOptionPane.showMessageDialog(TerraMaster.frame, "Can't query Airports " + e.toString(), "Error", JOptionPane.ERROR_MESSAGE);    }
+      // we may be one of several query threads, report on the EDT
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          JOptionPane.showMessageDialog(TerraMaster.frame, "Can't query Airports " + e.toString(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+      });
+    }
 
     return result;
   }
 
+  /**
+   * (re)builds the local airport index in the background
+   * 
+   * @param aptDat
+   *          an apt.dat(.gz) file or null
+   * @param sceneryDir
+   *          the TerraSync directory or null
+   */
+  public void loadIndex(final File aptDat, final File sceneryDir) {
+    executor.submit(new Runnable() {
+      public void run() {
+        index = AirportIndex.build(aptDat, sceneryDir);
+      }
+    });
+  }
+
+  // adds locally found airports to the per-session map
+  private List<Airport> remember(List<Airport> list, AirportListener listener) {
+    map.putAll(list);
+    if (listener != null) {
+      for (Airport a : list)
+        listener.airportFound(a);
+    }
+    return list;
+  }
+
   public List<Airport> search(String str) {
+    return search(str, null);
+  }
+
+  /**
+   * looks an airport up by its exact code, locally first
+   * 
+   * @return null if unknown
+   */
+  public Airport find(String code) {
+    code = code.trim().toUpperCase();
+    Airport a = index.get(code);
+    if (a != null)
+      return a;
+    List<Airport> l = search(code);
+    for (int i = 0; l != null && i < l.size(); ++i) {
+      if (code.equals(l.get(i).code))
+        return l.get(i);
+    }
+    return null;
+  }
+
+  /**
+   * searches airports by code or name
+   * 
+   * @param listener
+   *          gets each airport as soon as it is found, may be null
+   */
+  public List<Airport> search(String str, AirportListener listener) {
     str = str.trim();
+    List<Airport> local = index.search(str);
+    if (!local.isEmpty())
+      return remember(local, listener);
+
     String url = String
         .format(
             "http://mpmap02.flightgear.org/fg_nav_xml.cgi?sstr=%s&apt_code&apt_name",
             str);
 
     try {
-      return webquery(new URL(url));
+      return webquery(new URL(url), listener);
     } catch (MalformedURLException e) {
       LOG.log(Level.WARNING, e.toString(), e);      
 //      System.err.printf("Error: Malformed URL: %s\n", url);
@@ -102,33 +216,137 @@ public class FGMap {
     return null;
   }
 
+  /**
+   * merges the selected 1x1 tiles into rectangles of adjacent tiles.
+   * Each rectangle is {south, west, north, east} (exclusive north/east)
+   * and never spans more than MAX_SPAN degrees.
+   */
+  static List<int[]> mergeTiles(Collection<TileName> list) {
+    // rows of selected longitudes, keyed by latitude
+    TreeMap<Integer, TreeSet<Integer>> rows = new TreeMap<Integer, TreeSet<Integer>>();
+    for (TileName t : list) {
+      TreeSet<Integer> row = rows.get(t.getLat());
+      if (row == null) {
+        row = new TreeSet<Integer>();
+        rows.put(t.getLat(), row);
+      }
+      row.add(t.getLon());
+    }
+
+    // first merge each row into runs of adjacent tiles
+    List<int[]> open = new ArrayList<int[]>();
+    List<int[]> boxes = new ArrayList<int[]>();
+    for (int lat : rows.keySet()) {
+      List<int[]> runs = new ArrayList<int[]>();
+      int[] run = null;
+      for (int lon : rows.get(lat)) {
+        if (run == null || lon != run[3] || run[3] - run[1] >= MAX_SPAN) {
+          run = new int[] { lat, lon, lat + 1, lon };
+          runs.add(run);
+        }
+        run[3] = lon + 1;
+      }
+
+      // then stack runs on top of identical runs of the row below
+      List<int[]> next = new ArrayList<int[]>();
+      for (int[] r : runs) {
+        int[] box = null;
+        for (Iterator<int[]> i = open.iterator(); i.hasNext();) {
+          int[] o = i.next();
+          if (o[2] == lat && o[1] == r[1] && o[3] == r[3]
+              && o[2] - o[0] < MAX_SPAN) {
+            i.remove();
+            box = o;
+            box[2] = lat + 1;
+            break;
+          }
+        }
+        next.add(box != null ? box : r);
+      }
+      boxes.addAll(open);
+      open = next;
+    }
+    boxes.addAll(open);
+    return boxes;
+  }
+
+  /**
+   * queries the airports within the given tiles. Adjacent tiles are merged
+   * into bounding boxes which are queried concurrently (at most MAX_QUERIES
+   * at a time). Each result is added to the map as soon as it arrives.
+   * The local airport index answers the tiles it has airports for; the
+   * web is only queried for the remaining tiles.
+   * The listener (may be null) gets each airport as soon as it is read.
+   */
   public List<Airport> browse(Collection<TileName> list) {
-    List<Airport> result = new LinkedList<Airport>();
+    return browse(list, null);
+  }
 
+  public List<Airport> browse(Collection<TileName> list, final AirportListener listener) {
+    AirportIndex idx = index;
+    List<Airport> result = new LinkedList<Airport>();
+    List<TileName> missing = new ArrayList<TileName>();
     for (TileName t : list) {
-      int lat = t.getLat(), lon = t.getLon();
-      String sw = String.format("%d,%d", lat, lon);
-      String ne = String.format("%d,%d", lat + 1, lon + 1);
+      List<Airport> l = idx.browse(Collections.singleton(t));
+      if (l.isEmpty())
+        missing.add(t);
+      else
+        result.addAll(l);
+    }
+    remember(result, listener);
+    if (missing.isEmpty())
+      return result;
+
+    CompletionService<List<Airport>> service = new ExecutorCompletionService<List<Airport>>(
+        executor);
+    int n = 0;
+
+    for (int[] box : mergeTiles(missing)) {
+      String sw = String.format("%d,%d", box[0], box[1]);
+      String ne = String.format("%d,%d", box[2], box[3]);
       String url = String
           .format(
               "http://mpmap02.flightgear.org/fg_nav_xml.cgi?ne=%s&sw=%s&apt_code",
               ne, sw);
       try {
-        result.addAll(webquery(new URL(url)));
-        SwingUtilities.invokeLater(new Runnable() {
-          public void run() {
-            TerraMaster.frame.repaint();
+        final URL u = new URL(url);
+        service.submit(new Callable<List<Airport>>() {
+          public List<Airport> call() {
+            return webquery(u, listener);
           }
         });
+        ++n;
       } catch (MalformedURLException e) {
         System.err.printf("Error: Malformed URL: %s\n", url);
       }
     }
+
+    // collect the results in the order they arrive
+    while (n-- > 0) {
+      try {
+        result.addAll(service.take().get());
+        // a listener repaints by itself
+        if (listener == null) {
+          SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+              TerraMaster.frame.repaint();
+            }
+          });
+        }
+      } catch (InterruptedException e) {
+        break;
+      } catch (ExecutionException e) {
+        LOG.log(Level.WARNING, e.toString(), e);
+      }
+    }
     return result;
   }
 
-  public HashMap<String, Airport> getAirportList() {
-    return map;
+  /**
+   * @return a snapshot of the known airports, safe to use on the EDT
+   */
+  public List<Airport> getAirportList() {
+    return map.values();
   }
 
   public void clearAirports() {
@@ -1,5 +1,4 @@
 import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -20,22 +19,29 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.swing.JOptionPane;
-import javax.swing.SwingUtilities;
-
+import net.sf.ivmaidns.dns.DNSCache;
 import net.sf.ivmaidns.dns.DNSConnection;
 import net.sf.ivmaidns.dns.DNSMsgHeader;
+import net.sf.ivmaidns.dns.DNSMultiplexer;
 import net.sf.ivmaidns.dns.DNSName;
 import net.sf.ivmaidns.dns.DNSRecord;
+import net.sf.ivmaidns.dns.DNSResponseHandler;
 import net.sf.ivmaidns.util.UnsignedInt;
 
 /**
@@ -48,26 +54,93 @@ public class HTTPTerraSync extends Thread implements TileService {
 
 	Logger log = Logger.getLogger(this.getClass().getName());
 
-	private static final int RESET = 1;
-	private static final int UPDATE = 2;  
-	private static final int EXTEND = 3;
 	private static final String TERRASYNC_SERVERS = "nameservers.bin";
+	/** the DNS answers, kept across runs for their TTL */
+	private static final String DNS_CACHE = "dnscache.bin";
+	private static boolean dnsCacheLoaded;
+	/** ms to wait for the answer of a name server */
+	private static final int DNS_TIMEOUT = 10000;
 	private LinkedList<TileName> syncList = new LinkedList<TileName>();
 	private boolean cancelFlag = false;
-	private boolean noquit = true;
+	private volatile boolean noquit = true;
+	/** true while the queue is being worked on */
+	private volatile boolean busy = false;
+
+	/** counters and timings, also visible through JMX */
+	private SyncMetrics metrics = new SyncMetrics();
+
+	// results of the planning pass, used up by syncDirectory
+	private HashSet<TileName> planned = new HashSet<TileName>(); // guarded by syncList
+	private Map<String, String> plannedIndex = new ConcurrentHashMap<String, String>();
+	private Map<String, Boolean> plannedLoad = new ConcurrentHashMap<String, Boolean>();
+	/** the tile being synced, guarded by syncList */
+	private TileName current;
+	/** plans the queued tiles ahead of the sync, in queue order */
+	private ExecutorService planner = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "HTTPTerraSync-plan");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private TileServiceMulticaster listeners = new TileServiceMulticaster();
+
+	private final TileTrash trash = TerraMaster.trash;
 
-	private ArrayList<URL> urls = new ArrayList<URL>();
+	/** shared files by SHA-1, null if not used */
+	private volatile ContentStore store;
+
+	/** the models used by the synced Objects, null to sync Models only on demand */
+	private volatile ModelCache modelCache;
+	private volatile boolean selectiveModels;
+	/** model directories synced since the queue was last empty */
+	private HashSet<String> modelsSynced = new HashSet<String>();
+
+	private final ArrayList<URL> urls = new ArrayList<URL>();
 	Random rand = new Random();
 	private File localBaseDir;
 
 	public HTTPTerraSync() {
 		super("HTTPTerraSync");
-		
+		metrics.register();
 	}
 
 	@Override
 	public void setScnPath(File file) {
 		localBaseDir = file;
+		trash.setBase(file);
+		modelCache = selectiveModels ? new ModelCache(file) : null;
+	}
+
+	/**
+	 * With selective on, the shared models the Objects of each synced tile
+	 * refer to are synced with it, and the models of deleted tiles are
+	 * evicted once no other tile uses them.
+	 */
+	public void setSelectiveModels(boolean selective) {
+		selectiveModels = selective;
+		modelCache = selective && localBaseDir != null ? new ModelCache(localBaseDir) : null;
+	}
+
+	/**
+	 * Uses a content-addressed store for the downloaded files, null for
+	 * none. Files the store no longer needs are removed in the background.
+	 */
+	public void setContentStore(File dir) {
+		if (dir == null) {
+			store = null;
+			return;
+		}
+		final ContentStore s = new ContentStore(dir);
+		store = s;
+		Thread t = new Thread("ContentStore") {
+			public void run() {
+				s.purge();
+			}
+		};
+		t.setDaemon(true);
+		t.start();
 	}
 
 	@Override
@@ -75,7 +148,14 @@ public class HTTPTerraSync extends Thread implements TileService {
 		synchronized (syncList) {
 			syncList.addAll(set);
 			cancelFlag = false;
+			metrics.setQueueDepth(syncList.size());
 		}
+		listeners.queued(set);
+		planner.execute(new Runnable() {
+			public void run() {
+				planQueued();
+			}
+		});
 		synchronized (this) {
 			try {
 				notify();
@@ -93,8 +173,25 @@ public class HTTPTerraSync extends Thread implements TileService {
 
 	@Override
 	public void quit() {
-		// TODO Auto-generated method stub
+		metrics.stop();
+		planner.shutdownNow();
+		noquit = false;
+		synchronized (this) {
+			notify();
+		}
+	}
 
+	/**
+	 * @return true when nothing is queued and no sync is running
+	 */
+	public boolean isIdle() {
+		synchronized (syncList) {
+			return !busy && syncList.isEmpty();
+		}
+	}
+
+	public SyncMetrics getMetrics() {
+		return metrics;
 	}
 
   @Override
@@ -102,59 +199,54 @@ public class HTTPTerraSync extends Thread implements TileService {
     cancelFlag = true;
     synchronized (syncList) {
       syncList.clear();
+      metrics.setQueueDepth(0);
     }
     (new Thread() {
       @Override
       public void run() {
-        try {
-          if (httpConn != null && httpConn.getInputStream() != null) {
-            httpConn.getInputStream().close();
-          }
-        } catch (IOException e) {
-          //Expecting to throw error
-        }
+        close(httpConn);
+        close(planConn);
       }
     }).start();
   }
 
+  private static void close(HttpURLConnection conn) {
+    try {
+      if (conn != null && conn.getInputStream() != null) {
+        conn.getInputStream().close();
+      }
+    } catch (IOException e) {
+      //Expecting to throw error
+    }
+  }
+
 	@Override
 	public void delete(Collection<TileName> selection) {
+		Map<TileName, TileData> tiles = new LinkedHashMap<TileName, TileData>();
+		final ModelCache models = modelCache;
 		for (TileName n : selection) {
 			TileData d = TerraMaster.mapScenery.remove(n);
 			if (d == null)
 				continue;
-			if (d.terrain) {
-				deltree(d.dir_terr);
-			}
-
-			if (d.objects) {
-				deltree(d.dir_obj);
-			}
-      if (d.buildings) {
-        deltree(d.dir_buildings);
-      }
-
+			tiles.put(n, d);
+			TerraMaster.diskUsage.remove(n);
 			synchronized (syncList) {
 				syncList.remove(n);
 			}
 		}
+		// the models stay until the delete can't be undone any more
+		trash.delete(tiles, models == null ? null : new TileTrash.PurgeListener() {
+			public void purged(Collection<TileName> gone) {
+				for (TileName n : gone)
+					models.release(n.getName());
+				models.evict();
+			}
+		});
 	}
 
-	private void deltree(File d) {
-		if (!d.exists())
-			return;
-		for (File f : d.listFiles()) {
-			if (f.isDirectory())
-				deltree(f);
-			try {
-				f.delete();
-			} catch (SecurityException x) {
-			}
-		}
-		try {
-			d.delete();
-		} catch (SecurityException x) {
-		}
+	@Override
+	public Collection<TileName> undoDelete() {
+		return trash.undo();
 	}
 
 	@Override
@@ -162,19 +254,26 @@ public class HTTPTerraSync extends Thread implements TileService {
 		while (noquit) {
 			synchronized (this) {
 				try {
-					wait();
+					// don't miss a sync() that came before we got here
+					while (noquit && syncList.isEmpty())
+						wait();
 				} catch (InterruptedException e) {
 				}
 			}
+			if (!noquit)
+				break;
+			synchronized (syncList) {
+				busy = true;
+			}
 			HashSet<String> apt = new HashSet<String>();
-			//update progressbar
-		    invokeLater(EXTEND, syncList.size() * 400 + 3000); // update
 			while (syncList.size() > 0) {
 				queryDNSServer();
 				final TileName n;
 				synchronized (syncList) {
 					n = syncList.getFirst();
+					current = n;
 				}
+				listeners.started(n);
 
 				String name = n.getName();
 				if (name.startsWith("MODELS")) {
@@ -191,24 +290,32 @@ public class HTTPTerraSync extends Thread implements TileService {
 							HashSet<String> apt2 = syncTile(path);
 							apt.addAll(apt2);
 						} catch (IOException e) {
-		          log.log(Level.WARNING, "Couldn't sync tile " + path, e);
+							error("Couldn't sync tile " + path, e);
 						}
 				}
 
 				synchronized (syncList) {
 					syncList.remove(n);
+					current = null;
+					metrics.setQueueDepth(syncList.size());
 				}
+				metrics.tileSynced();
+				listeners.tileComplete(n);
 			}
 			if (apt != null) {
 				try {
 					syncAirports(apt.toArray(new String[0]));
 				} catch (IOException e) {
-				  log.log(Level.WARNING, "Couldn't get airports ", e);
+					error("Couldn't get airports ", e);
 				}
 			}
 
 			// syncList is now empty
-			invokeLater(RESET, 0); // reset progressBar
+			clearPlan();
+			synchronized (syncList) {
+				busy = false;
+			}
+			listeners.idle();
 		}
 	}
 
@@ -223,24 +330,22 @@ public class HTTPTerraSync extends Thread implements TileService {
 		try {
 		  if(terrain)
 		  {
-        int updates = syncDirectory(TerraSyncDirectoryTypes.TERRAIN.dirname + path, false, TerraSyncDirectoryTypes.TERRAIN);        
-        invokeLater(UPDATE, 200 - updates); // update progressBar
+        syncDirectory(TerraSyncDirectoryTypes.TERRAIN.dirname + path, false, TerraSyncDirectoryTypes.TERRAIN);        
 		  }
       if(objects)
       {
-        int updates = syncDirectory(TerraSyncDirectoryTypes.OBJECTS.dirname + path, false, TerraSyncDirectoryTypes.OBJECTS);        
-        invokeLater(UPDATE, 200 - updates); // update progressBar
+        syncDirectory(TerraSyncDirectoryTypes.OBJECTS.dirname + path, false, TerraSyncDirectoryTypes.OBJECTS);        
+        syncModelsUsed(path.substring(path.lastIndexOf('/') + 1), TerraSyncDirectoryTypes.OBJECTS.dirname + path);
       }
       if(buildings)
       {
-        int updates = syncDirectory(TerraSyncDirectoryTypes.BUILDINGS.dirname + path, false, TerraSyncDirectoryTypes.BUILDINGS);        
-        invokeLater(UPDATE, 200 - updates); // update progressBar
+        syncDirectory(TerraSyncDirectoryTypes.BUILDINGS.dirname + path, false, TerraSyncDirectoryTypes.BUILDINGS);        
       }
-			HashSet<String> apt = findAirports(new File(localBaseDir, TerraSyncDirectoryTypes.TERRAIN + path));
+			HashSet<String> apt = findAirports(new File(localBaseDir, TerraSyncDirectoryTypes.TERRAIN.dirname + path));
 			return apt;
 
 		} catch (Exception e) {
-		  log.log(Level.SEVERE, "Can't sync tile " + path, e);
+			error("Can't sync tile " + path, e);
 		}
 		return new HashSet<String>();
 	}
@@ -253,8 +358,11 @@ public class HTTPTerraSync extends Thread implements TileService {
 	 */
 	private HashSet<String> findAirports(File d) {
 		HashSet<String> set = new HashSet<String>();
+		File[] list = d.listFiles();
+		if (list == null)
+			return set; // no terrain synced
 
-		for (File f : d.listFiles()) {
+		for (File f : list) {
 			String n = TileName.getAirportCode(f.getName());
 			if (n != null) {
 				set.add(n.substring(0, 3));
@@ -276,16 +384,15 @@ public class HTTPTerraSync extends Thread implements TileService {
 			String node = String.format("Airports/%c/%c/%c", i.charAt(0), i.charAt(1), i.charAt(2));
 			nodes.add(node);
 		}
-		invokeLater(UPDATE, 3000 - nodes.size() * 100);
 		for (String node : nodes) {
-			int updates = syncDirectory(node, false, TerraSyncDirectoryTypes.AIRPORTS);
-			invokeLater(UPDATE, 100 - updates);
+			syncDirectory(node, false, TerraSyncDirectoryTypes.AIRPORTS);
 		}
 	}
 
 	private URL getBaseUrl() {
-		// TODO Auto-generated method stub
-		return urls.get(rand.nextInt(urls.size()));
+		synchronized (urls) {
+			return urls.get(rand.nextInt(urls.size()));
+		}
 	}
 
 	/**
@@ -299,8 +406,23 @@ public class HTTPTerraSync extends Thread implements TileService {
 
 	private byte[] getFile(URL fileURL) throws IOException, FileNotFoundException {
 		log.info(fileURL.toExternalForm());
-		httpConn = (HttpURLConnection) fileURL.openConnection();
+		long start = System.nanoTime();
+		try {
+			return getFile(fileURL, start);
+		} finally {
+			metrics.httpTime(System.nanoTime() - start);
+		}
+	}
+
+	private byte[] getFile(URL fileURL, long start) throws IOException, FileNotFoundException {
+		HttpURLConnection httpConn = (HttpURLConnection) fileURL.openConnection();
+		// the planner fetches too, each thread keeps its own for cancel()
+		if (Thread.currentThread() == this)
+			this.httpConn = httpConn;
+		else
+			this.planConn = httpConn;
 		int responseCode = (httpConn).getResponseCode();
+		metrics.latency(fileURL.getHost(), System.nanoTime() - start);
 
 		if (responseCode == HttpURLConnection.HTTP_OK) {
 			String fileName = "";
@@ -333,6 +455,8 @@ public class HTTPTerraSync extends Thread implements TileService {
 			byte[] buffer = new byte[1024];
 			while ((bytesRead = inputStream.read(buffer)) != -1) {
 				outputStream.write(buffer, 0, bytesRead);
+				metrics.addBytes(bytesRead);
+				listeners.bytesTransferred(bytesRead);
 			}
 
 			outputStream.close();
@@ -347,9 +471,34 @@ public class HTTPTerraSync extends Thread implements TileService {
 		return "".getBytes();
 	}
 
+	/**
+	 * Syncs the model directories the .stg files of an Objects tile refer
+	 * to, and the ones their .xml files refer to in turn, and records them
+	 * as used by the tile.
+	 */
+	private void syncModelsUsed(String tile, String path) {
+		ModelCache models = modelCache;
+		if (models == null)
+			return;
+		Set<String> used = new LinkedHashSet<String>(ModelCache.readStg(new File(localBaseDir, path)));
+		LinkedList<String> todo = new LinkedList<String>(used);
+		while (!todo.isEmpty() && !cancelFlag) {
+			String dir = todo.removeFirst();
+			// only the model's own files, its subdirectories are models of
+			// their own if anything refers to them
+			if (modelsSynced.add(dir))
+				syncDirectory(dir, false, TerraSyncDirectoryTypes.MODELS, false);
+			for (String d : ModelCache.readModels(dir, new File(localBaseDir, dir))) {
+				if (used.add(d))
+					todo.add(d);
+			}
+		}
+		models.reference(tile, used);
+	}
+
 	private void syncModels() {
 		if (localBaseDir == null) {
-			JOptionPane.showMessageDialog(TerraMaster.frame, "TerraSync path not set");
+			error("TerraSync path not set", null);
 		}
 
 		try {
@@ -369,21 +518,25 @@ public class HTTPTerraSync extends Thread implements TileService {
 	 */
 
 	private int syncDirectory(String path, boolean force, TerraSyncDirectoryTypes models) {
+		return syncDirectory(path, force, models, true);
+	}
+
+	/**
+	 * Syncs the given directory, and its subdirectories if recursive.
+	 */
+	private int syncDirectory(String path, boolean force, TerraSyncDirectoryTypes models, boolean recursive) {
 		try {
 			int updates = 0;
 			if (cancelFlag)
 				return updates;
-			String remoteDirIndex = new String(getFile(new URL(getBaseUrl().toExternalForm() + path.replace("\\", "/") + "/.dirindex")));
-			String localDirIndex = readDirIndex(path);
-			String[] lines = remoteDirIndex.split("\r?\n");
-			String[] localLines = localDirIndex.split("\r?\n");
-			HashMap<String, String> lookup = new HashMap<String, String>();
-			for (int i = 0; i < localLines.length; i++) {
-				String line = localLines[i];
-				String[] splitLine = line.split(":");
-				if (splitLine.length > 2)
-					lookup.put(splitLine[1], splitLine[2]);
+			String remoteDirIndex = plannedIndex.remove(path);
+			if (remoteDirIndex == null) {
+				remoteDirIndex = getRemoteDirIndex(path);
+				// not planned, the index bytes count on both sides
+				listeners.planned(remoteDirIndex.length(), 0);
 			}
+			String[] lines = remoteDirIndex.split("\r?\n");
+			HashMap<String, String> lookup = readLookup(path);
 			for (int i = 0; i < lines.length; i++) {
 				if (cancelFlag)
 					return updates;
@@ -393,32 +546,48 @@ public class HTTPTerraSync extends Thread implements TileService {
 					// We've got a directory if force ignore what we know
 					// otherwise check the SHA against
 					// the one from the server
-					if (force || !splitLine[2].equals(lookup.get(splitLine[1])))
+					if (recursive && (force || !splitLine[2].equals(lookup.get(splitLine[1]))))
 						updates += syncDirectory(path + "/" + splitLine[1], force, models);
 				} else if (file.startsWith("f:")) {
 					// We've got a file
 					File localFile = new File(localBaseDir, path + File.separator + splitLine[1]);
-					boolean load = true;
-					if (localFile.exists()) {
-						log.info(localFile.getAbsolutePath());
-						byte[] b = calcSHA1(localFile);
-						String bytesToHex = bytesToHex(b);
-						// LOG.info(bytesToHex);
-						load = !splitLine[2].equals(bytesToHex);
-					} else {
-						if (!localFile.getParentFile().exists()) {
-							localFile.getParentFile().mkdirs();
-						}
+					Boolean p = plannedLoad.remove(localFile.getPath());
+					boolean load = p != null ? p : needsLoad(localFile, splitLine);
+					if (!localFile.getParentFile().exists()) {
+						localFile.getParentFile().mkdirs();
+					}
+					ContentStore s = store;
+					if (!load && s != null) {
+						// up to date, offer it to the store on the sync thread
+						s.add(splitLine[2], localFile);
+					} else if (load && s != null && s.link(splitLine[2], localFile)) {
+						metrics.storeHit();
+						load = false;
 					}
 					if (load) {
 						byte[] fileContent = getFile(
 								new URL(getBaseUrl().toExternalForm() + path.replace("\\", "/") + "/" + splitLine[1]));
+						long start = System.nanoTime();
+						// never write through a link into the store
+						if (s != null)
+							localFile.delete();
 						FileOutputStream fos = new FileOutputStream(localFile);
 						fos.write(fileContent);
 						fos.flush();
 						fos.close();
+						metrics.diskTime(System.nanoTime() - start);
+						metrics.fileDownloaded();
+						if (s != null) {
+							start = System.nanoTime();
+							String sha = bytesToHex(MessageDigest.getInstance("SHA-1").digest(fileContent));
+							metrics.hashTime(System.nanoTime() - start);
+							if (sha.equalsIgnoreCase(splitLine[2]))
+								s.add(sha, localFile);
+							else
+								log.warning("SHA-1 mismatch " + localFile);
+						}
 					}
-					invokeLater(UPDATE, 1);
+					listeners.fileProgress(path + "/" + splitLine[1], load);
 					updates++;
 				}
 				log.info(file);
@@ -426,15 +595,163 @@ public class HTTPTerraSync extends Thread implements TileService {
 			if (models == TerraSyncDirectoryTypes.OBJECTS || models == TerraSyncDirectoryTypes.TERRAIN || models == TerraSyncDirectoryTypes.BUILDINGS)
 				TerraMaster.addScnMapTile(TerraMaster.mapScenery, new File(localBaseDir, path), models);
 
+			if (!recursive) {
+				// the subdirectories aren't synced, a later recursive sync
+				// mustn't take them for up to date
+				remoteDirIndex = remoteDirIndex.replaceAll("(?m)^d:.*(\r?\n)?", "");
+			}
 			storeDirIndex(path, remoteDirIndex);
 			return updates;
 		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			error("Can't sync " + path, e);
 		}
 		return 0;
 	}
 
+	private String getRemoteDirIndex(String path) throws IOException {
+		return new String(getFile(new URL(getBaseUrl().toExternalForm() + path.replace("\\", "/") + "/.dirindex")));
+	}
+
+	// name -> SHA of the entries of the local .dirindex
+	private HashMap<String, String> readLookup(String path) throws NoSuchAlgorithmException, IOException {
+		String[] localLines = readDirIndex(path).split("\r?\n");
+		HashMap<String, String> lookup = new HashMap<String, String>();
+		for (int i = 0; i < localLines.length; i++) {
+			String line = localLines[i];
+			String[] splitLine = line.split(":");
+			if (splitLine.length > 2)
+				lookup.put(splitLine[1], splitLine[2]);
+		}
+		return lookup;
+	}
+
+	/**
+	 * @return the size given by a "f:name:sha:size" .dirindex line, or -1
+	 */
+	private static long fileSize(String[] splitLine) {
+		try {
+			return splitLine.length > 3 ? Long.parseLong(splitLine[3].trim()) : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Checks a local file against its .dirindex entry. A differing size
+	 * saves the hashing.
+	 */
+	private boolean needsLoad(File localFile, String[] splitLine) throws NoSuchAlgorithmException, IOException {
+		if (!localFile.exists())
+			return true;
+		long size = fileSize(splitLine);
+		if (size >= 0 && localFile.length() != size)
+			return true;
+		log.info(localFile.getAbsolutePath());
+		long start = System.nanoTime();
+		byte[] b = calcSHA1(localFile);
+		metrics.hashTime(System.nanoTime() - start);
+		boolean load = !splitLine[2].equals(bytesToHex(b));
+		if (!load)
+			metrics.cacheHit();
+		return load;
+	}
+
+	/**
+	 * Plans the queued tiles, one at a time in queue order : fetches their
+	 * .dirindex trees, checks the local files and reports the bytes to
+	 * download. Runs on the planner thread, so the indices of the next
+	 * tiles are fetched while the current one downloads.
+	 */
+	private void planQueued() {
+		queryDNSServer();
+		while (!cancelFlag) {
+			TileName n = null;
+			synchronized (syncList) {
+				for (TileName t : syncList) {
+					if (t != current && !planned.contains(t)) {
+						n = t;
+						break;
+					}
+				}
+				if (n == null)
+					return;
+				planned.add(n);
+			}
+			long[] total = new long[2];
+			Map<String, String> index = new HashMap<String, String>();
+			Map<String, Boolean> load = new HashMap<String, Boolean>();
+			String name = n.getName();
+			if (name.equals("MODELS")) {
+				plan("Models", total, index, load);
+			} else if (!name.startsWith("MODELS")) {
+				String path = n.buildPath();
+				if (path == null)
+					continue;
+				if (terrain)
+					plan(TerraSyncDirectoryTypes.TERRAIN.dirname + path, total, index, load);
+				if (objects)
+					plan(TerraSyncDirectoryTypes.OBJECTS.dirname + path, total, index, load);
+				if (buildings)
+					plan(TerraSyncDirectoryTypes.BUILDINGS.dirname + path, total, index, load);
+			}
+			if (cancelFlag)
+				return;
+			synchronized (syncList) {
+				// unless the sync got there first
+				if (n != current && syncList.contains(n)) {
+					plannedIndex.putAll(index);
+					plannedLoad.putAll(load);
+				}
+			}
+			listeners.planned(total[0], (int) total[1]);
+		}
+	}
+
+	/**
+	 * Adds bytes and files to fetch below path to total[0] and total[1].
+	 * The remote indices and per-file decisions go to index and load, for
+	 * syncDirectory.
+	 */
+	private void plan(String path, long[] total, Map<String, String> index, Map<String, Boolean> load) {
+		if (cancelFlag)
+			return;
+		try {
+			String remoteDirIndex = getRemoteDirIndex(path);
+			index.put(path, remoteDirIndex);
+			// transferred too, so the progress can't run ahead of the plan
+			total[0] += remoteDirIndex.length();
+			HashMap<String, String> lookup = readLookup(path);
+			for (String file : remoteDirIndex.split("\r?\n")) {
+				String[] splitLine = file.split(":");
+				if (file.startsWith("d:")) {
+					if (!splitLine[2].equals(lookup.get(splitLine[1])))
+						plan(path + "/" + splitLine[1], total, index, load);
+				} else if (file.startsWith("f:")) {
+					File localFile = new File(localBaseDir, path + File.separator + splitLine[1]);
+					boolean l = needsLoad(localFile, splitLine);
+					load.put(localFile.getPath(), l);
+					ContentStore s = store;
+					if (l && (s == null || !s.contains(splitLine[2]))) {
+						total[0] += Math.max(0, fileSize(splitLine));
+						total[1]++;
+					}
+				}
+			}
+		} catch (Exception e) {
+			// syncDirectory will try again and report it
+			log.log(Level.FINE, "Can't plan " + path, e);
+		}
+	}
+
+	private void clearPlan() {
+		modelsSynced.clear();
+		synchronized (syncList) {
+			planned.clear();
+		}
+		plannedIndex.clear();
+		plannedLoad.clear();
+	}
+
 	private String readDirIndex(String path) throws NoSuchAlgorithmException, IOException {
 		File file = new File(new File(localBaseDir, path), ".dirindex");
 		return file.exists() ? new String(readFile(file)) : "";
@@ -446,7 +763,9 @@ public class HTTPTerraSync extends Thread implements TileService {
 	}
 
 	final protected static char[] hexArray = "0123456789abcdef".toCharArray();
-	private HttpURLConnection httpConn;
+	private volatile HttpURLConnection httpConn;
+	/** the connection of the planner thread */
+	private volatile HttpURLConnection planConn;
 
   private boolean terrain;
 
@@ -475,13 +794,14 @@ public class HTTPTerraSync extends Thread implements TileService {
 
 	private byte[] calcSHA1(File file) throws NoSuchAlgorithmException, IOException {
 		MessageDigest digest = MessageDigest.getInstance("SHA-1");
-		InputStream fis = new FileInputStream(file);
-		int n = 0;
-		byte[] buffer = new byte[8192];
-		while (n != -1) {
-			n = fis.read(buffer);
-			if (n > 0) {
-				digest.update(buffer, 0, n);
+		try (InputStream fis = new FileInputStream(file)) {
+			int n = 0;
+			byte[] buffer = new byte[8192];
+			while (n != -1) {
+				n = fis.read(buffer);
+				if (n > 0) {
+					digest.update(buffer, 0, n);
+				}
 			}
 		}
 		return digest.digest();
@@ -527,338 +847,212 @@ public class HTTPTerraSync extends Thread implements TileService {
 	 */
 
 	private void queryDNSServer() {
+		// the sync and the planner thread both need the mirrors
+		synchronized (urls) {
+			findMirrors();
+		}
+	}
+
+	/** waits for the answer to a query sent through the multiplexer */
+	private static class DNSAnswer implements DNSResponseHandler {
+		private byte[] msgBytes;
+		private IOException error;
+		private boolean done;
+
+		public synchronized boolean received(InetAddress server, byte[] msgBytes) {
+			this.msgBytes = msgBytes;
+			done = true;
+			notifyAll();
+			return false;
+		}
+
+		public synchronized void failed(InetAddress server, IOException e) {
+			error = e;
+			done = true;
+			notifyAll();
+		}
+
+		synchronized byte[] get() throws IOException {
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Interrupted waiting for DNS answer");
+				}
+			}
+			if (error != null)
+				throw error;
+			return msgBytes;
+		}
+	}
+
+	/** loads the saved DNS answers into the shared cache, once */
+	private static synchronized DNSCache getDNSCache() {
+		DNSCache cache = DNSCache.getDefault();
+		if (!dnsCacheLoaded) {
+			dnsCacheLoaded = true;
+			try {
+				FileInputStream in = new FileInputStream(DNS_CACHE);
+				try {
+					cache.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				Logger.getLogger(HTTPTerraSync.class.getName()).log(Level.FINE, "Can't read " + DNS_CACHE, e);
+			}
+		}
+		return cache;
+	}
+
+	private void saveDNSCache(DNSCache cache) {
+		try {
+			FileOutputStream out = new FileOutputStream(DNS_CACHE);
+			try {
+				cache.save(out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Can't write " + DNS_CACHE, e);
+		}
+	}
+
+	/** adds the mirror a NAPTR record of qName points to */
+	private void addMirror(DNSRecord record, DNSName qName) {
+		Object[] rData = record.getRData();
+		if (record.getRType() != DNSRecord.NAPTR || rData.length <= 4)
+			return;
+		String regex = (String) rData[4];
+		String[] tokens = regex.split("!");
+		Pattern p = Pattern.compile(tokens[1]);
+		Matcher m = p.matcher(qName.getAbsolute());
+		if (m.find()) {
+			try {
+				urls.add(new URL(m.replaceAll(tokens[2] + "/")));
+			} catch (MalformedURLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void findMirrors() {
 		if (urls.size() > 0)
 			return;
 		int index, len = 0, rcode, count = 0;
-		boolean isZone = false, isNS = false, isPlain = false;
-		String queryName = null;
-		String fileName = null;
-		InetAddress server;
 		//Get the system dns
 		List<String> nameservers = sun.net.dns.ResolverConfiguration.open().nameservers();
 		//Add google
 		nameservers.add(0, "8.8.8.8");
-		for (String serverName : nameservers) {
+		DNSName qName = null;
+		try {
+			qName = new DNSName("terrasync.flightgear.org", null);
+		} catch (Exception e) {
+		  log.log(Level.WARNING, "DNS Name can't be created", e);
+			return;
+		}
+		// No query at all while the last answer is still valid
+		DNSCache cache = getDNSCache();
+		DNSRecord[] cached = cache.get(qName, DNSRecord.NAPTR, DNSRecord.IN);
+		if (cached != null) {
+			for (DNSRecord record : cached)
+				addMirror(record, qName);
+			if (urls.size() > 0) {
+				log.info("Using cached mirrors of " + qName.getDomain());
+				return;
+			}
+		}
+		DNSMultiplexer multiplexer;
+		try {
+			multiplexer = new DNSMultiplexer();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Can't open DNS multiplexer", e);
+			return;
+		}
+		multiplexer.start();
+		// All servers are asked at once, the answers are still taken in order
+		InetAddress[] addresses = new InetAddress[nameservers.size()];
+		DNSMsgHeader[] qHeaders = new DNSMsgHeader[nameservers.size()];
+		DNSAnswer[] answers = new DNSAnswer[nameservers.size()];
+		for (int i = 0; i < nameservers.size(); i++) {
+			String serverName = nameservers.get(i);
 			try {
-				server = InetAddress.getByName(serverName);
+				addresses[i] = InetAddress.getByName(serverName);
 			} catch (UnknownHostException e) {
 			  log.log(Level.WARNING, "Host unknown: " + serverName);
 				continue;
 			}
-			DNSName qName = null;
-			try {
-				qName = new DNSName("terrasync.flightgear.org", null);
-			} catch (Exception e) {
-			  log.log(Level.WARNING, "DNS Name can't be created", e);
-        continue;
-			}
-
-			log.info("Connecting to " + server + " to query " + qName.getDomain() + "...");
-			DNSConnection connection = new DNSConnection();
+			log.info("Querying " + addresses[i] + " for " + qName.getDomain() + "...");
+			qHeaders[i] = DNSMsgHeader.construct(DNSMsgHeader.QUERY, true, 1, 0, 0, 0, false);
+			DNSRecord[] records = new DNSRecord[1];
+			records[0] = new DNSRecord(qName, DNSRecord.ANY, DNSRecord.IN);
+			answers[i] = new DNSAnswer();
+			multiplexer.query(addresses[i], DNSConnection.encode(qHeaders[i], records), DNS_TIMEOUT, answers[i]);
+		}
+		try {
+		for (int i = 0; i < nameservers.size(); i++) {
+			if (answers[i] == null)
+				continue;
+			DNSMsgHeader qHeader = qHeaders[i], header;
+			DNSRecord[] records;
+			byte[] msgBytes;
+			log.fine("Receiving answer from " + addresses[i] + "...");
 			try {
-				connection.open(server);
+				msgBytes = answers[i].get();
 			} catch (IOException e) {
-				log.log(Level.WARNING, "Could not establish connection to: " + serverName, e);
+				log.log(Level.WARNING, "Data transmission error!", e);
+				continue;
 			}
-			DNSMsgHeader qHeader, header = null;
-			DNSRecord[] records = null;
-			DNSRecord resRecord;
-			byte[] msgBytes;
-			DNSName[] servers = new DNSName[0];
-			rcode = DNSMsgHeader.NOERROR;
-			if (isNS || !isZone) {
-				log.fine("Sending " + (qName.getLevel() > 0 ? qName.getRelativeAt(0) : "root") + (isNS ? " domain" : "")
-						+ " query...");
-				qHeader = DNSMsgHeader.construct(DNSMsgHeader.QUERY, true, 1, 0, 0, 0, false);
-				records = new DNSRecord[1];
-				records[0] = new DNSRecord(qName, isNS ? DNSRecord.NS : DNSRecord.ANY, DNSRecord.IN);
-				msgBytes = DNSConnection.encode(qHeader, records);
-				try {
-					connection.send(msgBytes);
-				} catch (IOException e) {
-				  log.log(Level.WARNING, "Data transmission error!", e);
-					continue;
-				}
-				log.fine("Receiving answer...");
-				try {
-					msgBytes = connection.receive(true);
-				} catch (IOException e) {
-					connection.close();
-          log.log(Level.WARNING, "Data transmission error!", e);
-					continue;
-				}
-				if ((records = DNSConnection.decode(msgBytes)) == null) {
-					connection.close();
-					System.err.println("Invalid protocol message received!");
-					continue;
-				}
-				header = new DNSMsgHeader(msgBytes);
-				if (!header.isResponse() || header.getId() != qHeader.getId()) {
-					connection.close();
-					log.warning("Bad protocol message header: " + header.toString());
-					continue;
-				}
-				log.info("Authoritative answer: " + (header.isAuthoritativeAnswer() ? "Yes" : "No"));
-				if ((rcode = header.getRCode()) != DNSMsgHeader.NOERROR)
-					log.info(rcode == DNSMsgHeader.NXDOMAIN
-							? (isNS ? "Domain does not exist!" : "Requested name does not exist!")
-							: "Server returned error: "
-									+ UnsignedInt.toAbbreviation(rcode, DNSMsgHeader.RCODE_ABBREVS));
-				len = records.length;
-				if ((index = header.getQdCount()) < len) {
-					count = header.getAnCount();
-					if (!isNS) {
-						int section = 1;
-						log.info("Answer:");
-						urls.clear();
-						do {
-
-							while (count <= 0) {
-								count = len;
-								String str = "";
-								if (++section == 2) {
-									count = header.getNsCount();
-									str = "Name servers:";
-								} else if (section == 3) {
-									count = header.getArCount();
-									str = "Additional:";
-								}
-								log.info(str);
-							}
-							log.info(" ");
-							Object[] rData = records[index].getRData();
-							if( rData.length >= 4)
-							{
-              String regex = (String) rData[4];
-							String[] tokens = regex.split("!");
-							Pattern p = Pattern.compile(tokens[1]);
-							Matcher m = p.matcher(qName.getAbsolute());
-							if (m.find())
-							{
-								try {
-									urls.add(new URL(m.replaceAll(tokens[2] + "/")));
-								} catch (MalformedURLException e) {
-									e.printStackTrace();
-								}
-							}
-							}
-							log.info(records[index].toString(null, null, false));
-							index++;
-							count--;
-						} while (index < len);
-						if( urls.size() > 0 )
-						{
-						  //We have some servers so we can return
-						  return;
-						}
-					} else if (rcode == DNSMsgHeader.NOERROR) {
-						boolean found = false;
-						log.info("Found authoritative name servers:");
-						servers = new DNSName[count];
-						for (int index2 = 0; index2 < count && index < len; index2++)
-							if ((resRecord = records[index++]).getRType() == DNSRecord.NS
-									&& qName.equals(resRecord.getRName())) {
-								if (!found) {
-									found = true;
-									log.info("");
-								}
-								log.info(" ");
-								log.info((servers[index2] = (DNSName) resRecord.getRData()[0]).getAbsolute());
-							}
-						if (!found) {
-							log.info(" none");
-							log.info("Domain does not exist!");
-							rcode = DNSMsgHeader.NXDOMAIN;
-						}
-					}
-				}
-				if (rcode != DNSMsgHeader.NOERROR) {
-					connection.close();
-					// return rcode == DNSMsgHeader.NXDOMAIN ? 5 : 6;
-					return;
-				}
+			if ((records = DNSConnection.decode(msgBytes)) == null) {
+				System.err.println("Invalid protocol message received!");
+				continue;
 			}
-			if (isZone) {
-				index = servers.length;
-				DNSName rName;
-				if (index != 0) {
-					try {
-						rName = new DNSName(serverName, null);
-						while (!rName.equals(servers[index - 1]) && --index > 0)
-							;
-					} catch (NumberFormatException e) {
-					}
-					if (index > 0) {
-						servers[index - 1] = null;
-						index = 0;
-					} else {
-						connection.close();
-						serverName = null;
-					}
-				}
-				int size = -1, receivedBytesCount = 0, time;
-				String errStr = null;
-				Object[] soaRData = null;
+			header = new DNSMsgHeader(msgBytes);
+			if (!header.isResponse() || header.getId() != qHeader.getId()) {
+				log.warning("Bad protocol message header: " + header.toString());
+				continue;
+			}
+			if (cache.cache(msgBytes, msgBytes.length) > 0)
+				saveDNSCache(cache);
+			log.info("Authoritative answer: " + (header.isAuthoritativeAnswer() ? "Yes" : "No"));
+			if ((rcode = header.getRCode()) != DNSMsgHeader.NOERROR)
+				log.info(rcode == DNSMsgHeader.NXDOMAIN ? "Requested name does not exist!"
+						: "Server returned error: " + UnsignedInt.toAbbreviation(rcode, DNSMsgHeader.RCODE_ABBREVS));
+			len = records.length;
+			if ((index = header.getQdCount()) < len) {
+				count = header.getAnCount();
+				int section = 1;
+				log.info("Answer:");
+				urls.clear();
 				do {
-					if (serverName == null) {
-						do {
-							if (index >= servers.length)
-								return;
-						} while (servers[index++] == null);
-						serverName = servers[index - 1].getRelativeAt(0);
-						log.info("Connecting to " + serverName + "...");
-						try {
-							server = InetAddress.getByName(serverName);
-						} catch (UnknownHostException e) {
-							System.err.println("Host unknown!");
-							serverName = null;
-							rcode = 9;
-							continue;
-						} catch (SecurityException e) {
-							serverName = null;
-							rcode = 9;
-							continue;
-						}
-						try {
-							connection.open(server);
-						} catch (IOException e) {
-							System.err.println("Could not establish connection to: " + serverName);
-							serverName = null;
-							rcode = 8;
-							continue;
+					while (count <= 0) {
+						count = len;
+						String str = "";
+						if (++section == 2) {
+							count = header.getNsCount();
+							str = "Name servers:";
+						} else if (section == 3) {
+							count = header.getArCount();
+							str = "Additional:";
 						}
+						log.info(str);
 					}
-					log.info("Sending zone query for: " + qName.getRelativeAt(0));
-					qHeader = DNSMsgHeader.construct(DNSMsgHeader.QUERY, false, 1, 0, 0, 0, false);
-					records = new DNSRecord[1];
-					records[0] = new DNSRecord(qName, DNSRecord.AXFR, DNSRecord.IN);
-					msgBytes = DNSConnection.encode(qHeader, records);
-					try {
-						connection.send(msgBytes);
-					} catch (IOException e) {
-						connection.close();
-						System.err.println("Data transmission error!");
-						serverName = null;
-						rcode = 7;
-						continue;
-					}
-					log.info("Waiting for response...");
-					receivedBytesCount = 0;
-					errStr = null;
-					time = (int) System.currentTimeMillis();
-					try {
-						if ((records = DNSConnection.decode(msgBytes = connection.receive(true))) == null) {
-							connection.close();
-							System.err.println("Invalid protocol message received!");
-							serverName = null;
-							rcode = 7;
-							continue;
-						}
-						header = new DNSMsgHeader(msgBytes);
-						if (!header.isResponse() || header.getId() != qHeader.getId() && header.getId() != 0) {
-							connection.close();
-							System.err.println("Bad protocol message header: " + header.toString());
-							serverName = null;
-							rcode = 7;
-							continue;
-						}
-						if ((rcode = header.getRCode()) != DNSMsgHeader.NOERROR) {
-							connection.close();
-							System.err.println(rcode == DNSMsgHeader.REFUSED ? "Zone access denied by this server!"
-									: "Server returned error: "
-											+ UnsignedInt.toAbbreviation(rcode, DNSMsgHeader.RCODE_ABBREVS));
-							rcode = rcode == DNSMsgHeader.REFUSED ? 4 : 6;
-							serverName = null;
-							continue;
-						}
-						if ((rcode = header.getAnCount()) <= 0
-								|| (count = header.getQdCount()) > records.length - rcode) {
-							connection.close();
-							System.err.println("None answer records received!");
-							serverName = null;
-							rcode = 6;
-							continue;
-						}
-						if ((resRecord = records[count]).getRType() != DNSRecord.SOA
-								|| resRecord.getRClass() != DNSRecord.IN
-								|| !(rName = resRecord.getRName()).equals(qName)) {
-							connection.close();
-							System.err.println(
-									"Non-authoritative record received: " + resRecord.toString(null, null, false));
-							serverName = null;
-							rcode = 6;
-							continue;
-						}
-						qName = rName;
-						soaRData = resRecord.getRData();
-						if (soaRData.length <= DNSRecord.SOA_MINTTL_INDEX) {
-							connection.close();
-							System.err.println("Invalid authority data received!");
-							serverName = null;
-							rcode = 6;
-							continue;
-						}
-						size = 0;
-						if (fileName != null) {
-							DNSRecord[] curRecords = records;
-							receivedBytesCount = msgBytes.length;
-							log.info("Getting zone records ");
-							records[0] = resRecord;
-							rcode--;
-							count++;
-							size = 1;
-							do {
-								while (rcode-- > 0 && (resRecord = curRecords[count++]).getRType() != DNSRecord.SOA)
-									if (resRecord.getRClass() == DNSRecord.IN
-											|| resRecord.getRName().isInDomain(qName, false)) {
-										if (size % 100 == 1) {
-											log.info(".");
-										}
-										records[size++] = resRecord;
-									}
-								if (rcode >= 0)
-									break;
-								receivedBytesCount += (msgBytes = connection.receive(true)).length;
-								if ((curRecords = DNSConnection.decode(msgBytes)) == null
-										|| !(header = new DNSMsgHeader(msgBytes)).isResponse()
-										|| (count = header.getQdCount()) > curRecords.length - header.getAnCount()) {
-									errStr = "Invalid protocol message received!";
-									break;
-								}
-								if ((rcode = header.getRCode()) != DNSMsgHeader.NOERROR) {
-									errStr = "Server returned error: "
-											+ UnsignedInt.toAbbreviation(rcode, DNSMsgHeader.RCODE_ABBREVS);
-									break;
-								}
-								if (records.length - (rcode = header.getAnCount()) < size) {
-									int newSize;
-									DNSRecord[] newRecords;
-									if ((newSize = (size >> 1) + rcode + size + 1) <= size)
-										newSize = -1 >>> 1;
-									System.arraycopy(records, 0, newRecords = new DNSRecord[newSize], 0, size);
-									records = newRecords;
-								}
-							} while (true);
-						}
-					} catch (EOFException e) {
-						errStr = "Connection terminated by server!";
-					} catch (InterruptedIOException e) {
-						errStr = "Connection time-out!";
-					} catch (IOException e) {
-						errStr = "Data transmission error!";
-					}
-					time = (int) System.currentTimeMillis() - time;
-					connection.close();
-					if (size > 0)
-						log.info("");
-					if (errStr != null)
-						System.err.println(errStr);
-					if (size < 0)
-						serverName = null;
-					else
-						break;
-				} while (true);
+					log.info(" ");
+					addMirror(records[index], qName);
+					log.info(records[index].toString(null, null, false));
+					index++;
+					count--;
+				} while (index < len);
+				if (urls.size() > 0) {
+					// We have some servers so we can return
+					return;
+				}
 			}
+			if (rcode != DNSMsgHeader.NOERROR)
+				return;
+		}
+		} finally {
+			multiplexer.close();
 		}
 		if (!urls.isEmpty()) {
 			try {
@@ -874,7 +1068,9 @@ public class HTTPTerraSync extends Thread implements TileService {
 		} else {
 			try {
 				ObjectInputStream ois = new ObjectInputStream(new FileInputStream(TERRASYNC_SERVERS));
-				urls = (ArrayList<URL>) ois.readObject();
+				// refilled in place, both threads lock on this list
+				for (Object url : (ArrayList<?>) ois.readObject())
+					urls.add(new URL(url.toString()));
 			} catch (IOException e1) {
         log.log(Level.WARNING, e1.getMessage(), e1);
 			} catch (ClassNotFoundException e) {
@@ -884,36 +1080,27 @@ public class HTTPTerraSync extends Thread implements TileService {
 	}
 
 	/**
-	 * Does the Async notification of the GUI
+	 * Counts, logs and reports an error
 	 * 
-	 * @param action
+	 * @param message
+	 * @param t
+	 *          may be null
 	 */
 
-	private void invokeLater(final int action, final int num) {
-		if (num < 0)
-			log.info("Update < 0");
-		// invoke this on the Event Disp Thread
-		SwingUtilities.invokeLater(new Runnable() {
-			public void run() {
-				switch (action) {
-				case RESET: // reset progressBar
-					TerraMaster.frame.butStop.setEnabled(false);
-					try {
-						Thread.sleep(1200);
-					} catch (InterruptedException e) {
-					}
-					TerraMaster.frame.progressBar.setMaximum(0);
-					TerraMaster.frame.progressBar.setVisible(false);
-					break;
-				case UPDATE: // update progressBar
-					TerraMaster.frame.progressUpdate(num);
-					break;
-				case EXTEND: // progressBar maximum++
-					TerraMaster.frame.progressBar.setMaximum(TerraMaster.frame.progressBar.getMaximum() + num);
-					break;
-				}
-			}
-		});
+	private void error(String message, Throwable t) {
+		metrics.error();
+		log.log(Level.WARNING, message, t);
+		listeners.error(message, t);
+	}
+
+	@Override
+	public void addListener(TileServiceListener l) {
+		listeners.add(l);
+	}
+
+	@Override
+	public void removeListener(TileServiceListener l) {
+		listeners.remove(l);
 	}
 
   @Override
@@ -928,6 +1115,9 @@ public class HTTPTerraSync extends Thread implements TileService {
     terrain = Boolean.parseBoolean(TerraMaster.props.getProperty(TerraSyncDirectoryTypes.TERRAIN.name(), "true"));
     objects = Boolean.parseBoolean(TerraMaster.props.getProperty(TerraSyncDirectoryTypes.OBJECTS.name(), "true"));
     buildings = Boolean.parseBoolean(TerraMaster.props.getProperty(TerraSyncDirectoryTypes.BUILDINGS.name(), "false"));
+    setSelectiveModels(Boolean.parseBoolean(TerraMaster.props.getProperty(TerraMasterProperties.SELECTIVE_MODELS, "false")));
+    String s = TerraMaster.props.getProperty(TerraMasterProperties.CONTENT_STORE, "");
+    setContentStore(s.length() > 0 ? new File(s) : null);
   }
 
 }
@@ -0,0 +1,274 @@
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command line entry point syncing scenery without any Swing.
+ * Progress is printed to stdout as "key=value" lines, one per interval:
+ *
+ * <pre>
+ * queued tiles=4
+ * planned bytes=20971520 files=480
+ * tile name=e008n47
+ * progress tiles=1/4 files=120 bytes=5242880 planned=20971520 rate=1048576 eta=15 hits=30 errors=0
+ * done status=0 tiles=4 files=480 bytes=20971520 seconds=20 rate=1048576 hits=120 errors=0
+ * </pre>
+ *
+ * Exit status : 0 ok, 1 bad arguments, 2 errors during sync.
+ */
+
+public class HeadlessSync {
+	static final int OK = 0, USAGE = 1, FAILED = 2;
+
+	PrintStream out = System.out;
+
+	String scenery, aptDat, store;
+	boolean terrain = true, objects = true, buildings = false, models = false, modelsUsed = false;
+	int interval = 1;
+	Collection<TileName> tiles = new LinkedHashSet<TileName>();
+	Collection<String> airports = new LinkedHashSet<String>();
+	List<String> route = new ArrayList<String>();
+	double corridor = Route.CORRIDOR_NM;
+
+	static void usage() {
+		System.err.println("usage: java -jar terramaster.jar --sync [options]\n"
+				+ "  --scenery DIR        TerraSync directory (default from terramaster.properties)\n"
+				+ "  --tiles LIST         tiles, e.g. e008n47,w123n37:w121n38 (ranges by corner)\n"
+				+ "  --bbox S,W,N,E       all tiles within the box (degrees)\n"
+				+ "  --airports LIST      tiles containing the airports, e.g. KSFO,EGLL\n"
+				+ "  --route LIST         tiles along a route of airports or lat/lon, e.g. EDDF,LOWI,46.5/11.3\n"
+				+ "  --corridor NM        half width of the route corridor (default 30)\n"
+				+ "  --types LIST         terrain,objects,buildings (default terrain,objects)\n"
+				+ "  --models             also sync the shared Models\n"
+				+ "  --models-used        sync the shared Models the synced Objects use\n"
+				+ "  --apt-dat FILE       apt.dat(.gz) used to locate airports\n"
+				+ "  --store DIR          shared store of files by SHA-1, hard linked into the tree\n"
+				+ "  --interval SECONDS   progress interval (default 1)");
+	}
+
+	/**
+	 * @return true if the arguments ask for a headless sync
+	 */
+	static boolean isHeadless(String[] args) {
+		for (String a : args)
+			if (a.equals("--sync"))
+				return true;
+		return false;
+	}
+
+	public static int run(String[] args) {
+		HeadlessSync h = new HeadlessSync();
+		try {
+			if (!h.parse(args)) {
+				usage();
+				return USAGE;
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println("error " + e.getMessage());
+			usage();
+			return USAGE;
+		}
+		return h.sync();
+	}
+
+	// the tile containing lat/lon, W and S are negative
+	private TileName tile(double lat, double lon) {
+		return TerraMaster.tilenameManager.getTile((int) Math.floor(lon), (int) Math.floor(lat));
+	}
+
+	private void addRange(int lat1, int lon1, int lat2, int lon2) {
+		for (int lat = Math.min(lat1, lat2); lat <= Math.max(lat1, lat2); ++lat)
+			for (int lon = Math.min(lon1, lon2); lon <= Math.max(lon1, lon2); ++lon) {
+				TileName t = TerraMaster.tilenameManager.getTile(lon, lat);
+				if (t != null)
+					tiles.add(t);
+			}
+	}
+
+	private TileName parseTile(String name) {
+		TileName t = TerraMaster.tilenameManager.getTile(name.trim().toLowerCase());
+		if (t == null)
+			throw new IllegalArgumentException("bad tile name " + name);
+		return t;
+	}
+
+	boolean parse(String[] args) {
+		scenery = TerraMaster.props.getProperty(TerraMasterProperties.SCENERY_PATH);
+		aptDat = TerraMaster.props.getProperty(TerraMasterProperties.APT_DAT);
+		store = TerraMaster.props.getProperty(TerraMasterProperties.CONTENT_STORE);
+		modelsUsed = Boolean.parseBoolean(TerraMaster.props.getProperty(TerraMasterProperties.SELECTIVE_MODELS));
+		for (int i = 0; i < args.length; ++i) {
+			String a = args[i];
+			if (a.equals("--sync"))
+				continue;
+			if (a.equals("--models")) {
+				models = true;
+				continue;
+			}
+			if (a.equals("--models-used")) {
+				modelsUsed = true;
+				continue;
+			}
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("missing value for " + a);
+			String v = args[++i];
+			if (a.equals("--scenery")) {
+				scenery = v;
+			} else if (a.equals("--store")) {
+				store = v;
+			} else if (a.equals("--apt-dat")) {
+				aptDat = v;
+			} else if (a.equals("--interval")) {
+				interval = Math.max(1, Integer.parseInt(v));
+			} else if (a.equals("--tiles")) {
+				for (String s : v.split(",")) {
+					String[] r = s.split(":");
+					TileName t1 = parseTile(r[0]);
+					TileName t2 = r.length > 1 ? parseTile(r[1]) : t1;
+					addRange(t1.getLat(), t1.getLon(), t2.getLat(), t2.getLon());
+				}
+			} else if (a.equals("--bbox")) {
+				String[] b = v.split(",");
+				if (b.length != 4)
+					throw new IllegalArgumentException("bad box " + v);
+				double s = Double.parseDouble(b[0]), w = Double.parseDouble(b[1]);
+				double n = Double.parseDouble(b[2]), e = Double.parseDouble(b[3]);
+				// north/east edges are exclusive
+				addRange((int) Math.floor(s), (int) Math.floor(w), (int) Math.ceil(n) - 1, (int) Math.ceil(e) - 1);
+			} else if (a.equals("--route")) {
+				for (String s : v.split(","))
+					route.add(s.trim());
+			} else if (a.equals("--corridor")) {
+				corridor = Double.parseDouble(v);
+			} else if (a.equals("--airports")) {
+				for (String s : v.split(","))
+					airports.add(s.trim().toUpperCase());
+			} else if (a.equals("--types")) {
+				terrain = objects = buildings = false;
+				for (String s : v.toLowerCase().split(",")) {
+					if (s.equals("terrain"))
+						terrain = true;
+					else if (s.equals("objects"))
+						objects = true;
+					else if (s.equals("buildings"))
+						buildings = true;
+					else
+						throw new IllegalArgumentException("bad type " + s);
+				}
+			} else {
+				throw new IllegalArgumentException("unknown option " + a);
+			}
+		}
+		if (scenery == null)
+			throw new IllegalArgumentException("no scenery directory");
+		return !tiles.isEmpty() || !airports.isEmpty() || !route.isEmpty() || models;
+	}
+
+	// looks the airports up locally, then on the web
+	private int resolveAirports() {
+		int missing = 0;
+		if (airports.isEmpty() && route.isEmpty())
+			return missing;
+		AirportIndex index = AirportIndex.build(aptDat != null ? new File(aptDat) : null, new File(scenery));
+		// the tiles along the route, in flight order
+		Route r = new Route();
+		r.setCorridor(corridor);
+		for (String w : route) {
+			double[] p = Route.parsePosition(w.replace('/', ','));
+			Airport a = p == null ? find(index, w) : null;
+			if (p != null) {
+				r.add(p[0], p[1]);
+			} else if (a != null) {
+				r.add(a);
+			} else {
+				out.println("error waypoint=" + w + " unknown");
+				++missing;
+			}
+		}
+		if (missing == 0)
+			tiles.addAll(r.getTiles());
+		for (String code : airports) {
+			Airport a = find(index, code);
+			if (a == null) {
+				out.println("error airport=" + code + " unknown");
+				++missing;
+			} else {
+				tiles.add(tile(a.lat, a.lon));
+			}
+		}
+		return missing;
+	}
+
+	private Airport find(AirportIndex index, String code) {
+		Airport a = index.get(code);
+		return a != null ? a : TerraMaster.fgmap.find(code);
+	}
+
+	int sync() {
+		int missing = resolveAirports();
+
+		final AtomicLong planned = new AtomicLong();
+		HTTPTerraSync engine = new HTTPTerraSync();
+		engine.setScnPath(new File(scenery));
+		engine.setSelectiveModels(modelsUsed);
+		engine.setTypes(terrain, objects, buildings);
+		engine.setContentStore(store != null && store.length() > 0 ? new File(store) : null);
+		engine.setDaemon(true);
+		engine.addListener(new TileServiceAdapter() {
+			public void planned(long bytes, int files) {
+				planned.addAndGet(bytes);
+				out.println("planned bytes=" + bytes + " files=" + files);
+				out.flush();
+			}
+
+			public void tileComplete(TileName tile) {
+				out.println("tile name=" + tile.getName());
+				out.flush();
+			}
+
+			public void error(String message, Throwable t) {
+				out.println("error message=" + message.replace(' ', '_'));
+				out.flush();
+			}
+		});
+		engine.start();
+
+		if (models)
+			tiles.add(new TileName("MODELS"));
+		int total = tiles.size();
+		out.println("queued tiles=" + total);
+		out.flush();
+
+		SyncMetrics m = engine.getMetrics();
+		long start = System.currentTimeMillis();
+		engine.sync(tiles);
+		while (!engine.isIdle()) {
+			try {
+				Thread.sleep(interval * 1000L);
+			} catch (InterruptedException e) {
+				break;
+			}
+			long ms = Math.max(1, System.currentTimeMillis() - start);
+			long bytes = m.getBytesDownloaded(), rate = bytes * 1000 / ms;
+			// seconds left, -1 while unknown
+			long eta = rate > 0 && planned.get() > 0 ? Math.max(0, planned.get() - bytes) / rate : -1;
+			out.printf("progress tiles=%d/%d files=%d bytes=%d planned=%d rate=%d eta=%d hits=%d errors=%d%n",
+					m.getTilesSynced(), total, m.getFilesDownloaded(), bytes, planned.get(), rate, eta, m.getCacheHits(),
+					m.getErrors());
+			out.flush();
+		}
+		engine.quit();
+
+		long ms = Math.max(1, System.currentTimeMillis() - start);
+		int status = m.getErrors() + missing > 0 ? FAILED : OK;
+		out.printf("done status=%d tiles=%d files=%d bytes=%d seconds=%d rate=%d hits=%d errors=%d%n", status,
+				m.getTilesSynced(), m.getFilesDownloaded(), m.getBytesDownloaded(), ms / 1000,
+				m.getBytesDownloaded() * 1000 / ms, m.getCacheHits(), m.getErrors() + missing);
+		out.flush();
+		return status;
+	}
+}
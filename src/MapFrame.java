@@ -8,6 +8,10 @@ import java.awt.event.WindowEvent;
 import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -22,6 +26,10 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JProgressBar;
 import javax.swing.JTextField;
+import javax.swing.JToggleButton;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 
 import java.awt.BorderLayout;
 
@@ -70,9 +78,6 @@ public class MapFrame extends JFrame {
       if (a.equals("SYNC")) {
         Collection<TileName> set = map.getSelection();
         TerraMaster.svn.sync(set);
-        progressBar.setMaximum(progressBar.getMaximum() + set.size() * 2);
-        progressBar.setVisible(true);
-        butStop.setEnabled(true);
         map.clearSelection();
         repaint();
       } else
@@ -81,14 +86,36 @@ public class MapFrame extends JFrame {
         Collection<TileName> set = new ArrayList<TileName>();
         set.add(new TileName("MODELS"));
         TerraMaster.svn.sync(set);
-        progressBar.setMaximum(progressBar.getMaximum() + set.size() * 1);
-        progressBar.setVisible(true);
-        butStop.setEnabled(true);
       } else
 
       if (a.equals("DELETE")) {
         TerraMaster.svn.delete(map.getSelection());
         map.clearSelection();
+        butUndo.setEnabled(true);
+        undoTimer.restart();
+        repaint();
+      } else
+
+      if (a.equals("DISK")) {
+        map.showDiskUsage = butDisk.isSelected();
+        showLargest();
+        repaint();
+      } else
+
+      if (a.equals("ROUTE")) {
+        String str = JOptionPane.showInputDialog(MapFrame.this,
+            "Waypoints (airport codes or lat,lon), e.g. EDDF LOWI 46.5,11.3 LIPZ",
+            routeText);
+        if (str != null && str.trim().length() > 0) {
+          routeText = str.trim();
+          new RouteWorker(routeText).execute();
+        }
+      } else
+
+      if (a.equals("UNDO")) {
+        undoTimer.stop();
+        butUndo.setEnabled(false);
+        TerraMaster.svn.undoDelete();
         repaint();
       } else
 
@@ -131,12 +158,179 @@ public class MapFrame extends JFrame {
     }
   }
 
+  /**
+   * resolves the waypoints off the EDT, then queues the tiles along the
+   * route in flight order
+   */
+  class RouteWorker extends SwingWorker<List<TileName>, Void> {
+    private String waypoints;
+    private List<String> unknown = new ArrayList<String>();
+
+    RouteWorker(String str) {
+      waypoints = str;
+    }
+
+    protected List<TileName> doInBackground() {
+      Route r = new Route();
+      for (String w : waypoints.split("\\s+")) {
+        double[] p = Route.parsePosition(w);
+        Airport apt = p == null ? TerraMaster.fgmap.find(w) : null;
+        if (p != null)
+          r.add(p[0], p[1]);
+        else if (apt != null)
+          r.add(apt);
+        else
+          unknown.add(w);
+      }
+      return r.getTiles();
+    }
+
+    protected void done() {
+      try {
+        if (!unknown.isEmpty()) {
+          JOptionPane.showMessageDialog(MapFrame.this, "Unknown waypoints : "
+              + unknown, "Route", JOptionPane.ERROR_MESSAGE);
+          return;
+        }
+        TerraMaster.svn.sync(get());
+        repaint();
+      } catch (Exception e) {
+        log.log(Level.WARNING, "Route failed", e);
+      }
+    }
+  }
+
+  /**
+   * drives the progress bar from the TileService events. When the service
+   * plans its downloads the bar counts bytes and shows an ETA, otherwise
+   * it counts tiles.
+   */
+  public class SyncProgress extends TileServiceAdapter {
+    // updated on the service thread, shown on the EDT
+    private final AtomicLong plannedBytes = new AtomicLong(), doneBytes = new AtomicLong();
+    private final AtomicInteger queuedTiles = new AtomicInteger(), doneTiles = new AtomicInteger();
+    private final AtomicBoolean pending = new AtomicBoolean();
+    // errors of the current sync run, reported once when it ends
+    private final AtomicInteger errors = new AtomicInteger();
+    private volatile String firstError;
+    private volatile long start, lastRefresh;
+    // planning runs alongside the transfers, the bar never moves back
+    private int shown; // on the EDT
+
+    private String errorSuffix() {
+      int n = errors.get();
+      return n == 0 ? "" : String.format(", %d error%s", n, n == 1 ? "" : "s");
+    }
+
+    // posts one refresh at a time, at most every 200ms for byte updates
+    private void refresh(boolean force) {
+      long now = System.currentTimeMillis();
+      if (!force && now - lastRefresh < 200)
+        return;
+      lastRefresh = now;
+      if (!pending.compareAndSet(false, true))
+        return;
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          pending.set(false);
+          long planned = plannedBytes.get(), done = doneBytes.get();
+          if (planned > 0) {
+            done = Math.min(done, planned);
+            String eta = "";
+            long ms = System.currentTimeMillis() - start;
+            if (done > 0 && ms > 0) {
+              long sec = (long) ((planned - done) / (done / (double) ms) / 1000);
+              eta = String.format(", ETA %d:%02d", sec / 60, sec % 60);
+            }
+            shown = Math.max(shown, (int) (done * 1000 / planned));
+            progressUpdate(shown, String.format(
+                "%.1f / %.1f MB%s%s", done / 1048576.0, planned / 1048576.0,
+                eta, errorSuffix()));
+          } else if (queuedTiles.get() > 0) {
+            shown = Math.max(shown, doneTiles.get() * 1000 / queuedTiles.get());
+            progressUpdate(shown,
+                doneTiles.get() + " / " + queuedTiles.get() + " tiles"
+                    + errorSuffix());
+          }
+        }
+      });
+    }
+
+    public void queued(final Collection<TileName> tiles) {
+      queuedTiles.addAndGet(tiles.size());
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          progressBar.setMaximum(1000);
+          progressBar.setVisible(true);
+          butStop.setEnabled(true);
+        }
+      });
+      refresh(true);
+    }
+
+    public void planned(long bytes, int files) {
+      plannedBytes.addAndGet(bytes);
+      refresh(true);
+    }
+
+    public void bytesTransferred(long bytes) {
+      if (doneBytes.getAndAdd(bytes) == 0)
+        start = System.currentTimeMillis();
+      refresh(false);
+    }
+
+    public void tileComplete(TileName tile) {
+      doneTiles.incrementAndGet();
+      refresh(true);
+    }
+
+    // counted in the progress bar, a single dialog is shown by idle()
+    public void error(String message, Throwable t) {
+      if (errors.getAndIncrement() == 0)
+        firstError = message;
+      refresh(true);
+    }
+
+    public void idle() {
+      plannedBytes.set(0);
+      doneBytes.set(0);
+      queuedTiles.set(0);
+      doneTiles.set(0);
+      final int n = errors.getAndSet(0);
+      final String message = firstError;
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          if (n == 1)
+            JOptionPane.showMessageDialog(MapFrame.this, message, "Error",
+                JOptionPane.ERROR_MESSAGE);
+          else if (n > 1)
+            JOptionPane.showMessageDialog(MapFrame.this, String.format(
+                "%s\n(and %d more errors, see the log)", message, n - 1),
+                "Error", JOptionPane.ERROR_MESSAGE);
+          butStop.setEnabled(false);
+          shown = 0;
+          progressBar.setValue(0);
+          progressBar.setString(null);
+          progressBar.setVisible(false);
+          showLargest();
+          repaint();
+        }
+      });
+    }
+  }
+
   String title;
   MapPanel map;
+  SyncProgress syncProgress = new SyncProgress();
   JTextField searchBar;
   JLabel tileName, search;
   JButton butSync, butDelete, butStop, butModels, butReset, butClear, butPrefs,
-      butSearch;
+      butSearch, butUndo;
+  JToggleButton butDisk;
+  JButton butRoute;
+  String routeText = "";
+  // disables butUndo once the deleted tiles are purged
+  Timer undoTimer;
   JFileChooser fc = new JFileChooser();
   JProgressBar progressBar;
   private JPanel panel;
@@ -313,11 +507,51 @@ public class MapFrame extends JFrame {
       searchBar.setActionCommand("SEARCH");
       searchBar.setToolTipText("Search for airport by name or code");
 
+      butUndo = new JButton("Undo");
+      GridBagConstraints gbc_butUndo = new GridBagConstraints();
+      gbc_butUndo.anchor = GridBagConstraints.NORTHWEST;
+      gbc_butUndo.insets = new Insets(0, 0, 5, 5);
+      gbc_butUndo.gridx = 12;
+      gbc_butUndo.gridy = 0;
+      panel.add(butUndo, gbc_butUndo);
+      butUndo.setEnabled(false);
+      butUndo.addActionListener(ad);
+      butUndo.setActionCommand("UNDO");
+      butUndo.setToolTipText("Undo the last delete");
+      butDisk = new JToggleButton("Disk");
+      GridBagConstraints gbc_butDisk = new GridBagConstraints();
+      gbc_butDisk.anchor = GridBagConstraints.NORTHWEST;
+      gbc_butDisk.insets = new Insets(0, 0, 5, 5);
+      gbc_butDisk.gridx = 13;
+      gbc_butDisk.gridy = 0;
+      panel.add(butDisk, gbc_butDisk);
+      butDisk.addActionListener(ad);
+      butDisk.setActionCommand("DISK");
+      butDisk.setToolTipText("Colour tiles by disk usage");
+
+      butRoute = new JButton("Route");
+      GridBagConstraints gbc_butRoute = new GridBagConstraints();
+      gbc_butRoute.anchor = GridBagConstraints.NORTHWEST;
+      gbc_butRoute.insets = new Insets(0, 0, 5, 5);
+      gbc_butRoute.gridx = 14;
+      gbc_butRoute.gridy = 0;
+      panel.add(butRoute, gbc_butRoute);
+      butRoute.addActionListener(ad);
+      butRoute.setActionCommand("ROUTE");
+      butRoute.setToolTipText("Synchronise the tiles along a route, in flight order");
+
+      undoTimer = new Timer(TileTrash.UNDO_SECONDS * 1000, new ActionListener() {
+        public void actionPerformed(ActionEvent e) {
+          butUndo.setEnabled(false);
+        }
+      });
+      undoTimer.setRepeats(false);
+
       progressBar = new JProgressBar();
       GridBagConstraints gbc_progressBar = new GridBagConstraints();
       gbc_progressBar.fill = GridBagConstraints.HORIZONTAL;
       gbc_progressBar.anchor = GridBagConstraints.NORTH;
-      gbc_progressBar.gridwidth = 13;
+      gbc_progressBar.gridwidth = 15;
       gbc_progressBar.gridx = 0;
       gbc_progressBar.gridy = 1;
       panel.add(progressBar, gbc_progressBar);
@@ -385,14 +619,27 @@ public class MapFrame extends JFrame {
     repaint();
   }
 
+  // lists the largest tiles in the tooltip of butDisk
+  void showLargest() {
+    DiskUsage u = TerraMaster.diskUsage;
+    StringBuilder s = new StringBuilder(String.format(
+        "<html>Colour tiles by disk usage<br>Total %.1f MB, largest:",
+        u.getTotal() / 1048576.0));
+    for (TileName n : u.largest(10))
+      s.append(String.format("<br>%s %.1f MB", n.getName(),
+          u.getBytes(n) / 1048576.0));
+    butDisk.setToolTipText(s.append("</html>").toString());
+  }
+
   /**
-   * called from Svn thread
-   * @param n
+   * called on the EDT by SyncProgress
+   * @param permille
+   * @param text
    */
-  public void progressUpdate(int n) {
-    progressBar.setValue(progressBar.getValue() + n);
-    progressBar.setToolTipText("" + progressBar.getValue() + " / "
-        + progressBar.getMaximum());
+  public void progressUpdate(int permille, String text) {
+    progressBar.setValue(permille);
+    progressBar.setString(text);
+    progressBar.setToolTipText(text);
     repaint();
   }
 
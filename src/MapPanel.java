@@ -1,5 +1,4 @@
 import java.awt.Color;
-import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
@@ -18,8 +17,8 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -245,9 +244,12 @@ class MapPanel extends JPanel {
 	final static double TWOPI = Math.PI * 2.0;
 
 	private boolean selection = false;
+	/** colour the tiles by their bytes on disk */
+	boolean showDiskUsage = false;
 	private Collection<TileName> selectionSet = new LinkedHashSet<TileName>();
 	private int[] dragbox;
 	private BufferedImage offScreen;
+	private AirportLayer airportLayer = new AirportLayer(this);
 
 	public MapPanel() {
 		MPAdapter ad = new MPAdapter();
@@ -373,31 +375,18 @@ class MapPanel extends JPanel {
 			txt = "<html>" + txt;
 
 			if (d.terrain) {
-				txt += " +Terr";
-				File f = d.dir_terr;
-				if (f != null & f.exists()) {
-					int count = 0;
-					for (String i : f.list()) {
-						if (i.endsWith(".btg.gz")) {
-							int n = i.indexOf('.');
-							if (n > 4)
-								n = 4;
-							i = i.substring(0, n);
-							try {
-								Short.parseShort(i);
-							} catch (Exception x) {
-								str += i + " ";
-								if ((++count % 4) == 0)
-									str += "<br>";
-							}
-						}
-					}
+				txt += " +Terr" + stats(d.stats_terr);
+				int count = 0;
+				for (String i : d.airports) {
+					str += i + " ";
+					if ((++count % 4) == 0)
+						str += "<br>";
 				}
 			}
 			if (d.objects)
-				txt += " +Obj";
+				txt += " +Obj" + stats(d.stats_obj);
       if (d.buildings)
-        txt += " +Bui";
+        txt += " +Bui" + stats(d.stats_buildings);
 			if (str.length() > 0)
 				txt += "<br>" + str;
 
@@ -406,6 +395,13 @@ class MapPanel extends JPanel {
 		return txt;
 	}
 
+	// " (12 files, 3.4 MB)"
+	private String stats(TileData.DirStats s) {
+		if (s == null)
+			return "";
+		return String.format(" (%d files, %.1f MB)", s.files, s.bytes / 1048576.0);
+	}
+
 	public int polyCount() {
 		return poly.size();
 	}
@@ -460,9 +456,17 @@ class MapPanel extends JPanel {
 			mapFrame.butSync.setEnabled(false);
 			mapFrame.butDelete.setEnabled(false);
 			mapFrame.butSearch.setEnabled(false);
+			showSelectionSize();
 		}
 	}
 
+	// the bytes the delete button would free
+	private void showSelectionSize() {
+		long bytes = TerraMaster.diskUsage.getTotal(getSelection());
+		mapFrame.butDelete.setToolTipText(String.format(
+				"Delete selected tiles from disk (%.1f MB)", bytes / 1048576.0));
+	}
+
 	void showSelection(Graphics g) {
 		Collection<TileName> a = getSelection();
 		if (a == null)
@@ -496,6 +500,7 @@ class MapPanel extends JPanel {
 		mapFrame.butSync.setEnabled(b);
 		mapFrame.butDelete.setEnabled(b);
 		mapFrame.butSearch.setEnabled(b);
+		showSelectionSize();
 	}
 
 	void drawGraticule(Graphics g, int sp) {
@@ -582,6 +587,8 @@ class MapPanel extends JPanel {
 		if(TerraMaster.mapScenery==null)
 		 return;
 		Set<TileName> keys = TerraMaster.mapScenery.keySet();
+		// log scale, so the small tiles don't all look alike
+		double max = Math.log1p(TerraMaster.diskUsage.getMax());
 		Pattern p = Pattern
 				.compile("([ew])(\\p{Digit}{3})([ns])(\\p{Digit}{2})");
 
@@ -599,6 +606,10 @@ class MapPanel extends JPanel {
 				TileData t = TerraMaster.mapScenery.get(n);
 				t.poly = poly;
 				if (poly != null) {
+					if (showDiskUsage && max > 0) {
+						g.setColor(heat(Math.log1p(TerraMaster.diskUsage.getBytes(n)) / max));
+						g.fillPolygon(poly);
+					}
 					if (t.terrain && t.objects)
 						// g.setColor(green);
 						g.setColor(Color.green);
@@ -612,36 +623,24 @@ class MapPanel extends JPanel {
 		}
 	}
 
+	// blue (small) to red (large), translucent
+	private Color heat(double f) {
+		int rgb = Color.HSBtoRGB((float) (1 - f) * 0.66f, 1f, 1f);
+		return new Color(rgb & 0xffffff | 0xa0000000, true);
+	}
+
 	void showAirports(Graphics g0) {
 	  if(TerraMaster.fgmap==null)	
 	    return;
 		Graphics2D g = (Graphics2D) g0.create();
-		HashMap<String, Airport> apts = TerraMaster.fgmap.getAirportList();
-		Point2D.Double p = new Point2D.Double();
-		Point p2 = new Point();
+		List<Airport> apts = TerraMaster.fgmap.getAirportList();
 
-		g.setColor(Color.white);
-		g.setBackground(Color.white);
-		g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 10));
 		g.setTransform(new AffineTransform()); // restore identity
 
 		// we perform manual transform for shape drawing
 		// (because text transformation is screwed up)
-
-		for (Airport a : apts.values()) {
-			double x = Math.toRadians(a.lon);
-			double y = Math.toRadians(-a.lat);
-			int n = (int) fromMetres * 2 - 16; // the circle size changes with
-												// zoom
-			if (n < 2)
-				n = 2;
-			if (inside(x, y)) {
-				project(x, y, p);
-				affine.transform(p, p2);
-				g.drawOval(p2.x - n / 2, p2.y - n / 2, n, n);
-				g.drawString(a.code, p2.x - 12, p2.y + n);
-			}
-		}
+		airportLayer.paint(g, apts);
+		g.dispose();
 	}
 
 	int abrl(int west, int north, Point2D p1, Point2D p2) {
@@ -764,7 +763,8 @@ class MapPanel extends JPanel {
 		return j;
 	}
 
-	double greatCircleDistance(double lon1, double lat1, double lon2,
+	// central angle between two points, all in radians
+	static double greatCircleDistance(double lon1, double lat1, double lon2,
 			double lat2) {
 		double dlat = Math.sin((lat2 - lat1) / 2);
 		double dlon = Math.sin((lon2 - lon1) / 2);
@@ -0,0 +1,236 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The shared models used by the synced tiles. The Objects .stg files name
+ * the models a tile places (OBJECT_SHARED Models/...), and each model
+ * directory counts the tiles using it. Directories no tile uses any more
+ * can be evicted. The counts are kept in Models/.refs, so only
+ * directories fetched this way are ever evicted.
+ */
+
+public class ModelCache {
+	static final String REFS = ".refs";
+
+	private static final Pattern XML_PATH = Pattern.compile("<path>\\s*([^<]+?)\\s*</path>");
+
+	Logger log = Logger.getLogger(this.getClass().getName());
+
+	private final File base;
+	/**
+	 * model directory ("Models/Airport/Jetway") -> tiles using it. Only
+	 * the files directly in it are synced for the tiles.
+	 */
+	private final HashMap<String, Set<String>> refs = new HashMap<String, Set<String>>();
+
+	public ModelCache(File sceneryDir) {
+		base = sceneryDir;
+		load();
+	}
+
+	private File refsFile() {
+		return new File(new File(base, TerraSyncDirectoryTypes.MODELS.dirname), REFS);
+	}
+
+	// "Models/A/B/../C/x.ac" -> "Models/A/C", null if outside Models/
+	static String modelDir(String path) {
+		path = path.replace('\\', '/');
+		List<String> parts = new ArrayList<String>();
+		for (String p : path.split("/")) {
+			if (p.equals("..")) {
+				if (!parts.isEmpty())
+					parts.remove(parts.size() - 1);
+			} else if (p.length() > 0 && !p.equals(".")) {
+				parts.add(p);
+			}
+		}
+		if (parts.size() < 3 || !parts.get(0).equals("Models"))
+			return null;
+		StringBuilder sb = new StringBuilder(parts.get(0));
+		for (int i = 1; i < parts.size() - 1; ++i)
+			sb.append('/').append(parts.get(i));
+		return sb.toString();
+	}
+
+	/**
+	 * @return the model directories the .stg files in the Objects tile
+	 *         directory refer to
+	 */
+	static Set<String> readStg(File dir) {
+		Set<String> dirs = new LinkedHashSet<String>();
+		File[] list = dir.listFiles();
+		if (list == null)
+			return dirs;
+		for (File f : list) {
+			if (!f.getName().endsWith(".stg"))
+				continue;
+			for (String line : readLines(f)) {
+				String[] t = line.trim().split("\\s+");
+				if (t.length > 1 && t[0].startsWith("OBJECT_SHARED")) {
+					String d = modelDir(t[1]);
+					if (d != null)
+						dirs.add(d);
+				}
+			}
+		}
+		return dirs;
+	}
+
+	/**
+	 * @return the other model directories the .xml files of a model
+	 *         directory refer to
+	 */
+	static Set<String> readModels(String dir, File localDir) {
+		Set<String> dirs = new LinkedHashSet<String>();
+		File[] list = localDir.listFiles();
+		if (list == null)
+			return dirs;
+		for (File f : list) {
+			if (!f.getName().endsWith(".xml"))
+				continue;
+			StringBuilder sb = new StringBuilder();
+			for (String line : readLines(f))
+				sb.append(line).append('\n');
+			Matcher m = XML_PATH.matcher(sb);
+			while (m.find()) {
+				String p = m.group(1);
+				String d = modelDir(p.startsWith("Models/") ? p : dir + "/" + p);
+				if (d != null && !d.equals(dir))
+					dirs.add(d);
+			}
+		}
+		return dirs;
+	}
+
+	private static List<String> readLines(File f) {
+		List<String> lines = new ArrayList<String>();
+		try {
+			BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), "ISO-8859-1"));
+			try {
+				String line;
+				while ((line = r.readLine()) != null)
+					lines.add(line);
+			} finally {
+				r.close();
+			}
+		} catch (IOException e) {
+			Logger.getLogger(ModelCache.class.getName()).log(Level.FINE, "Can't read " + f, e);
+		}
+		return lines;
+	}
+
+	private void load() {
+		File f = refsFile();
+		if (!f.exists())
+			return;
+		for (String line : readLines(f)) {
+			String[] t = line.trim().split("\\s+");
+			if (t.length == 0 || t[0].length() == 0)
+				continue;
+			Set<String> tiles = new TreeSet<String>();
+			for (int i = 1; i < t.length; ++i)
+				tiles.add(t[i]);
+			refs.put(t[0], tiles);
+		}
+	}
+
+	// one line per directory : "Models/Airport/Jetway e008n47 e009n47"
+	private void store() {
+		File f = refsFile();
+		f.getParentFile().mkdirs();
+		try {
+			Writer w = new OutputStreamWriter(new FileOutputStream(f), "ISO-8859-1");
+			try {
+				for (Map.Entry<String, Set<String>> e : refs.entrySet()) {
+					w.write(e.getKey());
+					for (String t : e.getValue())
+						w.write(" " + t);
+					w.write("\n");
+				}
+			} finally {
+				w.close();
+			}
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Can't write " + f, e);
+		}
+	}
+
+	/**
+	 * Sets the model directories a tile uses, replacing what it used
+	 * before.
+	 */
+	public synchronized void reference(String tile, Set<String> dirs) {
+		for (Map.Entry<String, Set<String>> e : refs.entrySet()) {
+			if (!dirs.contains(e.getKey()))
+				e.getValue().remove(tile);
+		}
+		for (String d : dirs) {
+			Set<String> tiles = refs.get(d);
+			if (tiles == null) {
+				tiles = new TreeSet<String>();
+				refs.put(d, tiles);
+			}
+			tiles.add(tile);
+		}
+		store();
+	}
+
+	/** the tile no longer uses any model */
+	public synchronized void release(String tile) {
+		for (Set<String> tiles : refs.values())
+			tiles.remove(tile);
+		store();
+	}
+
+	/**
+	 * Deletes the model directories no tile uses.
+	 *
+	 * @return the evicted directories
+	 */
+	public synchronized List<String> evict() {
+		List<String> evicted = new ArrayList<String>();
+		for (Iterator<Map.Entry<String, Set<String>>> i = refs.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String, Set<String>> e = i.next();
+			if (!e.getValue().isEmpty())
+				continue;
+			deleteFiles(new File(base, e.getKey()));
+			evicted.add(e.getKey());
+			i.remove();
+		}
+		if (!evicted.isEmpty()) {
+			log.info("Evicted " + evicted.size() + " unused model directories");
+			store();
+		}
+		return evicted;
+	}
+
+	// only the files synced with the model, subdirectories are left
+	private void deleteFiles(File d) {
+		File[] list = d.listFiles();
+		if (list != null) {
+			for (File f : list) {
+				if (!f.isDirectory() && !f.delete())
+					log.fine("Can't delete " + f);
+			}
+		}
+		d.delete();
+	}
+}
@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * A flight plan as a list of waypoints. The legs are followed along the
+ * great circle and the 1x1 tiles within a corridor either side are
+ * returned in flight order, so the first legs can be synced first.
+ */
+
+public class Route {
+  /** default half width of the corridor in nautical miles */
+  static final double CORRIDOR_NM = 30;
+  /** mean earth radius in nautical miles */
+  static final double EARTH_NM = 3440.065;
+  /** spacing of the points sampled along a leg, radians */
+  static final double STEP = Math.toRadians(0.25);
+
+  private List<double[]> waypoints = new ArrayList<double[]>(); // {lat, lon}
+  private double corridor = CORRIDOR_NM;
+
+  /** adds a waypoint, W and S are negative */
+  public void add(double lat, double lon) {
+    waypoints.add(new double[] { lat, lon });
+  }
+
+  public void add(Airport a) {
+    add(a.lat, a.lon);
+  }
+
+  public int size() {
+    return waypoints.size();
+  }
+
+  /** sets the half width of the corridor in nautical miles */
+  public void setCorridor(double nm) {
+    corridor = Math.max(0, nm);
+  }
+
+  /**
+   * @return the position of "lat,lon" in degrees, or null if s isn't one
+   */
+  static double[] parsePosition(String s) {
+    String[] t = s.split(",");
+    if (t.length != 2)
+      return null;
+    try {
+      double lat = Double.parseDouble(t[0].trim());
+      double lon = Double.parseDouble(t[1].trim());
+      if (Math.abs(lat) > 90 || Math.abs(lon) > 180)
+        return null;
+      return new double[] { lat, lon };
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  // central angle (radians) between two {lat, lon} in degrees
+  private static double angle(double[] a, double[] b) {
+    return MapPanel.greatCircleDistance(Math.toRadians(a[1]),
+        Math.toRadians(a[0]), Math.toRadians(b[1]), Math.toRadians(b[0]));
+  }
+
+  /** length of the route in nautical miles */
+  public double getLength() {
+    double l = 0;
+    for (int i = 1; i < waypoints.size(); ++i)
+      l += angle(waypoints.get(i - 1), waypoints.get(i));
+    return l * EARTH_NM;
+  }
+
+  // the point at fraction f of the great circle from a to b, d their angle
+  private static double[] interpolate(double[] a, double[] b, double d,
+      double f) {
+    if (d < 1e-9)
+      return a;
+    double lat1 = Math.toRadians(a[0]), lon1 = Math.toRadians(a[1]);
+    double lat2 = Math.toRadians(b[0]), lon2 = Math.toRadians(b[1]);
+    double p = Math.sin((1 - f) * d) / Math.sin(d), q = Math.sin(f * d)
+        / Math.sin(d);
+    double x = p * Math.cos(lat1) * Math.cos(lon1) + q * Math.cos(lat2)
+        * Math.cos(lon2);
+    double y = p * Math.cos(lat1) * Math.sin(lon1) + q * Math.cos(lat2)
+        * Math.sin(lon2);
+    double z = p * Math.sin(lat1) + q * Math.sin(lat2);
+    return new double[] { Math.toDegrees(Math.atan2(z, Math.hypot(x, y))),
+        Math.toDegrees(Math.atan2(y, x)) };
+  }
+
+  // angle from p to the nearest point of the tile with SW corner lat, lon
+  private static double angleToTile(double[] p, int lat, int lon) {
+    double clat = Math.max(lat, Math.min(lat + 1, p[0]));
+    double d = ((p[1] - lon) % 360 + 360) % 360; // east of the west edge
+    double clon = d <= 1 ? p[1] : (360 - d < d - 1 ? lon : lon + 1);
+    return angle(p, new double[] { clat, clon });
+  }
+
+  // adds the tiles within the corridor around p
+  private void addTiles(double[] p, double width, LinkedHashSet<TileName> tiles) {
+    TileName m = TerraMaster.tilenameManager;
+    int lat0 = (int) Math.floor(p[0]), lon0 = (int) Math.floor(p[1]);
+    tiles.add(m.getTile(lon0 == 180 ? -180 : lon0, lat0 == 90 ? 89 : lat0));
+
+    double dlat = Math.toDegrees(width);
+    double dlon = Math.min(180, dlat / Math.max(0.01, Math.cos(Math.toRadians(p[0]))));
+    for (int lat = (int) Math.floor(p[0] - dlat); lat <= (int) Math.floor(p[0] + dlat); ++lat) {
+      if (lat < -90 || lat > 89)
+        continue;
+      for (int i = (int) Math.floor(p[1] - dlon); i <= (int) Math.floor(p[1] + dlon); ++i) {
+        int lon = ((i + 180) % 360 + 360) % 360 - 180;
+        if (angleToTile(p, lat, lon) <= width)
+          tiles.add(m.getTile(lon, lat));
+      }
+    }
+  }
+
+  /**
+   * @return the tiles within the corridor, in flight order
+   */
+  public List<TileName> getTiles() {
+    LinkedHashSet<TileName> tiles = new LinkedHashSet<TileName>();
+    double width = corridor / EARTH_NM;
+    if (!waypoints.isEmpty())
+      addTiles(waypoints.get(0), width, tiles);
+    for (int i = 1; i < waypoints.size(); ++i) {
+      double[] a = waypoints.get(i - 1), b = waypoints.get(i);
+      double d = angle(a, b);
+      int n = (int) Math.ceil(d / STEP);
+      for (int k = 1; k <= n; ++k)
+        addTiles(interpolate(a, b, d, (double) k / n), width, tiles);
+    }
+    tiles.remove(null);
+    return new ArrayList<TileName>(tiles);
+  }
+}
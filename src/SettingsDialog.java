@@ -31,6 +31,7 @@ public class SettingsDialog extends JDialog {
   private JCheckBox chckbxTerrain;
   private JCheckBox chckbxObjects;
   private JCheckBox chckbxBuildings;
+  private JCheckBox chckbxModelsUsed;
 
 	/**
 	 * Create the dialog.
@@ -38,7 +39,7 @@ public class SettingsDialog extends JDialog {
 	public SettingsDialog() {
 		setTitle("Settings");
 		setModal(true);
-		setBounds(100, 100, 541, 270);
+		setBounds(100, 100, 541, 295);
 		getContentPane().setLayout(new BorderLayout());
 		contentPanel.setBorder(new EmptyBorder(5, 5, 5, 5));
 		getContentPane().add(contentPanel, BorderLayout.CENTER);
@@ -122,6 +123,9 @@ public class SettingsDialog extends JDialog {
 							TerraMaster.props.setProperty(TerraSyncDirectoryTypes.TERRAIN.name(), Boolean.toString(chckbxTerrain.isSelected())); 
               TerraMaster.props.setProperty(TerraSyncDirectoryTypes.OBJECTS.name(), Boolean.toString(chckbxObjects.isSelected())); 
               TerraMaster.props.setProperty(TerraSyncDirectoryTypes.BUILDINGS.name(), Boolean.toString(chckbxBuildings.isSelected())); 
+              TerraMaster.props.setProperty(TerraMasterProperties.SELECTIVE_MODELS, Boolean.toString(chckbxModelsUsed.isSelected()));
+              TerraMaster.svn.restoreSettings();
+              TerraMaster.loadAirportIndex();
 						} catch (Exception x) {
 							x.printStackTrace();
 						}
@@ -184,7 +188,7 @@ public class SettingsDialog extends JDialog {
 			gbc_panel.gridx = 1;
 			gbc_panel.gridy = 2;
 			contentPanel.add(panel, gbc_panel);
-			panel.setLayout(new GridLayout(3, 1, 0, 0));
+			panel.setLayout(new GridLayout(4, 1, 0, 0));
 			{
 				chckbxTerrain = new JCheckBox("Terrain");
 				panel.add(chckbxTerrain);
@@ -200,6 +204,11 @@ public class SettingsDialog extends JDialog {
 				panel.add(chckbxBuildings);
 				chckbxBuildings.setSelected(Boolean.parseBoolean(TerraMaster.props.getProperty(TerraSyncDirectoryTypes.BUILDINGS.name(), "false")));
 			}
+			{
+				chckbxModelsUsed = new JCheckBox("Models used by Objects");
+				panel.add(chckbxModelsUsed);
+				chckbxModelsUsed.setSelected(Boolean.parseBoolean(TerraMaster.props.getProperty(TerraMasterProperties.SELECTIVE_MODELS, "false")));
+			}
 		}
 	}
 
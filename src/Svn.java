@@ -6,9 +6,6 @@ import java.io.IOException;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 
-import javax.swing.JOptionPane;
-import javax.swing.SwingUtilities;
-
 import org.tmatesoft.svn.core.wc.*;
 import org.tmatesoft.svn.core.ISVNCanceller;
 import org.tmatesoft.svn.core.ISVNDirEntryHandler;
@@ -42,6 +39,8 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
   boolean cancelFlag = false;
 
   LinkedList<TileName> syncList;
+  TileServiceMulticaster listeners = new TileServiceMulticaster();
+  TileTrash trash = TerraMaster.trash;
 
   Svn() {
     super("SVN-Thread");
@@ -98,7 +97,6 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
   public void checkCancelled() throws SVNCancelException {
     if (cancelFlag) {
       cancelFlag = false;
-      invokeLater(1); // reset progressBar
       throw new SVNCancelException();
     }
   }
@@ -165,8 +163,7 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
     String[] types = { "Terrain/", "Objects/" };
     TerraSyncDirectoryTypes[] ntype = { TerraSyncDirectoryTypes.TERRAIN, TerraSyncDirectoryTypes.OBJECTS };
     if (pathBase == null) {
-      JOptionPane
-          .showMessageDialog(TerraMaster.frame, "TerraSync path not set");
+      listeners.error("TerraSync path not set", null);
       return;
     }
 
@@ -188,7 +185,7 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
 
         printStats(node);
         long rev = updateNode(f);
-        invokeLater(2); // update progressBar
+        listeners.fileProgress(node, rev > 0);
 
         if (rev > 0) {
           LOG.info(String.format("updated to r%d.\n", rev));
@@ -198,15 +195,13 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
           if (i == 0 & f.exists()) {
             String[] apt = findAirports(f);
             if (apt != null) {
-              for (int j = 0; j < apt.length; ++j)
-                invokeLater(3); // extend progressBar
               syncAirports(apt);
             }
           }
         }
 
       } catch (SVNException x) {
-        invokeLater(2); // update progressBar
+        listeners.fileProgress(node, false);
         SVNErrorMessage em = x.getErrorMessage();
         // E160013 = URL not found
         // if (em.getErrorCode().getCode() != 160013)
@@ -243,7 +238,7 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
       try {
         printStats(node);
         rev = updateNode(f);
-        invokeLater(2); // update progressBar
+        listeners.fileProgress(node, rev > 0);
         if (rev > 0)
           LOG.info(String.format("updated to r%d.\n", rev));
       } catch (SVNException x) {
@@ -259,7 +254,7 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
 
       File f = new File(pathBase + "Models/" + name);
       long rev = updateNode(f);
-      invokeLater(2); // update progressBar
+      listeners.fileProgress("Models/" + name, rev > 0);
       if (rev > 0)
         LOG.info(String.format("updated to r%d.\n", rev));
     } catch (SVNException x) {
@@ -271,8 +266,7 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
   private void syncModels() {
     File d;
     if (pathBase == null) {
-      JOptionPane
-          .showMessageDialog(TerraMaster.frame, "TerraSync path not set");
+      listeners.error("TerraSync path not set", null);
       return;
     }
 
@@ -290,22 +284,25 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
       LOG.info(x.getMessage());
       return;
     } finally {
-      invokeLater(2); // update progressBar
+      listeners.fileProgress("Models", true);
     }
 
     // queue each subdir in syncList
+    List<TileName> models = new ArrayList<TileName>();
+    for (File f : d.listFiles()) { // XXX should filter for dirs only
+      models.add(new TileName("MODELS-" + f.getName()));
+    }
     synchronized (syncList) {
-      for (File f : d.listFiles()) { // XXX should filter for dirs only
-        syncList.add(new TileName("MODELS-" + f.getName()));
-        invokeLater(3);
-      }
+      syncList.addAll(models);
     }
+    listeners.queued(models);
   }
 
   public void sync(Collection<TileName> set) {
     synchronized (syncList) {
       syncList.addAll(set);
     }
+    listeners.queued(set);
     synchronized (this) {
       try {
         notify();
@@ -323,40 +320,23 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
     }
   }
 
-  private void deltree(File d) {
-    if (!d.exists())
-      return;
-    for (File f : d.listFiles()) {
-      if (f.isDirectory())
-        deltree(f);
-      try {
-        f.delete();
-      } catch (SecurityException x) {
-      }
-    }
-    try {
-      d.delete();
-    } catch (SecurityException x) {
-    }
-  }
-
   public void delete(Collection<TileName> set) {
+    Map<TileName, TileData> tiles = new LinkedHashMap<TileName, TileData>();
     for (TileName n : set) {
       TileData d = TerraMaster.mapScenery.remove(n);
       if (d == null)
         continue;
-      if (d.terrain) {
-        deltree(d.dir_terr);
-      }
-
-      if (d.objects) {
-        deltree(d.dir_obj);
-      }
-
+      tiles.put(n, d);
+      TerraMaster.diskUsage.remove(n);
       synchronized (syncList) {
         syncList.remove(n);
       }
     }
+    trash.delete(tiles);
+  }
+
+  public Collection<TileName> undoDelete() {
+    return trash.undo();
   }
 
   public void quit() {
@@ -365,6 +345,7 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
 
   public void setScnPath(File f) {
     pathBase = f.getPath() + "/";
+    trash.setBase(f);
 
     try {
       wcClient.doCleanup(f);
@@ -384,8 +365,7 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
           }
         }
         if (pathBase == null) {
-          JOptionPane
-              .showMessageDialog(TerraMaster.frame, "TerraSync path not set");
+          listeners.error("TerraSync path not set", null);
           continue;
         }
         while (syncList.size() > 0) {
@@ -395,6 +375,7 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
           synchronized (syncList) {
             n = syncList.getFirst();
           }
+          listeners.started(n);
 
           String name = n.getName();
           if (name.startsWith("MODELS")) {
@@ -412,40 +393,23 @@ class Svn extends Thread implements ISVNDirEntryHandler, ISVNCanceller,
           synchronized (syncList) {
             syncList.remove(n);
           }
+          listeners.tileComplete(n);
         }
 
         // syncList is now empty
       } catch (Exception e) {
         LOG.log(Level.WARNING, e.toString(), e);
       }
-      invokeLater(1); // reset progressBar
+      listeners.idle();
     }
   }
 
-  private void invokeLater(final int n) {
-    // invoke this on the Event Disp Thread
-    SwingUtilities.invokeLater(new Runnable() {
-      public void run() {
-        switch (n) {
-        case 1: // reset progressBar
-          TerraMaster.frame.butStop.setEnabled(false);
-          try {
-            Thread.sleep(1200);
-          } catch (InterruptedException e) {
-          }
-          TerraMaster.frame.progressBar.setMaximum(0);
-          TerraMaster.frame.progressBar.setVisible(false);
-          break;
-        case 2: // update progressBar
-          TerraMaster.frame.progressUpdate(1);
-          break;
-        case 3: // progressBar maximum++
-          TerraMaster.frame.progressBar
-              .setMaximum(TerraMaster.frame.progressBar.getMaximum() + 1);
-          break;
-        }
-      }
-    });
+  public void addListener(TileServiceListener l) {
+    listeners.add(l);
+  }
+
+  public void removeListener(TileServiceListener l) {
+    listeners.remove(l);
   }
 
   @Override
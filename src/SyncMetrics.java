@@ -0,0 +1,234 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timings of the HTTP sync engine. Written by the sync
+ * thread, read by JMX and by a timer that logs a summary whenever there
+ * has been activity.
+ */
+
+public class SyncMetrics implements SyncMetricsMBean {
+	/** how often the rates are updated and the summary is logged */
+	static final int SUMMARY_SECONDS = 30;
+	/** upper bounds (ms) of the latency histogram buckets, the last is open */
+	static final long[] LATENCY_BUCKETS = { 50, 100, 200, 500, 1000, 2000, 5000 };
+	static final String NAME = "TerraMaster:type=SyncMetrics";
+
+	Logger log = Logger.getLogger(this.getClass().getName());
+
+	private final AtomicLong bytes = new AtomicLong(), files = new AtomicLong(), hits = new AtomicLong(),
+			storeHits = new AtomicLong(), tiles = new AtomicLong(), errors = new AtomicLong();
+	private final AtomicLong httpNanos = new AtomicLong(), hashNanos = new AtomicLong(), diskNanos = new AtomicLong();
+	private volatile int queueDepth;
+	private final ConcurrentHashMap<String, AtomicLongArray> mirrors = new ConcurrentHashMap<String, AtomicLongArray>();
+
+	// rates of the last interval
+	private volatile long bytesPerSecond;
+	private volatile double filesPerSecond;
+	private long lastBytes, lastFiles, lastHits, lastTime = System.currentTimeMillis();
+
+	private Timer timer;
+
+	public SyncMetrics() {
+		timer = new Timer("SyncMetrics", true);
+		timer.schedule(new TimerTask() {
+			public void run() {
+				tick();
+			}
+		}, SUMMARY_SECONDS * 1000L, SUMMARY_SECONDS * 1000L);
+	}
+
+	/**
+	 * registers with the platform MBeanServer, replacing a previous
+	 * instance
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Can't register " + NAME, e);
+		}
+	}
+
+	public void stop() {
+		timer.cancel();
+	}
+
+	public void addBytes(long n) {
+		bytes.addAndGet(n);
+	}
+
+	public void fileDownloaded() {
+		files.incrementAndGet();
+	}
+
+	public void cacheHit() {
+		hits.incrementAndGet();
+	}
+
+	public void storeHit() {
+		storeHits.incrementAndGet();
+	}
+
+	public void tileSynced() {
+		tiles.incrementAndGet();
+	}
+
+	public void error() {
+		errors.incrementAndGet();
+	}
+
+	public void setQueueDepth(int n) {
+		queueDepth = n;
+	}
+
+	public void httpTime(long nanos) {
+		httpNanos.addAndGet(nanos);
+	}
+
+	public void hashTime(long nanos) {
+		hashNanos.addAndGet(nanos);
+	}
+
+	public void diskTime(long nanos) {
+		diskNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * records the time until the response header of one request
+	 */
+	public void latency(String host, long nanos) {
+		AtomicLongArray h = mirrors.get(host);
+		if (h == null) {
+			mirrors.putIfAbsent(host, new AtomicLongArray(LATENCY_BUCKETS.length + 1));
+			h = mirrors.get(host);
+		}
+		long ms = nanos / 1000000;
+		int i = 0;
+		while (i < LATENCY_BUCKETS.length && ms > LATENCY_BUCKETS[i])
+			++i;
+		h.incrementAndGet(i);
+	}
+
+	// updates the rates and logs the summary if anything happened
+	synchronized void tick() {
+		long now = System.currentTimeMillis();
+		long b = bytes.get(), f = files.get(), h = hits.get();
+		long ms = Math.max(1, now - lastTime);
+		bytesPerSecond = (b - lastBytes) * 1000 / ms;
+		filesPerSecond = (f - lastFiles) * 1000.0 / ms;
+		boolean active = b != lastBytes || f != lastFiles || h != lastHits;
+		lastBytes = b;
+		lastFiles = f;
+		lastHits = h;
+		lastTime = now;
+		if (active)
+			log.info(getSummary());
+	}
+
+	public long getBytesDownloaded() {
+		return bytes.get();
+	}
+
+	public long getFilesDownloaded() {
+		return files.get();
+	}
+
+	public long getCacheHits() {
+		return hits.get();
+	}
+
+	public long getStoreHits() {
+		return storeHits.get();
+	}
+
+	public long getTilesSynced() {
+		return tiles.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public double getFilesPerSecond() {
+		return filesPerSecond;
+	}
+
+	public long getHttpMillis() {
+		return httpNanos.get() / 1000000;
+	}
+
+	public long getHashMillis() {
+		return hashNanos.get() / 1000000;
+	}
+
+	public long getDiskMillis() {
+		return diskNanos.get() / 1000000;
+	}
+
+	public String[] getMirrorLatencies() {
+		List<String> l = new ArrayList<String>();
+		for (Map.Entry<String, AtomicLongArray> e : mirrors.entrySet()) {
+			AtomicLongArray h = e.getValue();
+			StringBuilder sb = new StringBuilder(e.getKey());
+			long n = 0;
+			for (int i = 0; i < h.length(); ++i) {
+				n += h.get(i);
+				sb.append(i < LATENCY_BUCKETS.length ? " <=" + LATENCY_BUCKETS[i] : " >"
+						+ LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1]);
+				sb.append("ms:").append(h.get(i));
+			}
+			l.add(sb.insert(e.getKey().length(), " n=" + n).toString());
+		}
+		return l.toArray(new String[0]);
+	}
+
+	public String getSummary() {
+		long http = getHttpMillis(), hash = getHashMillis(), disk = getDiskMillis();
+		long total = Math.max(1, http + hash + disk);
+		return String.format(
+				"sync: %d KB/s, %.1f files/s, %d files (%d KB), %d cache hits, %d store hits, %d tiles, %d errors, queue %d, "
+						+ "time http %d%% hash %d%% disk %d%%",
+				bytesPerSecond / 1024, filesPerSecond, files.get(), bytes.get() / 1024, hits.get(), storeHits.get(), tiles.get(),
+				errors.get(), queueDepth, http * 100 / total, hash * 100 / total, disk * 100 / total);
+	}
+
+	public synchronized void reset() {
+		bytes.set(0);
+		files.set(0);
+		hits.set(0);
+		storeHits.set(0);
+		tiles.set(0);
+		errors.set(0);
+		httpNanos.set(0);
+		hashNanos.set(0);
+		diskNanos.set(0);
+		mirrors.clear();
+		lastBytes = lastFiles = lastHits = 0;
+		lastTime = System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,43 @@
+
+/**
+ * JMX view of {@link SyncMetrics}, registered as
+ * "TerraMaster:type=SyncMetrics".
+ */
+
+public interface SyncMetricsMBean {
+
+	long getBytesDownloaded();
+
+	long getFilesDownloaded();
+
+	/** files whose local SHA-1 matched, so no download was needed */
+	long getCacheHits();
+
+	/** files linked from the ContentStore instead of downloaded */
+	long getStoreHits();
+
+	long getTilesSynced();
+
+	long getErrors();
+
+	int getQueueDepth();
+
+	/** rates over the last summary interval */
+	long getBytesPerSecond();
+
+	double getFilesPerSecond();
+
+	/** time spent waiting for HTTP, hashing local files and writing files */
+	long getHttpMillis();
+
+	long getHashMillis();
+
+	long getDiskMillis();
+
+	/** one line per mirror : host, request count and latency histogram */
+	String[] getMirrorLatencies();
+
+	String getSummary();
+
+	void reset();
+}
@@ -21,6 +21,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -38,6 +41,20 @@ public class TerraMaster {
 	public GshhsHeader gshhsHeader;
 
 	public static Map<TileName, TileData> mapScenery;
+	/** bytes on disk of the tiles in mapScenery */
+	public static DiskUsage diskUsage = new DiskUsage();
+	/** deleted tiles, shared by the tile services so Undo survives a new one */
+	public static final TileTrash trash = new TileTrash();
+	/** reads the tile directories in the background, see scanLater() */
+	private static final ExecutorService scanner = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Scanner");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	/** bumped by newScnMap(), so scans of an old map are dropped */
+	private static int scanGeneration;
 
 	public static TileName tilenameManager;
 	/** The service getting the tiles */
@@ -67,6 +84,40 @@ public class TerraMaster {
       break;
 		}
 		map.put(n, t);
+		scanLater(n, t, type, i);
+	}
+
+	/**
+	 * reads the file count and sizes of a tile directory on the scanner
+	 * thread and publishes them to diskUsage, so neither the EDT nor the
+	 * map building has to touch every file.
+	 */
+	static void scanLater(final TileName n, final TileData t, final TerraSyncDirectoryTypes type, final File dir) {
+		final int generation;
+		synchronized (diskUsage) {
+			generation = scanGeneration;
+		}
+		scanner.execute(new Runnable() {
+			public void run() {
+				synchronized (diskUsage) {
+					if (generation != scanGeneration)
+						return;
+				}
+				t.scan(type, dir);
+				synchronized (diskUsage) {
+					if (generation != scanGeneration)
+						return;
+					diskUsage.update(n, t);
+				}
+				if (frame != null) {
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							frame.repaint();
+						}
+					});
+				}
+			}
+		});
 	}
 
 	// given a 10x10 dir, add the 1x1 tiles within to the HashMap
@@ -86,6 +137,10 @@ public class TerraMaster {
 		TerraSyncDirectoryTypes[] types = { TerraSyncDirectoryTypes.TERRAIN, TerraSyncDirectoryTypes.OBJECTS, TerraSyncDirectoryTypes.BUILDINGS };
 		Pattern patt = Pattern.compile("([ew])(\\p{Digit}{3})([ns])(\\p{Digit}{2})");
 		Map<TileName, TileData> map = new HashMap<TileName, TileData>(180 * 90);
+		synchronized (diskUsage) {
+			++scanGeneration;
+			diskUsage.clear();
+		}
 
 		for (TerraSyncDirectoryTypes terraSyncDirectoryType : types) {
 			File d = new File(path + File.separator + terraSyncDirectoryType.dirname);
@@ -163,8 +218,10 @@ public class TerraMaster {
 		} else {
 			mapScenery = new HashMap<TileName, TileData>();
 		}
+		loadAirportIndex();
 
 		frame = new MapFrame("TerraMaster");
+		svn.addListener(frame.syncProgress);
 		frame.restoreSettings();
 		// frame.setLocationRelativeTo(null);
 		frame.setVisible(true);
@@ -206,6 +263,11 @@ public class TerraMaster {
 		} catch (IOException e) {
 			LOG.log(Level.WARNING, "Couldn't load properties : " + e.toString(), e);
 		}
+		if (HeadlessSync.isHeadless(args)) {
+			// sync from the command line, no GUI
+			mapScenery = new HashMap<TileName, TileData>();
+			System.exit(HeadlessSync.run(args));
+		}
 		LOG.info("Starting TerraMaster");
 
 		setTileService();
@@ -218,7 +280,17 @@ public class TerraMaster {
 
 	}
 
+	// builds the local airport index from apt.dat and/or the scenery folder
+	public static void loadAirportIndex() {
+		String aptDat = props.getProperty(TerraMasterProperties.APT_DAT);
+		String path = props.getProperty(TerraMasterProperties.SCENERY_PATH);
+		fgmap.loadIndex(aptDat != null ? new File(aptDat) : null, path != null ? new File(path) : null);
+	}
+
 	public static void setTileService() {
+		// the old service's threads, timers and pools go with it
+		if (svn != null)
+			svn.quit();
 		String server_type = props.getProperty(TerraMasterProperties.SERVER_TYPE);
 		if (server_type == null || server_type.indexOf("SVN") >= 0) {
 			svn = new Svn();
@@ -227,6 +299,8 @@ public class TerraMaster {
 			svn = new HTTPTerraSync();
 			svn.start();
 		}
+		if (frame != null)
+			svn.addListener(frame.syncProgress);
 		svn.restoreSettings();
 	}
 
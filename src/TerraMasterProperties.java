@@ -9,5 +9,10 @@ public interface TerraMasterProperties {
 	static final String PROJECTION_LON = "ProjectionLon";
 	static final String ZOOM = "Zoom";
 	static final String FROM_METRES = "FromMetres";
+	static final String APT_DAT = "AptDat";
+	/** directory of the optional shared file store, see ContentStore */
+	static final String CONTENT_STORE = "ContentStore";
+	/** sync only the Models the synced Objects use, see ModelCache */
+	static final String SELECTIVE_MODELS = "SelectiveModels";
 
 }
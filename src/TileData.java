@@ -1,13 +1,88 @@
 import java.io.File;
 import java.awt.Polygon;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TileData {
   public Polygon poly;
   public boolean terrain, objects, buildings;
   public File dir_terr, dir_obj, dir_buildings;
 
+  /** file count and size of one tile directory */
+  public static class DirStats {
+    public final int files;
+    public final long bytes;
+
+    DirStats(int files, long bytes) {
+      this.files = files;
+      this.bytes = bytes;
+    }
+  }
+
+  // filled by scan(), so the tooltip never has to touch the disk
+  public volatile DirStats stats_terr, stats_obj, stats_buildings;
+  /** airport codes found in the Terrain directory */
+  public volatile String[] airports = new String[0];
+
   public TileData() {
     terrain = false;
     objects = false;
   }
+
+  /**
+   * (re)reads the metadata of one of the tile's directories, including
+   * its subdirectories. Called on the scanner thread when the tile is
+   * found and after it has been synced, never on the EDT.
+   */
+  public void scan(TerraSyncDirectoryTypes type, File dir) {
+    long[] count = new long[2];
+    List<String> apt = new ArrayList<String>();
+    scan(type, dir, count, apt);
+
+    DirStats s = new DirStats((int) count[0], count[1]);
+    switch (type) {
+    case TERRAIN:
+      stats_terr = s;
+      airports = apt.toArray(new String[0]);
+      break;
+    case OBJECTS:
+      stats_obj = s;
+      break;
+    case BUILDINGS:
+      stats_buildings = s;
+      break;
+    default:
+      break;
+    }
+  }
+
+  // adds the files below dir to count {files, bytes}
+  private static void scan(TerraSyncDirectoryTypes type, File dir,
+      long[] count, List<String> apt) {
+    File[] list = dir.listFiles();
+    if (list == null)
+      return;
+    for (File f : list) {
+      if (f.isDirectory()) {
+        scan(type, f, count, apt);
+        continue;
+      }
+      ++count[0];
+      count[1] += f.length();
+
+      String i = f.getName();
+      if (type == TerraSyncDirectoryTypes.TERRAIN && i.endsWith(".btg.gz")) {
+        // numbered files are terrain, anything else is an airport
+        int n = i.indexOf('.');
+        if (n > 4)
+          n = 4;
+        i = i.substring(0, n);
+        try {
+          Short.parseShort(i);
+        } catch (Exception x) {
+          apt.add(i);
+        }
+      }
+    }
+  }
 }
@@ -18,7 +18,17 @@ public interface TileService {
 
 	void delete(Collection<TileName> selection);
 
+	/**
+	 * puts the tiles of the last delete back, while it isn't purged yet
+	 * @return the restored tiles
+	 */
+	Collection<TileName> undoDelete();
+
   void setTypes(boolean selected, boolean selected2, boolean selected3);
 
   void restoreSettings();
+
+	void addListener(TileServiceListener l);
+
+	void removeListener(TileServiceListener l);
 }
@@ -0,0 +1,33 @@
+import java.util.Collection;
+
+/**
+ * Empty implementation of {@link TileServiceListener}, override what you
+ * need.
+ */
+
+public class TileServiceAdapter implements TileServiceListener {
+
+	public void queued(Collection<TileName> tiles) {
+	}
+
+	public void planned(long bytes, int files) {
+	}
+
+	public void started(TileName tile) {
+	}
+
+	public void fileProgress(String path, boolean downloaded) {
+	}
+
+	public void bytesTransferred(long bytes) {
+	}
+
+	public void tileComplete(TileName tile) {
+	}
+
+	public void error(String message, Throwable t) {
+	}
+
+	public void idle() {
+	}
+}
@@ -0,0 +1,37 @@
+import java.util.Collection;
+
+/**
+ * Receives the events of a {@link TileService}. All methods are called on
+ * the service's own thread, so GUI listeners have to hand over to the EDT
+ * themselves.
+ */
+
+public interface TileServiceListener {
+
+	/** tiles were added to the queue */
+	void queued(Collection<TileName> tiles);
+
+	/**
+	 * the planning pass found bytes and files to download for one more
+	 * queued tile. The bytes include the .dirindex files fetched for it.
+	 */
+	void planned(long bytes, int files);
+
+	/** the sync of a tile has started */
+	void started(TileName tile);
+
+	/** one file (or svn node) has been checked, and downloaded if needed */
+	void fileProgress(String path, boolean downloaded);
+
+	/** bytes have been received */
+	void bytesTransferred(long bytes);
+
+	/** the sync of a tile has finished */
+	void tileComplete(TileName tile);
+
+	/** something went wrong, t may be null */
+	void error(String message, Throwable t);
+
+	/** the queue is empty and nothing is running */
+	void idle();
+}
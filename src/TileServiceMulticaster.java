@@ -0,0 +1,60 @@
+import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Passes each event on to all registered listeners. Listeners can be
+ * added and removed from any thread.
+ */
+
+public class TileServiceMulticaster implements TileServiceListener {
+
+	private CopyOnWriteArrayList<TileServiceListener> listeners = new CopyOnWriteArrayList<TileServiceListener>();
+
+	public void add(TileServiceListener l) {
+		listeners.addIfAbsent(l);
+	}
+
+	public void remove(TileServiceListener l) {
+		listeners.remove(l);
+	}
+
+	public void queued(Collection<TileName> tiles) {
+		for (TileServiceListener l : listeners)
+			l.queued(tiles);
+	}
+
+	public void planned(long bytes, int files) {
+		for (TileServiceListener l : listeners)
+			l.planned(bytes, files);
+	}
+
+	public void started(TileName tile) {
+		for (TileServiceListener l : listeners)
+			l.started(tile);
+	}
+
+	public void fileProgress(String path, boolean downloaded) {
+		for (TileServiceListener l : listeners)
+			l.fileProgress(path, downloaded);
+	}
+
+	public void bytesTransferred(long bytes) {
+		for (TileServiceListener l : listeners)
+			l.bytesTransferred(bytes);
+	}
+
+	public void tileComplete(TileName tile) {
+		for (TileServiceListener l : listeners)
+			l.tileComplete(tile);
+	}
+
+	public void error(String message, Throwable t) {
+		for (TileServiceListener l : listeners)
+			l.error(message, t);
+	}
+
+	public void idle() {
+		for (TileServiceListener l : listeners)
+			l.idle();
+	}
+}
@@ -0,0 +1,229 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Deletes tile directories in the background.
+ * The directories are first renamed into a staging area below the scenery
+ * directory, which is quick, so the map updates at once. The last delete
+ * can be undone for UNDO_SECONDS, then the staged trees are removed by a
+ * pool of threads, one task per directory.
+ */
+
+public class TileTrash {
+  /** staging area, relative to the scenery directory */
+  static final String DIRNAME = ".trash";
+  /** how long the last delete can be undone */
+  static final int UNDO_SECONDS = 30;
+
+  Logger log = Logger.getLogger(this.getClass().getName());
+
+  /** told about the tiles of a delete once it can't be undone any more */
+  public interface PurgeListener {
+    /** called on a pool thread */
+    void purged(Collection<TileName> tiles);
+  }
+
+  /** the tiles and directories moved by one delete() */
+  private static class Batch {
+    Map<TileName, TileData> tiles = new LinkedHashMap<TileName, TileData>();
+    List<File[]> moved = new ArrayList<File[]>(); // {original, staged}
+    File dir;
+    ScheduledFuture<?> purge;
+    PurgeListener listener; // null once undone
+    boolean done; // purged or undone
+  }
+
+  private File base;
+  private Batch last;
+  /** staged directories of this process, purged or still undoable */
+  private final Set<File> owned = new HashSet<File>();
+  private final AtomicInteger seq = new AtomicInteger();
+  private final ForkJoinPool pool = new ForkJoinPool(Math.max(2, Runtime
+      .getRuntime().availableProcessors()));
+  private final ScheduledExecutorService timer = Executors
+      .newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "TileTrash");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  /** deletes a directory tree, its subdirectories in parallel */
+  private class DeleteTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final File dir;
+
+    DeleteTask(File dir) {
+      this.dir = dir;
+    }
+
+    protected void compute() {
+      File[] list = dir.listFiles();
+      if (list != null) {
+        List<DeleteTask> subdirs = new ArrayList<DeleteTask>();
+        for (File f : list) {
+          if (f.isDirectory())
+            subdirs.add(new DeleteTask(f));
+        }
+        for (DeleteTask t : subdirs)
+          t.fork();
+        for (File f : list) {
+          if (!f.isDirectory() && !f.delete())
+            log.fine("Can't delete " + f);
+        }
+        for (DeleteTask t : subdirs)
+          t.join();
+      }
+      if (!dir.delete())
+        log.fine("Can't delete " + dir);
+    }
+  }
+
+  /**
+   * sets the scenery directory and purges what a previous run left in
+   * its staging area. The batches of this process are left alone, so
+   * the last delete can still be undone.
+   */
+  public synchronized void setBase(File f) {
+    base = f;
+    File[] list = new File(base, DIRNAME).listFiles();
+    if (list != null) {
+      for (File d : list) {
+        if (owned.add(d.getAbsoluteFile()))
+          pool.execute(new DeleteTask(d));
+      }
+    }
+  }
+
+  /**
+   * moves the directories of the tiles into the staging area and
+   * schedules their removal. The tiles must already be off the map.
+   */
+  public void delete(Map<TileName, TileData> tiles) {
+    delete(tiles, null);
+  }
+
+  /**
+   * as delete(tiles), the listener (may be null) is called when the
+   * batch is purged, but not if it is undone
+   */
+  public synchronized void delete(Map<TileName, TileData> tiles,
+      PurgeListener listener) {
+    Batch b = new Batch();
+    b.listener = listener;
+    b.dir = new File(new File(base, DIRNAME), System.currentTimeMillis() + "-"
+        + seq.incrementAndGet());
+    owned.add(b.dir.getAbsoluteFile());
+    for (Map.Entry<TileName, TileData> e : tiles.entrySet()) {
+      TileData d = e.getValue();
+      b.tiles.put(e.getKey(), d);
+      if (d.terrain)
+        stage(b, d.dir_terr);
+      if (d.objects)
+        stage(b, d.dir_obj);
+      if (d.buildings)
+        stage(b, d.dir_buildings);
+    }
+    if (last != null && !last.done)
+      purge(last);
+    last = b;
+    final Batch p = b;
+    b.purge = timer.schedule(new Runnable() {
+      public void run() {
+        purge(p);
+      }
+    }, UNDO_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private void stage(Batch b, File d) {
+    if (d == null || !d.exists())
+      return;
+    if (base == null) {
+      pool.execute(new DeleteTask(d));
+      return;
+    }
+    String rel = base.toURI().relativize(d.toURI()).getPath();
+    File staged = new File(b.dir, rel);
+    staged.getParentFile().mkdirs();
+    if (d.renameTo(staged)) {
+      b.moved.add(new File[] { d, staged });
+    } else {
+      // another file system or locked, no undo for this one
+      log.warning("Can't stage " + d + ", deleting in place");
+      pool.execute(new DeleteTask(d));
+    }
+  }
+
+  private synchronized void purge(Batch b) {
+    if (b.done)
+      return;
+    b.done = true;
+    if (b.purge != null)
+      b.purge.cancel(false);
+    log.info("Purging " + b.dir);
+    pool.execute(new DeleteTask(b.dir));
+    final PurgeListener l = b.listener;
+    final Collection<TileName> tiles = b.tiles.keySet();
+    if (l != null) {
+      pool.execute(new Runnable() {
+        public void run() {
+          l.purged(tiles);
+        }
+      });
+    }
+  }
+
+  /**
+   * @return true while the last delete can be undone
+   */
+  public synchronized boolean canUndo() {
+    return last != null && !last.done;
+  }
+
+  /**
+   * moves the directories of the last delete back and puts its tiles back
+   * on the map
+   *
+   * @return the restored tiles, empty if the window has passed
+   */
+  public synchronized Collection<TileName> undo() {
+    List<TileName> restored = new ArrayList<TileName>();
+    if (!canUndo())
+      return restored;
+    Batch b = last;
+    b.purge.cancel(false);
+    // restored or synced again, the tiles are in use
+    b.listener = null;
+    for (File[] m : b.moved) {
+      if (m[0].exists() || !m[1].renameTo(m[0]))
+        log.warning("Can't restore " + m[0]);
+    }
+    for (Map.Entry<TileName, TileData> e : b.tiles.entrySet()) {
+      // synced again in the meantime
+      if (TerraMaster.mapScenery.containsKey(e.getKey()))
+        continue;
+      TerraMaster.mapScenery.put(e.getKey(), e.getValue());
+      TerraMaster.diskUsage.update(e.getKey(), e.getValue());
+      restored.add(e.getKey());
+    }
+    // anything not restored goes
+    purge(b);
+    return restored;
+  }
+}
@@ -2,7 +2,12 @@ import	java.io.*;
 import	java.util.*;
 import	javax.swing.*;
 
-public class WebWorker extends SwingWorker<List<Airport>, Void>
+/**
+ * runs an airport search or browse in the background and publishes
+ * each airport to the map as soon as it has been read
+ */
+
+public class WebWorker extends SwingWorker<List<Airport>, Airport> implements AirportListener
 {
   String url;
   Collection<TileName> selection;
@@ -27,15 +32,27 @@ public class WebWorker extends SwingWorker<List<Airport>, Void>
   {
     switch (jobType) {
     case SEARCH:
-      result = TerraMaster.fgmap.search(url);
+      result = TerraMaster.fgmap.search(url, this);
       break;
     case BROWSE:
-      result = TerraMaster.fgmap.browse(selection);
+      result = TerraMaster.fgmap.browse(selection, this);
       break;
     }
     return result;
   }
 
+  // called on the query thread(s)
+  public void airportFound(Airport a)
+  {
+    publish(a);
+  }
+
+  // called on the EDT, several airports are coalesced into one repaint
+  protected void process(List<Airport> chunk)
+  {
+    TerraMaster.frame.repaint();
+  }
+
   public void done()
   {
     /*
@@ -0,0 +1,646 @@
+/*
+ * @(#) src/net/sf/ivmaidns/dns/DNSCache.java --
+ * Class for TTL-aware DNS records cache.
+ **
+ * Copyright (c) 2026 TerraMaster contributors
+ * All rights reserved.
+ */
+
+/*
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ **
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License (GPL) for more details.
+ **
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ **
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module. An independent module is a module which is not derived from
+ * or based on this library. If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so. If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package net.sf.ivmaidns.dns;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.HashMap;
+
+/**
+ * Class for TTL-aware DNS records cache.
+ **
+ * Resource record sets are kept by their owner name, type and class
+ * for as long as their TTL allows, the records returned by
+ * <CODE>get()</CODE> carry the remaining TTL. Negative answers are
+ * kept too (RFC2308): a name error (NXDOMAIN) hides all the types of
+ * the name, while no data hides only the asked type. Their TTL is the
+ * lesser of the TTL and the MINIMUM field of the SOA record from the
+ * authority section (at most MAX_NEGATIVE_TTL). Once the cache holds
+ * more than maxSize entries, the least recently used ones are dropped.
+ * All methods are synchronized, so a single cache (for example,
+ * <CODE>getDefault()</CODE>) may be shared by all the threads of a
+ * client. The content may be saved to a stream and loaded back later
+ * (the expired entries are skipped).
+ **
+ * @see DNSRecord
+ * @see DNSMsgView
+ **
+ * @version 3.1
+ */
+public final class DNSCache
+{
+
+ public static final int DEFAULT_MAX_SIZE = 4096;
+
+/**
+ * NOTE: The upper bound (in seconds) of the negative answers TTL.
+ **
+ * @since 3.1
+ */
+ public static final int MAX_NEGATIVE_TTL = 3 * 3600;
+
+/**
+ * NOTE: The first int of the saved cache ("DNSC").
+ */
+ protected static final int MAGIC = 0x444E5343;
+
+/**
+ * NOTE: A name error entry is kept under this (reserved) type.
+ */
+ protected static final int NAME_ERROR = 0;
+
+ protected static final DNSRecord[] EMPTY_RECORDS = {};
+
+ protected static DNSCache defaultCache;
+
+/**
+ * NOTE: entries maps each Entry to itself.
+ */
+ protected final HashMap<Entry, Entry> entries =
+  new HashMap<Entry, Entry>();
+
+/**
+ * NOTE: head is the sentinel of the entries list (head.next is the
+ * most recently used entry, head.prev is the least one).
+ */
+ protected final Entry head = new Entry();
+
+/**
+ * NOTE: probe is the (reused) key for lookups.
+ */
+ protected final Entry probe = new Entry();
+
+ protected int maxSize;
+
+ protected int hits;
+
+ protected int misses;
+
+ public DNSCache()
+ {
+  this(DEFAULT_MAX_SIZE);
+ }
+
+/**
+ * NOTE: maxSize must be > 0.
+ */
+ public DNSCache(int maxSize)
+  throws IllegalArgumentException
+ {
+  setMaxSize(maxSize);
+  Entry head = this.head;
+  head.prev = head.next = head;
+ }
+
+/**
+ * NOTE: Result is the cache shared by the whole application
+ * (created on the first call).
+ **
+ * @since 3.1
+ */
+ public static final synchronized DNSCache getDefault()
+ {
+  DNSCache cache;
+  if ((cache = defaultCache) == null)
+   defaultCache = cache = new DNSCache();
+  return cache;
+ }
+
+/**
+ * NOTE: maxSize must be > 0. The extra entries are dropped at once.
+ **
+ * @since 3.1
+ */
+ public synchronized void setMaxSize(int maxSize)
+  throws IllegalArgumentException
+ {
+  if (maxSize <= 0)
+   throw new IllegalArgumentException("maxSize: " +
+              Integer.toString(maxSize));
+  this.maxSize = maxSize;
+  trim();
+ }
+
+ public final int getMaxSize()
+ {
+  return this.maxSize;
+ }
+
+/**
+ * NOTE: Result is the number of entries (including the expired ones
+ * not purged yet).
+ */
+ public synchronized int size()
+ {
+  return this.entries.size();
+ }
+
+ public final int getHits()
+ {
+  return this.hits;
+ }
+
+ public final int getMisses()
+ {
+  return this.misses;
+ }
+
+/**
+ * NOTE: name must be != null. Result is null if nothing is known,
+ * empty if the answer is negative (the name or the records do not
+ * exist), else the records of the set (their TTL is the remaining
+ * one). qType of ANY is not special (only the records cached for
+ * ANY type are returned).
+ **
+ * @since 3.1
+ */
+ public synchronized DNSRecord[] get(DNSName name,
+         int rType, int rClass)
+  throws NullPointerException
+ {
+  long now = System.currentTimeMillis();
+  Entry entry;
+  if ((entry = find(name, rType, rClass, now)) == null &&
+      (entry = find(name, NAME_ERROR, rClass, now)) == null)
+  {
+   this.misses++;
+   return null;
+  }
+  this.hits++;
+  DNSRecord[] records;
+  if ((records = entry.records) == null)
+   return EMPTY_RECORDS;
+  int ttl = (int)((entry.expires - now) / 1000L), index;
+  DNSRecord[] result = new DNSRecord[index = records.length];
+  while (index-- > 0)
+   result[index] = new DNSRecord(records[index], ttl);
+  return result;
+ }
+
+/**
+ * NOTE: name must be != null. Result is true if the name is cached
+ * as not existing (in rClass).
+ **
+ * @since 3.1
+ */
+ public synchronized boolean isNameError(DNSName name, int rClass)
+  throws NullPointerException
+ {
+  return find(name, NAME_ERROR, rClass,
+   System.currentTimeMillis()) != null;
+ }
+
+/**
+ * NOTE: records must be != null, records length > 0, records[index]
+ * must be != null for any index and all the records must have the
+ * same name, type and class. The set is kept for the least TTL of
+ * its records (a zero TTL removes the set).
+ **
+ * @since 3.1
+ */
+ public synchronized void put(DNSRecord[] records)
+  throws NullPointerException, IllegalArgumentException
+ {
+  int index = records.length;
+  DNSRecord record = records[0];
+  DNSName name = record.getRName();
+  int rType = record.getRType(), rClass = record.getRClass();
+  int ttl = -1 >>> 1, value;
+  do
+  {
+   if ((record = records[--index]).getRType() != rType ||
+       record.getRClass() != rClass ||
+       !record.getRName().equals(name))
+    throw new IllegalArgumentException("Not a records set");
+   if ((value = record.getTTL()) >= 0 && ttl > value)
+    ttl = value;
+  } while (index > 0);
+  remove(name, NAME_ERROR, rClass);
+  if (ttl > 0)
+   store(name, rType, rClass, records.clone(), ttl);
+   else remove(name, rType, rClass);
+ }
+
+/**
+ * NOTE: record must be != null. record is added to the (not expired)
+ * set cached for its name, type and class (if not there yet), the
+ * set is kept for the least TTL. This is for the records coming one
+ * by one (as in a zone transfer).
+ **
+ * @since 3.1
+ */
+ public synchronized void add(DNSRecord record)
+  throws NullPointerException
+ {
+  DNSName name = record.getRName();
+  int rType = record.getRType(), rClass = record.getRClass();
+  long now = System.currentTimeMillis(), expires;
+  Entry entry;
+  DNSRecord[] records;
+  if ((entry = find(name, rType, rClass, now)) == null ||
+      (records = entry.records) == null)
+  {
+   records = new DNSRecord[1];
+   records[0] = record;
+   put(records);
+   return;
+  }
+  int index = records.length;
+  while (index-- > 0)
+   if (records[index].equals(record))
+    return;
+  DNSRecord[] newRecords = new DNSRecord[index = records.length + 1];
+  System.arraycopy(records, 0, newRecords, 0, --index);
+  newRecords[index] = record;
+  entry.records = newRecords;
+  if ((expires = now + record.getTTL() * 1000L) < entry.expires)
+   entry.expires = expires;
+  if (expires <= now)
+   drop(entry);
+ }
+
+/**
+ * NOTE: name must be != null, soa must be != null (the SOA record
+ * from the authority section of the negative answer). If nameError
+ * then the name itself does not exist (NXDOMAIN), else only the
+ * records of rType (in rClass).
+ **
+ * @since 3.1
+ */
+ public synchronized void putNegative(DNSName name, int rType,
+         int rClass, boolean nameError, DNSRecord soa)
+  throws NullPointerException
+ {
+  name.equals(name);
+  int ttl = soa.getTTL(), value;
+  Object[] rData;
+  if ((rData = soa.getRData()).length >
+      DNSRecord.SOA_MINTTL_INDEX && (value = ((Number)rData[
+      DNSRecord.SOA_MINTTL_INDEX]).intValue()) >= 0 && ttl > value)
+   ttl = value;
+  if (ttl < 0 || ttl > MAX_NEGATIVE_TTL)
+   ttl = MAX_NEGATIVE_TTL;
+  if (nameError)
+   rType = NAME_ERROR;
+  if (ttl > 0)
+   store(name, rType, rClass, null, ttl);
+ }
+
+/**
+ * NOTE: msgBytes must be != null. The answer section of a response
+ * (to a standard query) is cached by records sets, a negative
+ * answer (with an SOA record in the authority section) is cached
+ * for the question. Truncated and malformed messages are ignored.
+ * Result is the number of entries added.
+ **
+ * @since 3.1
+ */
+ public int cache(byte[] msgBytes, int len)
+  throws NullPointerException
+ {
+  DNSMsgView view = new DNSMsgView().wrap(msgBytes, len);
+  int rCode, count = 0;
+  if (!view.hasHeader() || !view.isResponse() || view.isTruncated() ||
+      view.getOpCode() != DNSMsgHeader.QUERY ||
+      view.getQdCount() != 1 ||
+      (rCode = view.getRCode()) != DNSMsgHeader.NOERROR &&
+      rCode != DNSMsgHeader.NXDOMAIN ||
+      view.getRecordCount() < view.getTotalCount())
+   return 0;
+  int index = 1, last = view.getAnCount() + 1, next, rType, rClass;
+  try
+  {
+   if (index < last)
+   {
+    boolean[] used = new boolean[last];
+    for (; index < last; index++)
+     if (!used[index])
+     {
+      DNSName name = view.getName(index);
+      rType = view.getRType(index);
+      rClass = view.getRClass(index);
+      int size = 1;
+      for (next = index; ++next < last;)
+       if (!used[next] && view.getRType(next) == rType &&
+           view.getRClass(next) == rClass &&
+           view.nameEquals(next, name))
+       {
+        used[next] = true;
+        size++;
+       }
+      DNSRecord[] records = new DNSRecord[size];
+      records[0] = view.getRecord(index);
+      for (size = 1, next = index; ++next < last;)
+       if (used[next] && view.getRType(next) == rType &&
+           view.getRClass(next) == rClass &&
+           view.nameEquals(next, name))
+        records[size++] = view.getRecord(next);
+      put(records);
+      count++;
+     }
+   }
+    else
+    {
+     for (next = last + view.getNsCount(); index < next; index++)
+      if (view.getRType(index) == DNSRecord.SOA)
+      {
+       putNegative(view.getName(0), view.getRType(0),
+        view.getRClass(0), rCode == DNSMsgHeader.NXDOMAIN,
+        view.getRecord(index));
+       count++;
+       break;
+      }
+    }
+  }
+  catch (IllegalArgumentException e) {}
+  return count;
+ }
+
+/**
+ * NOTE: Removes the expired entries. Result is the number of
+ * removed entries.
+ **
+ * @since 3.1
+ */
+ public synchronized int purge()
+ {
+  long now = System.currentTimeMillis();
+  int count = 0;
+  Entry head = this.head, entry = head.next, next;
+  while (entry != head)
+  {
+   next = entry.next;
+   if (entry.expires <= now)
+   {
+    drop(entry);
+    count++;
+   }
+   entry = next;
+  }
+  return count;
+ }
+
+ public synchronized void clear()
+ {
+  Entry head = this.head;
+  this.entries.clear();
+  head.prev = head.next = head;
+ }
+
+/**
+ * NOTE: out must be != null. The entries are written (least
+ * recently used first) with their expiration time. out is not
+ * closed.
+ **
+ * @since 3.1
+ */
+ public synchronized void save(OutputStream out)
+  throws NullPointerException, IOException
+ {
+  DataOutputStream dataOut = new DataOutputStream(out);
+  Entry head = this.head, entry;
+  dataOut.writeInt(MAGIC);
+  dataOut.writeInt(this.entries.size());
+  byte[] bytes = new byte[DNSConnection.MAX_MSG_LEN];
+  for (entry = head.prev; entry != head; entry = entry.prev)
+  {
+   DNSRecord[] records;
+   int len = entry.name.putTo(bytes, 0), index = 0;
+   dataOut.writeShort(len);
+   dataOut.write(bytes, 0, len);
+   dataOut.writeShort(entry.rType);
+   dataOut.writeShort(entry.rClass);
+   dataOut.writeLong(entry.expires);
+   if ((records = entry.records) == null)
+    dataOut.writeShort(0);
+    else
+    {
+     dataOut.writeShort(records.length);
+     do
+     {
+      len = records[index].putTo(bytes, 0, true, bytes.length);
+      dataOut.writeShort(len);
+      dataOut.write(bytes, 0, len);
+     } while (++index < records.length);
+    }
+  }
+  dataOut.flush();
+ }
+
+/**
+ * NOTE: in must be != null. The entries saved by save() are added
+ * (except for the expired ones). in is not closed.
+ **
+ * @since 3.1
+ */
+ public synchronized void load(InputStream in)
+  throws NullPointerException, IOException
+ {
+  DataInputStream dataIn = new DataInputStream(in);
+  if (dataIn.readInt() != MAGIC)
+   throw new IOException("Bad DNS cache data");
+  long now = System.currentTimeMillis();
+  int count = dataIn.readInt();
+  byte[] bytes = new byte[DNSConnection.MAX_MSG_LEN];
+  int[] ofsRef = new int[1];
+  try
+  {
+   while (count-- > 0)
+   {
+    int len;
+    dataIn.readFully(bytes, 0, len = dataIn.readUnsignedShort());
+    DNSName name = new DNSName(bytes, 0);
+    int rType = dataIn.readUnsignedShort();
+    int rClass = dataIn.readUnsignedShort();
+    long expires = dataIn.readLong();
+    DNSRecord[] records = null;
+    if ((len = dataIn.readUnsignedShort()) > 0)
+    {
+     records = new DNSRecord[len];
+     for (int index = 0; index < records.length; index++)
+     {
+      dataIn.readFully(bytes, 0, len = dataIn.readUnsignedShort());
+      ofsRef[0] = 0;
+      records[index] = new DNSRecord(bytes, ofsRef, true);
+     }
+    }
+    if (expires > now)
+     link(new Entry(name, rType, rClass, records, expires));
+   }
+  }
+  catch (IllegalArgumentException e)
+  {
+   throw new IOException("Bad DNS cache data");
+  }
+  trim();
+ }
+
+ protected Entry find(DNSName name, int rType, int rClass, long now)
+ {
+  Entry probe = this.probe, entry;
+  probe.set(name, rType, rClass);
+  if ((entry = this.entries.get(probe)) != null)
+  {
+   unlink(entry);
+   if (entry.expires <= now)
+   {
+    this.entries.remove(entry);
+    return null;
+   }
+   linkFirst(entry);
+  }
+  return entry;
+ }
+
+ protected void store(DNSName name, int rType, int rClass,
+         DNSRecord[] records, int ttl)
+ {
+  link(new Entry(name, rType, rClass, records,
+   System.currentTimeMillis() + ttl * 1000L));
+  trim();
+ }
+
+ protected void remove(DNSName name, int rType, int rClass)
+ {
+  Entry probe = this.probe, entry;
+  probe.set(name, rType, rClass);
+  if ((entry = this.entries.remove(probe)) != null)
+   unlink(entry);
+ }
+
+/**
+ * NOTE: Adds (or replaces) entry as the most recently used one.
+ */
+ protected void link(Entry entry)
+ {
+  Entry old;
+  if ((old = this.entries.put(entry, entry)) != null)
+   unlink(old);
+  linkFirst(entry);
+ }
+
+ protected void linkFirst(Entry entry)
+ {
+  Entry head = this.head;
+  (entry.next = head.next).prev = entry;
+  (entry.prev = head).next = entry;
+ }
+
+ protected void unlink(Entry entry)
+ {
+  (entry.prev.next = entry.next).prev = entry.prev;
+  entry.prev = entry.next = null;
+ }
+
+ protected void drop(Entry entry)
+ {
+  unlink(entry);
+  this.entries.remove(entry);
+ }
+
+/**
+ * NOTE: Drops the least recently used entries beyond maxSize.
+ */
+ protected void trim()
+ {
+  Entry head = this.head;
+  while (this.entries.size() > this.maxSize)
+   drop(head.prev);
+ }
+
+/**
+ * NOTE: Entry is the cached records set (or negative answer) and
+ * its key (name, type and class) at the same time. records are null
+ * for a negative answer.
+ */
+ protected static final class Entry
+ {
+
+  DNSName name;
+
+  int rType;
+
+  int rClass;
+
+  int hash;
+
+  DNSRecord[] records;
+
+  long expires;
+
+  Entry prev;
+
+  Entry next;
+
+  Entry() {}
+
+  Entry(DNSName name, int rType, int rClass,
+    DNSRecord[] records, long expires)
+  {
+   set(name, rType, rClass);
+   this.records = records;
+   this.expires = expires;
+  }
+
+  void set(DNSName name, int rType, int rClass)
+  {
+   this.name = name;
+   this.rType = rType;
+   this.rClass = rClass;
+   this.hash = (name.hashCode() * 31 + rType) * 31 + rClass;
+  }
+
+  public int hashCode()
+  {
+   return this.hash;
+  }
+
+  public boolean equals(Object obj)
+  {
+   Entry entry;
+   return obj == this || obj instanceof Entry &&
+    (entry = (Entry)obj).hash == this.hash &&
+    entry.rType == this.rType && entry.rClass == this.rClass &&
+    entry.name.equals(this.name);
+  }
+ }
+}
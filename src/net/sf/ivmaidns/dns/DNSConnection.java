@@ -300,6 +300,54 @@ public final class DNSConnection
   return msgBytes;
  }
 
+/**
+ * NOTE: buffer must be != null. Waits for the next message and reads
+ * it into buffer, so no array is allocated (unless a message was
+ * partly received by receive(false)). Result is the message length.
+ * If buffer is too short then the rest of the message is skipped
+ * (and result > buffer length). InterruptedIOException and
+ * EOFException may be thrown (then the connection should be closed).
+ * Must be synchronized outside.
+ **
+ * @see DNSMsgView
+ **
+ * @since 3.1
+ */
+ public int receive(byte[] buffer)
+  throws NullPointerException, IOException
+ {
+  int msgLen, len, offset = 0;
+  BufferedInputStream in;
+  if ((in = this.in) == null)
+   throw new SocketException("Connection closed");
+  if (this.msgBytes != null || this.msgLen > 0)
+  {
+   byte[] msgBytes = receive(true);
+   if ((len = msgBytes.length) > buffer.length)
+    len = buffer.length;
+   System.arraycopy(msgBytes, 0, buffer, 0, len);
+   return msgBytes.length;
+  }
+  if ((msgLen = in.read()) < 0 || (len = in.read()) < 0)
+   throw new EOFException();
+  msgLen = (msgLen << 8) | len;
+  while (offset < msgLen && offset < buffer.length)
+  {
+   if ((len = in.read(buffer, offset, (msgLen < buffer.length ?
+       msgLen : buffer.length) - offset)) < 0)
+    throw new EOFException();
+   offset += len;
+  }
+  for (long skipped; offset < msgLen; offset += (int)skipped)
+   if ((skipped = in.skip(msgLen - offset)) <= 0L)
+   {
+    if (in.read() < 0)
+     throw new EOFException();
+    skipped = 1L;
+   }
+  return msgLen;
+ }
+
 /**
  * NOTE: Must be synchronized outside.
  */
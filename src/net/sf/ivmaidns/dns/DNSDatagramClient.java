@@ -0,0 +1,324 @@
+/*
+ * @(#) src/net/sf/ivmaidns/dns/DNSDatagramClient.java --
+ * Class for DNS UDP client transport.
+ **
+ * Copyright (c) 2026 TerraMaster contributors
+ * All rights reserved.
+ */
+
+/*
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ **
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License (GPL) for more details.
+ **
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ **
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module. An independent module is a module which is not derived from
+ * or based on this library. If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so. If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package net.sf.ivmaidns.dns;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import net.sf.ivmaidns.util.JavaConsts;
+
+/**
+ * Class for DNS UDP client transport (with EDNS0 and TCP fallback).
+ **
+ * A query is sent in a single datagram, advertising a larger payload
+ * size with an OPT record (EDNS0, RFC2671) unless disabled. If no
+ * answer comes in time then the query is resent (with the timeout
+ * doubled). A server which does not understand EDNS0 (FORMERR or
+ * NOTIMP) is asked again without it. If the answer is truncated (TC
+ * bit) then the query is repeated over TCP (see
+ * <CODE>DNSConnection</CODE>). Each query uses its own socket (with
+ * a random port), so an instance may be shared among threads.
+ **
+ * @see DNSConnection
+ **
+ * @version 3.1
+ */
+public final class DNSDatagramClient
+{
+
+/**
+ * NOTE: The default EDNS0 payload size (which avoids IP
+ * fragmentation on most paths).
+ **
+ * @since 3.1
+ */
+ public static final int DEFAULT_PAYLOAD_SIZE = 1232;
+
+/**
+ * NOTE: The default timeout (in ms) of the first attempt.
+ **
+ * @since 3.1
+ */
+ public static final int DEFAULT_TIMEOUT = 2000;
+
+ public static final int DEFAULT_RETRIES = 2;
+
+/**
+ * NOTE: payloadSize is UDP_PACKET_LEN if EDNS0 is disabled.
+ */
+ protected int payloadSize = DEFAULT_PAYLOAD_SIZE;
+
+ protected int timeout = DEFAULT_TIMEOUT;
+
+ protected int retries = DEFAULT_RETRIES;
+
+ protected volatile int totalRetries;
+
+ protected volatile int totalFallbacks;
+
+ public DNSDatagramClient() {}
+
+/**
+ * NOTE: If payloadSize <= UDP_PACKET_LEN then EDNS0 is not used.
+ * payloadSize is limited to MAX_MSG_LEN.
+ **
+ * @since 3.1
+ */
+ public void setPayloadSize(int payloadSize)
+ {
+  if (payloadSize <= DNSMsgHeader.UDP_PACKET_LEN)
+   payloadSize = DNSMsgHeader.UDP_PACKET_LEN;
+  if (payloadSize > DNSConnection.MAX_MSG_LEN)
+   payloadSize = DNSConnection.MAX_MSG_LEN;
+  this.payloadSize = payloadSize;
+ }
+
+ public final int getPayloadSize()
+ {
+  return this.payloadSize;
+ }
+
+/**
+ * NOTE: timeout (in ms) must be > 0.
+ **
+ * @since 3.1
+ */
+ public void setTimeout(int timeout)
+  throws IllegalArgumentException
+ {
+  if (timeout <= 0)
+   throw new IllegalArgumentException("timeout: " +
+              Integer.toString(timeout));
+  this.timeout = timeout;
+ }
+
+ public final int getTimeout()
+ {
+  return this.timeout;
+ }
+
+/**
+ * NOTE: Negative retries is treated as zero.
+ **
+ * @since 3.1
+ */
+ public void setRetries(int retries)
+ {
+  this.retries = retries > 0 ? retries : 0;
+ }
+
+ public final int getRetries()
+ {
+  return this.retries;
+ }
+
+/**
+ * NOTE: Result is the number of datagrams resent so far.
+ **
+ * @since 3.1
+ */
+ public final int getTotalRetries()
+ {
+  return this.totalRetries;
+ }
+
+/**
+ * NOTE: Result is the number of queries repeated over TCP so far.
+ **
+ * @since 3.1
+ */
+ public final int getTotalFallbacks()
+ {
+  return this.totalFallbacks;
+ }
+
+/**
+ * NOTE: server and msgBytes must be != null. msgBytes is an encoded
+ * query (see DNSConnection.encode()) without OPT record. msgBytes
+ * array is not changed anyway. Result != null, result is the
+ * response (its id is checked). InterruptedIOException is thrown if
+ * all attempts time out.
+ **
+ * @since 3.1
+ */
+ public byte[] query(InetAddress server, byte[] msgBytes)
+  throws NullPointerException, IllegalArgumentException, IOException
+ {
+  int payloadSize, rCode;
+  server.hashCode();
+  if (msgBytes.length < DNSMsgHeader.HEADER_LEN)
+   throw new IllegalArgumentException("msgLen: " +
+              Integer.toString(msgBytes.length));
+  byte[] response;
+  if ((payloadSize = this.payloadSize) > DNSMsgHeader.UDP_PACKET_LEN)
+  {
+   response = exchange(server, addOpt(msgBytes, payloadSize),
+    payloadSize);
+   if ((rCode = response[DNSMsgHeader.ID_LENGTH + 1] &
+       DNSMsgHeader.MAX_RCODE) == DNSMsgHeader.FORMERR ||
+       rCode == DNSMsgHeader.NOTIMP)
+    response = exchange(server, msgBytes,
+     DNSMsgHeader.UDP_PACKET_LEN);
+  }
+   else response = exchange(server, msgBytes,
+    DNSMsgHeader.UDP_PACKET_LEN);
+  if (DNSMsgHeader.isTruncated(response))
+  {
+   this.totalFallbacks++;
+   DNSConnection connection = new DNSConnection();
+   connection.open(server);
+   try
+   {
+    connection.send(msgBytes);
+    do
+    {
+     response = connection.receive(true);
+    } while (!isResponseTo(response, msgBytes));
+   }
+   finally
+   {
+    connection.close();
+   }
+  }
+  return response;
+ }
+
+/**
+ * NOTE: Result is msgBytes with an OPT record (for payloadSize)
+ * appended to the additional section.
+ */
+ protected static byte[] addOpt(byte[] msgBytes, int payloadSize)
+ {
+  DNSRecord opt = new DNSRecord(DNSName.ROOT, DNSRecord.OPT,
+   payloadSize, 0, DNSRecord.EMPTY_BYTES);
+  int msgLen = msgBytes.length, arCount;
+  byte[] newMsgBytes = new byte[msgLen + opt.getTotalLen()];
+  System.arraycopy(msgBytes, 0, newMsgBytes, 0, msgLen);
+  opt.putTo(newMsgBytes, msgLen, true, newMsgBytes.length);
+  arCount = ((newMsgBytes[DNSMsgHeader.HEADER_LEN - 2] &
+   JavaConsts.BYTE_MASK) << JavaConsts.BYTE_SIZE |
+   (newMsgBytes[DNSMsgHeader.HEADER_LEN - 1] &
+   JavaConsts.BYTE_MASK)) + 1;
+  newMsgBytes[DNSMsgHeader.HEADER_LEN - 2] =
+   (byte)(arCount >> JavaConsts.BYTE_SIZE);
+  newMsgBytes[DNSMsgHeader.HEADER_LEN - 1] = (byte)arCount;
+  return newMsgBytes;
+ }
+
+/**
+ * NOTE: Result is true if response is a response with the same id
+ * as msgBytes.
+ */
+ protected static boolean isResponseTo(byte[] response, byte[] msgBytes)
+ {
+  return response.length >= DNSMsgHeader.HEADER_LEN &&
+   response[0] == msgBytes[0] && response[1] == msgBytes[1] &&
+   (response[DNSMsgHeader.ID_LENGTH] & (DNSMsgHeader.QR >>
+   JavaConsts.BYTE_SIZE)) != 0;
+ }
+
+/**
+ * NOTE: Sends msgBytes (and resends it on time-out) until a response
+ * comes from server. Datagrams from other addresses or with another
+ * id are ignored.
+ */
+ protected byte[] exchange(InetAddress server, byte[] msgBytes,
+         int payloadSize)
+  throws IOException
+ {
+  DatagramSocket socket;
+  try
+  {
+   socket = new DatagramSocket();
+  }
+  catch (SecurityException e)
+  {
+   throw new SocketException("SecurityException: socket()");
+  }
+  try
+  {
+   byte[] buffer = new byte[payloadSize];
+   DatagramPacket packet = new DatagramPacket(buffer, payloadSize);
+   int timeout = this.timeout, attempts = this.retries;
+   do
+   {
+    socket.send(new DatagramPacket(msgBytes, msgBytes.length,
+     server, DNSConnection.PORT));
+    long deadline = System.currentTimeMillis() + timeout;
+    try
+    {
+     do
+     {
+      long left;
+      if ((left = deadline - System.currentTimeMillis()) <= 0L)
+       throw new SocketTimeoutException();
+      socket.setSoTimeout((int)left);
+      packet.setLength(payloadSize);
+      socket.receive(packet);
+      if (server.equals(packet.getAddress()) &&
+          packet.getPort() == DNSConnection.PORT)
+      {
+       byte[] response = new byte[packet.getLength()];
+       System.arraycopy(buffer, 0, response, 0, response.length);
+       if (isResponseTo(response, msgBytes))
+        return response;
+      }
+     } while (true);
+    }
+    catch (InterruptedIOException e)
+    {
+     if (attempts-- <= 0)
+      throw new InterruptedIOException("DNS query timed out");
+     this.totalRetries++;
+     if ((timeout <<= 1) <= 0)
+      timeout = -1 >>> 1;
+    }
+   } while (true);
+  }
+  finally
+  {
+   socket.close();
+  }
+ }
+}
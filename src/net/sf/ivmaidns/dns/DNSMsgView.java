@@ -0,0 +1,624 @@
+/*
+ * @(#) src/net/sf/ivmaidns/dns/DNSMsgView.java --
+ * Class for zero-copy DNS message view.
+ **
+ * Copyright (c) 2026 TerraMaster contributors
+ * All rights reserved.
+ */
+
+/*
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ **
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License (GPL) for more details.
+ **
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ **
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module. An independent module is a module which is not derived from
+ * or based on this library. If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so. If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package net.sf.ivmaidns.dns;
+
+import java.nio.ByteBuffer;
+
+import net.sf.ivmaidns.util.JavaConsts;
+
+/**
+ * Class for zero-copy (flyweight) view of a DNS message.
+ **
+ * The view reads the header fields, record names, types, classes,
+ * TTLs and RData bounds straight from a <CODE>ByteBuffer</CODE>
+ * holding the message, nothing is decoded until it is asked for. The
+ * record offsets are found lazily (only up to the requested record)
+ * and names are compared in place (following compression pointers).
+ * The same view may be reused for any number of messages, so filtering
+ * a large zone transfer for a few record types allocates (almost)
+ * nothing; <CODE>getName()</CODE> and <CODE>getRecord()</CODE> build
+ * the usual objects only for the records of interest. Records are
+ * indexed in the same way as by <CODE>DNSConnection.decode()</CODE>
+ * (questions first). The view is not thread-safe.
+ **
+ * @see DNSConnection
+ * @see DNSRecord
+ **
+ * @version 3.1
+ */
+public final class DNSMsgView
+{
+
+ protected static final int RDATA_OFFSET = DNSRecord.RTYPE_LENGTH +
+  DNSRecord.RCLASS_LENGTH + DNSRecord.TTL_LENGTH +
+  DNSRecord.RDATA_LEN_LENGTH;
+
+/**
+ * NOTE: The longest (decompressed) name, a name walk stops past it
+ * (so a looping compression pointer cannot hang the caller).
+ */
+ protected static final int MAX_NAME_LEN = 0xFF;
+
+/**
+ * NOTE: msg is the message (from 0 up to its limit), msg == null
+ * only if nothing is wrapped.
+ */
+ protected ByteBuffer msg;
+
+/**
+ * NOTE: Offsets of the records found so far (offsets[known] is the
+ * offset of the next record to find).
+ */
+ protected int[] offsets = new int[16];
+
+ protected int known;
+
+/**
+ * NOTE: Copy of msg for getRecord() (if msg has no accessible
+ * array).
+ */
+ protected byte[] msgBytes;
+
+/**
+ * NOTE: names is the table the built names are interned in (or
+ * null).
+ */
+ protected DNSNameTable names;
+
+ public DNSMsgView() {}
+
+/**
+ * NOTE: names may be == null. If set then the names built by
+ * getNameAt() and the rName of getRecord() are interned in names
+ * (so equal names of all the viewed messages share one instance).
+ **
+ * @since 3.1
+ */
+ public void setNameTable(DNSNameTable names)
+ {
+  this.names = names;
+ }
+
+ public final DNSNameTable getNameTable()
+ {
+  return this.names;
+ }
+
+/**
+ * NOTE: msg must be != null. The view covers msg content from its
+ * position to its limit (the buffer itself is not changed, its
+ * content must not be changed while it is viewed). Result is this.
+ **
+ * @since 3.1
+ */
+ public DNSMsgView wrap(ByteBuffer msg)
+  throws NullPointerException
+ {
+  this.msg = msg.slice();
+  this.offsets[0] = DNSMsgHeader.HEADER_LEN;
+  this.known = 0;
+  this.msgBytes = null;
+  return this;
+ }
+
+/**
+ * NOTE: msgBytes must be != null, 0 <= len <= msgBytes length.
+ * msgBytes array is not copied. Result is this.
+ **
+ * @since 3.1
+ */
+ public DNSMsgView wrap(byte[] msgBytes, int len)
+  throws NullPointerException, IndexOutOfBoundsException
+ {
+  wrap(ByteBuffer.wrap(msgBytes, 0, len));
+  return this;
+ }
+
+/**
+ * NOTE: Result is the message length (0 if nothing is wrapped).
+ **
+ * @since 3.1
+ */
+ public int getMsgLen()
+ {
+  ByteBuffer msg;
+  return (msg = this.msg) != null ? msg.limit() : 0;
+ }
+
+/**
+ * NOTE: Result is false if the message is shorter than its header
+ * (then all header fields are 0).
+ **
+ * @since 3.1
+ */
+ public boolean hasHeader()
+ {
+  return getMsgLen() >= DNSMsgHeader.HEADER_LEN;
+ }
+
+ protected int getUShort(int offset)
+ {
+  return offset + 2 <= getMsgLen() ?
+   this.msg.getShort(offset) & 0xFFFF : 0;
+ }
+
+/**
+ * NOTE: Result is unsigned.
+ **
+ * @since 3.1
+ */
+ public int getId()
+ {
+  return getUShort(0);
+ }
+
+/**
+ * NOTE: Result is unsigned.
+ **
+ * @since 3.1
+ */
+ public int getFlags()
+ {
+  return getUShort(DNSMsgHeader.ID_LENGTH);
+ }
+
+ public boolean isResponse()
+ {
+  return (getFlags() & DNSMsgHeader.QR) != 0;
+ }
+
+ public boolean isTruncated()
+ {
+  return (getFlags() & DNSMsgHeader.TC) != 0;
+ }
+
+ public int getOpCode()
+ {
+  return (getFlags() >> DNSMsgHeader.OPCODE_SHIFT) &
+   DNSMsgHeader.MAX_OPCODE;
+ }
+
+ public int getRCode()
+ {
+  return getFlags() & DNSMsgHeader.MAX_RCODE;
+ }
+
+/**
+ * NOTE: Result is unsigned.
+ **
+ * @since 3.1
+ */
+ public int getQdCount()
+ {
+  return getUShort(DNSMsgHeader.ID_LENGTH +
+   DNSMsgHeader.FLAGS_LENGTH);
+ }
+
+ public int getAnCount()
+ {
+  return getUShort(DNSMsgHeader.ID_LENGTH +
+   DNSMsgHeader.FLAGS_LENGTH + DNSMsgHeader.COUNT_LENGTH);
+ }
+
+ public int getNsCount()
+ {
+  return getUShort(DNSMsgHeader.ID_LENGTH +
+   DNSMsgHeader.FLAGS_LENGTH + DNSMsgHeader.COUNT_LENGTH * 2);
+ }
+
+ public int getArCount()
+ {
+  return getUShort(DNSMsgHeader.ID_LENGTH +
+   DNSMsgHeader.FLAGS_LENGTH + DNSMsgHeader.COUNT_LENGTH * 3);
+ }
+
+/**
+ * NOTE: Result is the number of records declared by the header.
+ **
+ * @since 3.1
+ */
+ public int getTotalCount()
+ {
+  return getQdCount() + getAnCount() + getNsCount() + getArCount();
+ }
+
+/**
+ * NOTE: Result is the number of records actually present (all
+ * records up to the first malformed one). All records are scanned.
+ **
+ * @since 3.1
+ */
+ public int getRecordCount()
+ {
+  int count = getTotalCount();
+  while (count > 0 && offsetOf(count - 1) < 0)
+   count = this.known;
+  return count;
+ }
+
+/**
+ * NOTE: Result is true if the record at index is a resource record
+ * (not a question).
+ **
+ * @since 3.1
+ */
+ public boolean isResource(int index)
+ {
+  return index >= getQdCount();
+ }
+
+/**
+ * NOTE: Result is the offset after the name at offset (which may be
+ * compressed) or -1 if the name is malformed.
+ */
+ protected int skipName(int offset)
+ {
+  int len, limit = getMsgLen();
+  while (offset >= 0 && offset < limit)
+  {
+   if ((len = this.msg.get(offset) & JavaConsts.BYTE_MASK) == 0)
+    return offset + 1;
+   if (len >= DNSName.COMPRESSED_NAME_TAG)
+    return offset + 2 <= limit ? offset + 2 : -1;
+   if (len > DNSName.MAX_LABEL_LEN)
+    break;
+   offset += len + 1;
+  }
+  return -1;
+ }
+
+/**
+ * NOTE: Result is the offset of the record at index or -1 if there
+ * is no such (complete) record. The offsets are found up to index
+ * only.
+ **
+ * @since 3.1
+ */
+ public int offsetOf(int index)
+ {
+  int known = this.known;
+  if (index < 0 || index >= getTotalCount())
+   return -1;
+  int[] offsets = this.offsets;
+  if (index >= offsets.length - 1)
+  {
+   int[] newOffsets;
+   System.arraycopy(offsets, 0, newOffsets =
+    new int[index + (index >> 1) + 2], 0, known + 1);
+   this.offsets = offsets = newOffsets;
+  }
+  int qdCount = getQdCount(), offset, limit = getMsgLen();
+  while (known <= index)
+  {
+   if ((offset = skipName(offsets[known])) < 0)
+    return -1;
+   offset += DNSRecord.RTYPE_LENGTH + DNSRecord.RCLASS_LENGTH;
+   if (known >= qdCount)
+   {
+    if (offset + DNSRecord.TTL_LENGTH +
+        DNSRecord.RDATA_LEN_LENGTH > limit)
+     return -1;
+    offset += DNSRecord.TTL_LENGTH + DNSRecord.RDATA_LEN_LENGTH +
+     getUShort(offset + DNSRecord.TTL_LENGTH);
+   }
+   if (offset > limit)
+    return -1;
+   offsets[this.known = ++known] = offset;
+  }
+  return offsets[index];
+ }
+
+ protected int typeOffset(int index)
+  throws IndexOutOfBoundsException
+ {
+  int offset;
+  if ((offset = offsetOf(index)) < 0)
+   throw new IndexOutOfBoundsException("index: " +
+              Integer.toString(index));
+  return skipName(offset);
+ }
+
+/**
+ * NOTE: Result is unsigned. IndexOutOfBoundsException is thrown
+ * only if there is no record at index.
+ **
+ * @since 3.1
+ */
+ public int getRType(int index)
+  throws IndexOutOfBoundsException
+ {
+  return getUShort(typeOffset(index));
+ }
+
+ public int getRClass(int index)
+  throws IndexOutOfBoundsException
+ {
+  return getUShort(typeOffset(index) + DNSRecord.RTYPE_LENGTH);
+ }
+
+/**
+ * NOTE: Result is 0 for a question.
+ **
+ * @since 3.1
+ */
+ public int getTTL(int index)
+  throws IndexOutOfBoundsException
+ {
+  int offset = typeOffset(index);
+  return isResource(index) ? this.msg.getInt(offset +
+   DNSRecord.RTYPE_LENGTH + DNSRecord.RCLASS_LENGTH) : 0;
+ }
+
+/**
+ * NOTE: Result is the offset of RData of the record at index (RData
+ * may contain compressed names). For a question, result is the
+ * offset of the next record.
+ **
+ * @since 3.1
+ */
+ public int getRDataOffset(int index)
+  throws IndexOutOfBoundsException
+ {
+  int offset = typeOffset(index);
+  return isResource(index) ? offset + RDATA_OFFSET :
+   offset + DNSRecord.RTYPE_LENGTH + DNSRecord.RCLASS_LENGTH;
+ }
+
+ public int getRDataLen(int index)
+  throws IndexOutOfBoundsException
+ {
+  int offset = typeOffset(index);
+  return isResource(index) ? getUShort(offset + RDATA_OFFSET -
+   DNSRecord.RDATA_LEN_LENGTH) : 0;
+ }
+
+/**
+ * NOTE: Result is the byte at offset of the message (unsigned).
+ **
+ * @since 3.1
+ */
+ public int getByteAt(int offset)
+  throws IndexOutOfBoundsException
+ {
+  return this.msg.get(offset) & JavaConsts.BYTE_MASK;
+ }
+
+/**
+ * NOTE: Result is the offset of the label (length byte) at offset,
+ * following compression pointers (only backward ones are allowed),
+ * or -1 if the name is malformed. A pointer may still lead back to
+ * an earlier label of the same name, so the callers walking the
+ * labels check the name length against MAX_NAME_LEN.
+ */
+ protected int label(int offset)
+ {
+  int len, limit = getMsgLen();
+  while (offset >= 0 && offset < limit)
+  {
+   if ((len = this.msg.get(offset) & JavaConsts.BYTE_MASK) <=
+       DNSName.MAX_LABEL_LEN)
+    return offset + len < limit ? offset : -1;
+   if (len < DNSName.COMPRESSED_NAME_TAG || offset + 1 >= limit ||
+       (len = ((len - DNSName.COMPRESSED_NAME_TAG) <<
+       JavaConsts.BYTE_SIZE) | (this.msg.get(offset + 1) &
+       JavaConsts.BYTE_MASK)) >= offset)
+    break;
+   offset = len;
+  }
+  return -1;
+ }
+
+/**
+ * NOTE: Result is the number of labels of the name at offset or -1
+ * if the name is malformed.
+ **
+ * @since 3.1
+ */
+ public int countLabelsAt(int offset)
+ {
+  int len, count = 0, size = 0;
+  do
+  {
+   if ((offset = label(offset)) < 0 || (size += (len =
+       this.msg.get(offset) & JavaConsts.BYTE_MASK) + 1) >
+       MAX_NAME_LEN)
+    return -1;
+   if (len == 0)
+    break;
+   offset += len + 1;
+   count++;
+  } while (true);
+  return count;
+ }
+
+/**
+ * NOTE: name must be != null. Letters case is ignored. Nothing is
+ * allocated.
+ **
+ * @since 3.1
+ */
+ public boolean nameEqualsAt(int offset, DNSName name)
+  throws NullPointerException
+ {
+  byte[] bytes = name.bytes;
+  int len, pos = 0, valueA, valueB;
+  do
+  {
+   if ((offset = label(offset)) < 0 || (len = this.msg.get(offset) &
+       JavaConsts.BYTE_MASK) != (bytes[pos] & JavaConsts.BYTE_MASK))
+    return false;
+   for (int index = 1; index <= len; index++)
+   {
+    if ((char)((valueA = this.msg.get(offset + index) &
+        JavaConsts.BYTE_MASK) - 'A') <= 'Z' - 'A')
+     valueA += 'a' - 'A';
+    if ((char)((valueB = bytes[pos + index] &
+        JavaConsts.BYTE_MASK) - 'A') <= 'Z' - 'A')
+     valueB += 'a' - 'A';
+    if (valueA != valueB)
+     return false;
+   }
+   offset += len + 1;
+   pos += len + 1;
+  } while (len > 0);
+  return true;
+ }
+
+/**
+ * NOTE: domain may be == null. Same as in
+ * <CODE>DNSName.isInDomain()</CODE> but nothing is allocated.
+ **
+ * @since 3.1
+ */
+ public boolean isInDomainAt(int offset, DNSName domain, boolean strict)
+ {
+  int level, domainLevel;
+  if (domain == null || (level = countLabelsAt(offset)) <
+      (domainLevel = DNSName.countLabels(domain.bytes, 0)) ||
+      strict && level == domainLevel)
+   return false;
+  while (level-- > domainLevel)
+   offset = (offset = label(offset)) + (this.msg.get(offset) &
+    JavaConsts.BYTE_MASK) + 1;
+  return nameEqualsAt(offset, domain);
+ }
+
+/**
+ * NOTE: Result is the (decompressed) name at offset. This is the
+ * only way a name is allocated. IllegalArgumentException is thrown
+ * if the name is malformed.
+ **
+ * @since 3.1
+ */
+ public DNSName getNameAt(int offset)
+  throws IllegalArgumentException
+ {
+  int len, size = 0, pos = offset;
+  do
+  {
+   if ((pos = label(pos)) < 0 || (size += (len = this.msg.get(pos) &
+       JavaConsts.BYTE_MASK) + 1) > MAX_NAME_LEN)
+    throw new IllegalArgumentException("Bad resource name");
+   pos += len + 1;
+  } while (len > 0);
+  byte[] bytes = new byte[size];
+  for (pos = 0; pos < size;)
+  {
+   len = (this.msg.get(offset = label(offset)) &
+    JavaConsts.BYTE_MASK) + 1;
+   do
+   {
+    bytes[pos++] = this.msg.get(offset++);
+   } while (--len > 0);
+  }
+  DNSName name = new DNSName(bytes, 0);
+  DNSNameTable names;
+  return (names = this.names) != null ? names.intern(name) : name;
+ }
+
+ public DNSName getName(int index)
+  throws IndexOutOfBoundsException, IllegalArgumentException
+ {
+  return getNameAt(offsetOfRecord(index));
+ }
+
+ public boolean nameEquals(int index, DNSName name)
+  throws NullPointerException, IndexOutOfBoundsException
+ {
+  return nameEqualsAt(offsetOfRecord(index), name);
+ }
+
+ public boolean isInDomain(int index, DNSName domain, boolean strict)
+  throws IndexOutOfBoundsException
+ {
+  return isInDomainAt(offsetOfRecord(index), domain, strict);
+ }
+
+ protected int offsetOfRecord(int index)
+  throws IndexOutOfBoundsException
+ {
+  int offset;
+  if ((offset = offsetOf(index)) < 0)
+   throw new IndexOutOfBoundsException("index: " +
+              Integer.toString(index));
+  return offset;
+ }
+
+/**
+ * NOTE: Result is the fully decoded record at index (same as
+ * returned by <CODE>DNSConnection.decode()</CODE>).
+ * IllegalArgumentException is thrown if the record is malformed.
+ **
+ * @since 3.1
+ */
+ public DNSRecord getRecord(int index)
+  throws IndexOutOfBoundsException, IllegalArgumentException
+ {
+  int[] ofsRef = new int[1];
+  ofsRef[0] = offsetOfRecord(index);
+  DNSRecord record =
+   new DNSRecord(getMsgBytes(), ofsRef, isResource(index));
+  DNSNameTable names;
+  return (names = this.names) != null ? record.intern(names) : record;
+ }
+
+/**
+ * NOTE: Result is the message as an array (from offset 0), the
+ * wrapped array itself if possible. Result must not be altered.
+ */
+ protected byte[] getMsgBytes()
+ {
+  byte[] msgBytes;
+  ByteBuffer msg = this.msg;
+  int len = getMsgLen();
+  if ((msgBytes = this.msgBytes) == null)
+  {
+   if (msg.hasArray() && msg.arrayOffset() == 0 &&
+       msg.array().length >= len)
+    msgBytes = msg.array();
+    else
+    {
+     msgBytes = new byte[len];
+     for (int offset = 0; offset < len; offset++)
+      msgBytes[offset] = msg.get(offset);
+    }
+   this.msgBytes = msgBytes;
+  }
+  return msgBytes;
+ }
+}
@@ -0,0 +1,592 @@
+/*
+ * @(#) src/net/sf/ivmaidns/dns/DNSMultiplexer.java --
+ * Class for multiplexed non-blocking DNS TCP transport.
+ **
+ * Copyright (c) 2026 TerraMaster contributors
+ * All rights reserved.
+ */
+
+/*
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ **
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License (GPL) for more details.
+ **
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ **
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module. An independent module is a module which is not derived from
+ * or based on this library. If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so. If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package net.sf.ivmaidns.dns;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Class for multiplexed non-blocking DNS TCP transport.
+ **
+ * A single thread serves any number of queries to any number of
+ * servers. There is one connection per server (opened on demand and
+ * closed after being unused for <CODE>IDLE_TIMEOUT</CODE>), the
+ * queries to the same server are pipelined over it and the responses
+ * are matched by the message id (a zone transfer may answer with id 0
+ * after its first message). If the id of a query is already in flight
+ * on the connection then the query is sent with another one (the
+ * response is given back with the original id). Each query has its
+ * own timeout. Unlike <CODE>DNSConnection</CODE>, this class is
+ * thread-safe.
+ **
+ * @see DNSConnection
+ * @see DNSResponseHandler
+ **
+ * @version 3.1
+ */
+public final class DNSMultiplexer
+ implements Runnable
+{
+
+/**
+ * NOTE: Time (in ms) an unused connection is kept open.
+ **
+ * @since 3.1
+ */
+ public static final int IDLE_TIMEOUT = 30000;
+
+/**
+ * NOTE: A submitted query. msgBytes contains the id the query is sent
+ * with, origId is the id given by the application.
+ **
+ * @since 3.1
+ */
+ protected static final class Query
+ {
+
+  protected InetSocketAddress address;
+
+  protected byte[] msgBytes;
+
+  protected int origId;
+
+  protected int timeout;
+
+  protected long deadline;
+
+  protected DNSResponseHandler handler;
+ }
+
+/**
+ * NOTE: A connection to one server with its queries in flight (id ->
+ * Query) and its unsent messages (ByteBuffer). lastId is the id of
+ * the last query expecting more messages (or -1). Accessed by the
+ * multiplexer thread only.
+ **
+ * @since 3.1
+ */
+ protected static final class Channel
+ {
+
+  protected InetSocketAddress address;
+
+  protected SocketChannel socket;
+
+  protected SelectionKey key;
+
+  protected final HashMap<Integer, Query> pending =
+   new HashMap<Integer, Query>();
+
+  protected final LinkedList<ByteBuffer> out =
+   new LinkedList<ByteBuffer>();
+
+  protected final ByteBuffer lenBuf = ByteBuffer.allocate(2);
+
+  protected ByteBuffer msgBuf;
+
+  protected int lastId = -1;
+
+  protected long idleSince;
+ }
+
+ protected final Selector selector;
+
+/**
+ * NOTE: The queries not yet taken by the multiplexer thread. closed
+ * and pendingCount are guarded by submitted too.
+ */
+ protected final LinkedList<Query> submitted =
+  new LinkedList<Query>();
+
+ protected boolean closed;
+
+ protected int pendingCount;
+
+/**
+ * NOTE: InetSocketAddress -> Channel. Accessed by the multiplexer
+ * thread only.
+ */
+ protected final HashMap<InetSocketAddress, Channel> channels =
+  new HashMap<InetSocketAddress, Channel>();
+
+ protected Thread thread;
+
+/**
+ * NOTE: The multiplexer does nothing until run() or start() is
+ * called.
+ **
+ * @since 3.1
+ */
+ public DNSMultiplexer()
+  throws IOException
+ {
+  this.selector = Selector.open();
+ }
+
+/**
+ * NOTE: Starts a daemon thread running this multiplexer (if not
+ * started yet).
+ **
+ * @since 3.1
+ */
+ public synchronized void start()
+ {
+  Thread thread;
+  if (this.thread == null)
+  {
+   (this.thread = thread =
+    new Thread(this, "DNSMultiplexer")).setDaemon(true);
+   thread.start();
+  }
+ }
+
+/**
+ * NOTE: server, msgBytes and handler must be != null. msgBytes must
+ * contain at least the message header, if msgBytes array is too
+ * large then it is truncated. msgBytes array is not changed anyway.
+ * timeout is in ms (if timeout <= 0 then there is no timeout). If
+ * this multiplexer is closed then handler is failed at once.
+ **
+ * @since 3.1
+ */
+ public void query(InetAddress server, byte[] msgBytes, int timeout,
+         DNSResponseHandler handler)
+  throws NullPointerException, IllegalArgumentException
+ {
+  int msgLen;
+  handler.hashCode();
+  if ((msgLen = msgBytes.length) < DNSMsgHeader.HEADER_LEN)
+   throw new IllegalArgumentException("msgLen: " +
+              Integer.toString(msgLen));
+  if (msgLen >= DNSConnection.MAX_MSG_LEN)
+   msgLen = DNSConnection.MAX_MSG_LEN;
+  Query query = new Query();
+  query.address = new InetSocketAddress(server, DNSConnection.PORT);
+  byte[] bytes = new byte[msgLen];
+  System.arraycopy(msgBytes, 0, bytes, 0, msgLen);
+  query.msgBytes = bytes;
+  query.origId = ((bytes[0] & 0xFF) << 8) | (bytes[1] & 0xFF);
+  query.timeout = timeout;
+  query.handler = handler;
+  synchronized (this.submitted)
+  {
+   if (!this.closed)
+   {
+    this.submitted.add(query);
+    this.pendingCount++;
+    query = null;
+   }
+  }
+  if (query != null)
+   handler.failed(server, new SocketException("Multiplexer closed"));
+   else this.selector.wakeup();
+ }
+
+/**
+ * NOTE: Result is the number of queries not completed yet.
+ **
+ * @since 3.1
+ */
+ public int getPendingCount()
+ {
+  synchronized (this.submitted)
+  {
+   return this.pendingCount;
+  }
+ }
+
+/**
+ * NOTE: Stops the multiplexer. The queries not completed yet are
+ * failed (by the multiplexer thread).
+ **
+ * @since 3.1
+ */
+ public void close()
+ {
+  synchronized (this.submitted)
+  {
+   this.closed = true;
+  }
+  this.selector.wakeup();
+ }
+
+/**
+ * NOTE: Serves the queries until close() is called.
+ **
+ * @since 3.1
+ */
+ public void run()
+ {
+  Selector selector = this.selector;
+  try
+  {
+   do
+   {
+    synchronized (this.submitted)
+    {
+     if (this.closed)
+      break;
+    }
+    long now = System.currentTimeMillis();
+    register(now);
+    selector.select(expire(now));
+    now = System.currentTimeMillis();
+    Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+    while (iter.hasNext())
+    {
+     SelectionKey key = iter.next();
+     iter.remove();
+     Channel channel = (Channel)key.attachment();
+     try
+     {
+      if (key.isConnectable() && channel.socket.finishConnect())
+       interest(channel);
+      if (key.isValid() && key.isReadable())
+       read(channel, now);
+      if (key.isValid() && key.isWritable())
+       write(channel);
+     }
+     catch (IOException e)
+     {
+      fail(channel, e);
+     }
+    }
+   } while (true);
+  }
+  catch (IOException e) {}
+  finally
+  {
+   IOException e = new SocketException("Multiplexer closed");
+   Object[] queries;
+   synchronized (this.submitted)
+   {
+    this.closed = true;
+    queries = this.submitted.toArray();
+    this.submitted.clear();
+   }
+   Iterator<Channel> iter =
+    new ArrayList<Channel>(this.channels.values()).iterator();
+   while (iter.hasNext())
+    fail(iter.next(), e);
+   for (int index = 0; index < queries.length; index++)
+    complete((Query)queries[index], e);
+   try
+   {
+    selector.close();
+   }
+   catch (IOException ex) {}
+  }
+ }
+
+/**
+ * NOTE: Takes the submitted queries, opens connections and queues
+ * the messages.
+ */
+ protected void register(long now)
+ {
+  Query query;
+  do
+  {
+   synchronized (this.submitted)
+   {
+    if (this.submitted.isEmpty())
+     break;
+    query = this.submitted.removeFirst();
+   }
+   Channel channel;
+   try
+   {
+    if ((channel = this.channels.get(query.address)) == null)
+     channel = connect(query.address);
+   }
+   catch (IOException e)
+   {
+    complete(query, e);
+    continue;
+   }
+   HashMap<Integer, Query> pending = channel.pending;
+   int id = query.origId;
+   if (pending.size() > 0xFFFF)
+   {
+    complete(query, new SocketException("Too many queries"));
+    continue;
+   }
+   while (pending.containsKey(Integer.valueOf(id)))
+    id = (id + 1) & 0xFFFF;
+   byte[] msgBytes = query.msgBytes;
+   msgBytes[0] = (byte)(id >> 8);
+   msgBytes[1] = (byte)id;
+   query.deadline = query.timeout > 0 ?
+    now + query.timeout : Long.MAX_VALUE;
+   pending.put(Integer.valueOf(id), query);
+   ByteBuffer buf = ByteBuffer.allocate(msgBytes.length + 2);
+   buf.putShort((short)msgBytes.length);
+   buf.put(msgBytes);
+   buf.flip();
+   channel.out.add(buf);
+   interest(channel);
+  } while (true);
+ }
+
+ protected Channel connect(InetSocketAddress address)
+  throws IOException
+ {
+  SocketChannel socket = SocketChannel.open();
+  try
+  {
+   socket.configureBlocking(false);
+   Channel channel = new Channel();
+   channel.address = address;
+   channel.socket = socket;
+   channel.key = socket.register(this.selector,
+    socket.connect(address) ? 0 : SelectionKey.OP_CONNECT, channel);
+   this.channels.put(address, channel);
+   return channel;
+  }
+  catch (SecurityException e)
+  {
+   socket.close();
+   throw new SocketException("SecurityException: connect(" +
+              address.getAddress().getHostAddress() + ")");
+  }
+  catch (IOException e)
+  {
+   socket.close();
+   throw e;
+  }
+ }
+
+ protected void interest(Channel channel)
+ {
+  if (!channel.socket.isConnectionPending())
+   channel.key.interestOps(channel.out.isEmpty() ? SelectionKey.OP_READ :
+    SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+ }
+
+ protected void write(Channel channel)
+  throws IOException
+ {
+  ByteBuffer buf;
+  LinkedList<ByteBuffer> out = channel.out;
+  while (!out.isEmpty())
+  {
+   channel.socket.write(buf = out.getFirst());
+   if (buf.hasRemaining())
+    break;
+   out.removeFirst();
+  }
+  interest(channel);
+ }
+
+ protected void read(Channel channel, long now)
+  throws IOException
+ {
+  ByteBuffer buf, lenBuf = channel.lenBuf;
+  do
+  {
+   if ((buf = channel.msgBuf) == null)
+    buf = lenBuf;
+   if (channel.socket.read(buf) < 0)
+    throw new EOFException();
+   if (buf.hasRemaining())
+    break;
+   if (buf == lenBuf)
+   {
+    channel.msgBuf = ByteBuffer.allocate(lenBuf.getShort(0) & 0xFFFF);
+    lenBuf.clear();
+   }
+    else
+    {
+     channel.msgBuf = null;
+     dispatch(channel, buf.array(), now);
+    }
+  } while (true);
+ }
+
+/**
+ * NOTE: Passes a received message to the handler of its query. Late
+ * responses (to timed out queries) are dropped.
+ */
+ protected void dispatch(Channel channel, byte[] msgBytes, long now)
+ {
+  if (msgBytes.length < 2)
+   return;
+  HashMap<Integer, Query> pending = channel.pending;
+  int id = ((msgBytes[0] & 0xFF) << 8) | (msgBytes[1] & 0xFF);
+  Query query;
+  if ((query = pending.get(Integer.valueOf(id))) == null &&
+      id == 0 && (id = channel.lastId) >= 0)
+   query = pending.get(Integer.valueOf(id));
+  if (query == null)
+   return;
+  msgBytes[0] = (byte)(query.origId >> 8);
+  msgBytes[1] = (byte)query.origId;
+  boolean more = false;
+  try
+  {
+   more = query.handler.received(channel.address.getAddress(),
+           msgBytes);
+  }
+  catch (RuntimeException e) {}
+  if (more)
+  {
+   channel.lastId = id;
+   if (query.timeout > 0)
+    query.deadline = now + query.timeout;
+  }
+   else
+   {
+    pending.remove(Integer.valueOf(id));
+    if (channel.lastId == id)
+     channel.lastId = -1;
+    if (pending.isEmpty())
+     channel.idleSince = now;
+    done();
+   }
+ }
+
+/**
+ * NOTE: Fails the timed out queries and closes the idle connections.
+ * Result is the time (in ms) to the next deadline (> 0).
+ */
+ protected long expire(long now)
+ {
+  long next = IDLE_TIMEOUT, left;
+  Iterator<Channel> iter =
+   new ArrayList<Channel>(this.channels.values()).iterator();
+  while (iter.hasNext())
+  {
+   Channel channel = iter.next();
+   HashMap<Integer, Query> pending;
+   if ((pending = channel.pending).isEmpty())
+   {
+    if ((left = channel.idleSince + IDLE_TIMEOUT - now) <= 0)
+    {
+     close(channel);
+     continue;
+    }
+   }
+    else
+    {
+     left = Long.MAX_VALUE;
+     Iterator<Map.Entry<Integer, Query>> queries =
+      pending.entrySet().iterator();
+     while (queries.hasNext())
+     {
+      Map.Entry<Integer, Query> entry = queries.next();
+      Query query = entry.getValue();
+      if (query.deadline <= now)
+      {
+       queries.remove();
+       if (channel.lastId == entry.getKey().intValue())
+        channel.lastId = -1;
+       complete(query,
+        new InterruptedIOException("DNS query timed out"));
+      }
+       else if (query.deadline - now < left)
+        left = query.deadline - now;
+     }
+     if (pending.isEmpty())
+     {
+      channel.idleSince = now;
+      left = IDLE_TIMEOUT;
+     }
+    }
+   if (left < next)
+    next = left;
+  }
+  return next > 0L ? next : 1L;
+ }
+
+/**
+ * NOTE: Closes the connection and fails all its queries.
+ */
+ protected void fail(Channel channel, IOException e)
+ {
+  close(channel);
+  Iterator<Query> iter = channel.pending.values().iterator();
+  while (iter.hasNext())
+   complete(iter.next(), e);
+  channel.pending.clear();
+ }
+
+ protected void close(Channel channel)
+ {
+  this.channels.remove(channel.address);
+  channel.key.cancel();
+  try
+  {
+   channel.socket.close();
+  }
+  catch (IOException e) {}
+ }
+
+ protected void complete(Query query, IOException e)
+ {
+  try
+  {
+   query.handler.failed(query.address.getAddress(), e);
+  }
+  catch (RuntimeException ex) {}
+  done();
+ }
+
+ protected void done()
+ {
+  synchronized (this.submitted)
+  {
+   this.pendingCount--;
+  }
+ }
+}
@@ -116,6 +116,17 @@ public final class DNSName
  */
  protected final byte[] bytes;
 
+/**
+ * NOTE: table is the names table holding this (interned) instance
+ * or null. parent is the interned parent domain (null for the root
+ * or if not interned).
+ **
+ * @since 3.1
+ */
+ protected transient DNSNameTable table;
+
+ protected transient DNSName parent;
+
 /**
  * NOTE: name must be != null, name may be == "", name may be
  * THIS_ZONE. domain may be == null.
@@ -178,6 +189,19 @@ public final class DNSName
   throw new IllegalArgumentException("Bad resource name");
  }
 
+/**
+ * NOTE: Constructor of an interned name (used by DNSNameTable only).
+ * bytes must be valid (they are shared).
+ **
+ * @since 3.1
+ */
+ DNSName(byte[] bytes, DNSName parent, DNSNameTable table)
+ {
+  this.bytes = bytes;
+  this.parent = parent;
+  this.table = table;
+ }
+
 /**
  * NOTE: bytes must be != null. Method for putting resource name to
  * byte array. No compression. Enough capacity must be provided (at
@@ -294,6 +318,15 @@ public final class DNSName
   {
    if (domain == null)
     return false;
+   DNSNameTable table;
+   if ((table = this.table) != null && domain.table == table)
+   {
+    DNSName name = this;
+    while ((name = name.parent) != null)
+     if (name == domain)
+      return true;
+    return false;
+   }
    byte[] bytes = this.bytes, domainBytes;
    int level;
    int domainLevel = countLabels(domainBytes = domain.bytes, 0);
@@ -325,6 +358,9 @@ public final class DNSName
  */
  public DNSName getDomain()
  {
+  DNSName parent;
+  if ((parent = this.parent) != null)
+   return parent;
   byte[] bytes = this.bytes;
   int offset;
   if ((offset = bytes[0] & JavaConsts.BYTE_MASK) > 0)
@@ -887,7 +923,11 @@ public final class DNSName
   try
   {
    if ((obj = super.clone()) instanceof DNSName && obj != this)
+   {
+    ((DNSName)obj).table = null;
+    ((DNSName)obj).parent = null;
     return obj;
+   }
   }
   catch (CloneNotSupportedException e) {}
   throw new InternalError("CloneNotSupportedException");
@@ -899,12 +939,15 @@ public final class DNSName
  }
 
 /**
- * NOTE: Letters case is ignored (according to RFC2065).
+ * NOTE: Letters case is ignored (according to RFC2065). Names of the
+ * same table are equal only if they are the same instance.
  */
  public boolean equals(Object obj)
  {
   byte[] bytes = this.bytes, nameBytes;
+  DNSNameTable table;
   return obj == this || obj instanceof DNSName &&
+   ((table = this.table) == null || ((DNSName)obj).table != table) &&
    (nameBytes = ((DNSName)obj).bytes).length == bytes.length &&
    compareNames(bytes, 0, nameBytes, 0) == 0;
  }
@@ -926,6 +969,8 @@ public final class DNSName
  public int compareTo(DNSName name)
   throws NullPointerException
  {
+  if (this == name)
+   return 0;
   return compareNames(this.bytes, 0, name.bytes, 0);
  }
 
@@ -0,0 +1,192 @@
+/*
+ * @(#) src/net/sf/ivmaidns/dns/DNSNameTable.java --
+ * Class for interned DNS names table.
+ **
+ * Copyright (c) 2026 TerraMaster contributors
+ * All rights reserved.
+ */
+
+/*
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ **
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License (GPL) for more details.
+ **
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ **
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module. An independent module is a module which is not derived from
+ * or based on this library. If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so. If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package net.sf.ivmaidns.dns;
+
+import net.sf.ivmaidns.util.JavaConsts;
+
+/**
+ * Class for interned DNS names table (hash-consing).
+ **
+ * <CODE>intern()</CODE> returns the single instance of a name held by
+ * the table (created on the first request). An interned name refers
+ * to its interned parent domain, so all the names of a zone share
+ * one chain of suffixes, and the interned instance shares the wire
+ * bytes of the name it was created from. For two names of the same
+ * table <CODE>equals()</CODE> is a reference comparison and
+ * <CODE>isInDomain()</CODE> only follows the parents chain. As with
+ * <CODE>equals()</CODE>, letters case is ignored (the first seen
+ * instance is kept). The table is split into segments (each with its
+ * own monitor), so it may be shared by many threads. Names are never
+ * removed, the table is meant to live as long as the records using
+ * its names (for example, a storage of retrieved zones).
+ **
+ * @see DNSName
+ **
+ * @version 3.1
+ */
+public final class DNSNameTable
+{
+
+ protected static final int SEGMENT_BITS = 4;
+
+ protected static final int INITIAL_CAPACITY = 16;
+
+/**
+ * NOTE: segments length is (1 << SEGMENT_BITS).
+ */
+ protected final Segment[] segments;
+
+ public DNSNameTable()
+ {
+  int index;
+  Segment[] segments = new Segment[index = 1 << SEGMENT_BITS];
+  while (index-- > 0)
+   segments[index] = new Segment();
+  this.segments = segments;
+ }
+
+/**
+ * NOTE: name must be != null. Result is the instance of name held
+ * by this table (equal to name ignoring letters case). Result !=
+ * null.
+ **
+ * @since 3.1
+ */
+ public DNSName intern(DNSName name)
+  throws NullPointerException
+ {
+  if (name.table == this)
+   return name;
+  byte[] bytes = name.bytes;
+  int hash = DNSName.hashCode(bytes, 0) * JavaConsts.GOLD_MEDIAN;
+  Segment segment = this.segments[hash >>> (JavaConsts.INT_SIZE -
+   SEGMENT_BITS)];
+  DNSName interned;
+  synchronized (segment)
+  {
+   if ((interned = segment.find(bytes, hash)) != null)
+    return interned;
+  }
+  DNSName parent = null;
+  if (bytes[0] != 0)
+   parent = intern(name.getDomain());
+  interned = new DNSName(bytes, parent, this);
+  synchronized (segment)
+  {
+   DNSName other;
+   if ((other = segment.find(bytes, hash)) != null)
+    return other;
+   segment.add(interned, hash);
+  }
+  return interned;
+ }
+
+/**
+ * NOTE: Result is the number of interned names.
+ */
+ public int size()
+ {
+  Segment[] segments = this.segments;
+  Segment segment;
+  int size = 0;
+  for (int index = segments.length; index-- > 0;)
+   synchronized (segment = segments[index])
+   {
+    size += segment.size;
+   }
+  return size;
+ }
+
+/**
+ * Class for a segment of the table (an open addressing hash set).
+ */
+ protected static final class Segment
+ {
+
+  protected DNSName[] names = new DNSName[INITIAL_CAPACITY];
+
+  protected int size;
+
+  protected Segment() {}
+
+/**
+ * NOTE: Must be synchronized outside.
+ */
+  protected DNSName find(byte[] bytes, int hash)
+  {
+   DNSName[] names = this.names;
+   DNSName name;
+   int mask = names.length - 1, index = hash & mask;
+   while ((name = names[index]) != null)
+   {
+    byte[] nameBytes;
+    if ((nameBytes = name.bytes).length == bytes.length &&
+        DNSName.compareNames(nameBytes, 0, bytes, 0) == 0)
+     return name;
+    index = (index + 1) & mask;
+   }
+   return null;
+  }
+
+/**
+ * NOTE: name must not be here yet. Must be synchronized outside.
+ */
+  protected void add(DNSName name, int hash)
+  {
+   DNSName[] names = this.names;
+   if (++this.size * 4 > names.length * 3)
+   {
+    DNSName[] oldNames = names;
+    names = this.names = new DNSName[oldNames.length << 1];
+    for (int index = oldNames.length; index-- > 0;)
+     if (oldNames[index] != null)
+      put(names, oldNames[index], DNSName.hashCode(
+       oldNames[index].bytes, 0) * JavaConsts.GOLD_MEDIAN);
+   }
+   put(names, name, hash);
+  }
+
+  protected static void put(DNSName[] names, DNSName name, int hash)
+  {
+   int mask = names.length - 1, index = hash & mask;
+   while (names[index] != null)
+    index = (index + 1) & mask;
+   names[index] = name;
+  }
+ }
+}
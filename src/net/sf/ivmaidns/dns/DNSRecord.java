@@ -1242,6 +1242,18 @@ public final class DNSRecord
   this.rDataBytes = record.rDataBytes;
  }
 
+/**
+ * NOTE: Constructor for changing rName (to an equal one).
+ */
+ private DNSRecord(DNSName rName, DNSRecord record)
+ {
+  this.rName = rName;
+  this.rType = record.rType;
+  this.rClass = record.rClass;
+  this.ttl = record.ttl;
+  this.rDataBytes = record.rDataBytes;
+ }
+
 /**
  * NOTE: Record constructor from msgBytes array (decompression
  * supported). msgBytes must be != null, ofsRef must be != null and
@@ -1348,6 +1360,21 @@ public final class DNSRecord
    TTL_LENGTH + RDATA_LEN_LENGTH) + this.rDataBytes.length;
  }
 
+/**
+ * NOTE: table must be != null. Result is this record if its rName
+ * is held by table, else the same record with the rName interned in
+ * table (rDataBytes are shared).
+ **
+ * @since 3.1
+ */
+ public DNSRecord intern(DNSNameTable table)
+  throws NullPointerException
+ {
+  DNSName rName;
+  return (rName = table.intern(this.rName)) != this.rName ?
+   new DNSRecord(rName, this) : this;
+ }
+
 /**
  * NOTE: Result != null.
  */
@@ -0,0 +1,598 @@
+/*
+ * @(#) src/net/sf/ivmaidns/dns/DNSRecordFile.java --
+ * Class for binary DNS records file.
+ **
+ * Copyright (c) 2026 TerraMaster contributors
+ * All rights reserved.
+ */
+
+/*
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ **
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License (GPL) for more details.
+ **
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ **
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module. An independent module is a module which is not derived from
+ * or based on this library. If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so. If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package net.sf.ivmaidns.dns;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.file.StandardOpenOption;
+
+import net.sf.ivmaidns.util.GComparator;
+
+/**
+ * Class for binary DNS records file (with a sorted index).
+ **
+ * The records are appended to the data file in their wire form (not
+ * compressed, each one prefixed with its length), so a long retrieval
+ * may be written as it goes. checkpoint() flushes the appended
+ * records and updates the index file (named as the data file plus
+ * INDEX_SUFFIX): the offsets of all the distinct records in their
+ * sorted order. Only the records appended since the last checkpoint
+ * are sorted, they are merged into the indexed ones (found by a
+ * binary search), so a checkpoint of a long retrieval neither decodes
+ * nor holds the whole file. The data file is memory-mapped for
+ * reading, the index is read through a small block buffer (it is not
+ * mapped, so it may be replaced while open), so a reopened file is
+ * listed (or compared with another one) by a binary search in the
+ * index and without parsing anything but the records actually read.
+ * A record which was not written completely (the program was killed)
+ * is cut off on open(), the index is brought up to date if it does
+ * not cover the whole data file. openReadOnly() changes nothing, it
+ * sees the records indexed by the last checkpoint (so a file may be
+ * listed while it is being appended to by another process).
+ **
+ * @see DNSRecord
+ **
+ * @version 3.1
+ */
+public final class DNSRecordFile
+{
+
+ public static final String INDEX_SUFFIX = ".idx";
+
+/**
+ * NOTE: The first ints of the data file ("DNSR") and of the index
+ * file ("DNSI").
+ */
+ protected static final int MAGIC = 0x444E5352;
+
+ protected static final int INDEX_MAGIC = 0x444E5349;
+
+ protected static final int VERSION = 1;
+
+ protected static final int HEADER_LEN = 8;
+
+/**
+ * NOTE: The index header is INDEX_MAGIC, VERSION, covered data
+ * length (long) and records count.
+ */
+ protected static final int INDEX_HEADER_LEN = 20;
+
+ protected static final int COUNT_OFFSET = 16;
+
+ protected static final int BLOCK_LEN = 4096;
+
+ protected final File file;
+
+ protected final File indexFile;
+
+/**
+ * NOTE: out is null unless open for writing.
+ */
+ protected DataOutputStream out;
+
+/**
+ * NOTE: end is the data length (including the appended records not
+ * flushed yet).
+ */
+ protected long end;
+
+/**
+ * NOTE: data is the mapped data file (up to the last checkpoint), it
+ * is null unless open.
+ */
+ protected MappedByteBuffer data;
+
+/**
+ * NOTE: index is the open index file (or null if there is no valid
+ * one), size is the number of offsets in it.
+ */
+ protected FileChannel index;
+
+ protected int size;
+
+/**
+ * NOTE: block holds the index bytes from blockPos (-1 if none).
+ */
+ protected final ByteBuffer block = ByteBuffer.allocate(BLOCK_LEN);
+
+ protected long blockPos = -1L;
+
+ protected int appended;
+
+/**
+ * NOTE: fileName must be != null. The file is not opened.
+ */
+ public DNSRecordFile(String fileName)
+  throws NullPointerException
+ {
+  this.file = new File(fileName);
+  this.indexFile = new File(fileName + INDEX_SUFFIX);
+ }
+
+/**
+ * NOTE: The data file is created if not exists. The records after
+ * the indexed ones are indexed.
+ **
+ * @since 3.1
+ */
+ public synchronized void open()
+  throws IOException
+ {
+  if (this.out != null)
+   return;
+  close();
+  RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+  try
+  {
+   long end;
+   if ((end = raf.length()) < HEADER_LEN)
+   {
+    raf.setLength(0L);
+    raf.writeInt(MAGIC);
+    raf.writeInt(VERSION);
+    end = HEADER_LEN;
+   }
+    else if (raf.readInt() != MAGIC || raf.readInt() != VERSION)
+     throw new IOException("Not a DNS records file: " +
+                this.file.getPath());
+   long indexed = readIndexedLength();
+   long offset = indexed >= HEADER_LEN && indexed <= end ?
+    indexed : HEADER_LEN;
+   while (offset + 2L <= end)
+   {
+    raf.seek(offset);
+    int len = raf.readUnsignedShort();
+    if (offset + 2L + len > end)
+     break;
+    offset += 2L + len;
+   }
+   if (offset < end)
+    raf.setLength(end = offset);
+   this.end = end;
+   this.appended = 0;
+   this.out = new DataOutputStream(new BufferedOutputStream(
+    new FileOutputStream(this.file.getPath(), true)));
+   if (indexed > end)
+    indexed = -1L;
+   openIndex(indexed);
+   if (indexed != end)
+    checkpoint();
+    else map(end);
+  }
+  finally
+  {
+   raf.close();
+  }
+ }
+
+/**
+ * NOTE: The file is opened for reading only: nothing is written,
+ * the records after the indexed ones are not seen. IOException is
+ * thrown if the file (or its index) is missing or bad.
+ **
+ * @since 3.1
+ */
+ public synchronized void openReadOnly()
+  throws IOException
+ {
+  close();
+  long indexed;
+  if ((indexed = readIndexedLength()) < 0L)
+   throw new IOException("No index of DNS records file: " +
+              this.file.getPath());
+  RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+  try
+  {
+   if (raf.length() < indexed || raf.readInt() != MAGIC ||
+       raf.readInt() != VERSION)
+    throw new IOException("Not a DNS records file: " +
+               this.file.getPath());
+  }
+  finally
+  {
+   raf.close();
+  }
+  openIndex(indexed);
+  map(indexed);
+ }
+
+ public final boolean isOpen()
+ {
+  return this.data != null;
+ }
+
+/**
+ * NOTE: record must be != null. The file must be open for writing.
+ * The record is appended (it is indexed at the next checkpoint).
+ **
+ * @since 3.1
+ */
+ public synchronized void append(DNSRecord record)
+  throws NullPointerException, IOException
+ {
+  DataOutputStream out;
+  if ((out = this.out) == null)
+   throw new IOException("DNS records file is not open for writing");
+  byte[] bytes = new byte[record.getTotalLen()];
+  int len = record.putTo(bytes, 0, true, bytes.length);
+  out.writeShort(len);
+  out.write(bytes, 0, len);
+  this.end += len + 2;
+  this.appended++;
+ }
+
+/**
+ * NOTE: Result is the number of records appended since the last
+ * checkpoint.
+ */
+ public synchronized int getAppended()
+ {
+  return this.appended;
+ }
+
+/**
+ * NOTE: The file must be open for writing. The appended records are
+ * written, sorted and merged into the index (it is replaced only
+ * when complete).
+ **
+ * @since 3.1
+ */
+ public synchronized void checkpoint()
+  throws IOException
+ {
+  DataOutputStream out;
+  if ((out = this.out) == null)
+   throw new IOException("DNS records file is not open for writing");
+  out.flush();
+  long indexed = this.index != null ? readIndexedLength() : -1L;
+  if (indexed < HEADER_LEN)
+   indexed = HEADER_LEN;
+  map(this.end);
+  MappedByteBuffer data = this.data;
+  int count = 0, offset = (int)indexed, limit = data.limit();
+  while (offset < limit)
+  {
+   offset += (data.getShort(offset) & 0xFFFF) + 2;
+   count++;
+  }
+  DNSRecord[] records = new DNSRecord[count];
+  int[] recordOffsets = new int[count];
+  for (count = 0, offset = (int)indexed; offset < limit; count++)
+  {
+   records[count] = readAt(recordOffsets[count] = offset);
+   offset += (data.getShort(offset) & 0xFFFF) + 2;
+  }
+  sort(records, recordOffsets, (DNSRecord[])records.clone(),
+   (int[])recordOffsets.clone(), 0, count);
+  File tmpFile = new File(this.indexFile.getPath() + ".tmp");
+  DataOutputStream indexOut = new DataOutputStream(
+   new BufferedOutputStream(new FileOutputStream(tmpFile)));
+  int size = 0;
+  try
+  {
+   indexOut.writeInt(INDEX_MAGIC);
+   indexOut.writeInt(VERSION);
+   indexOut.writeLong(limit);
+   indexOut.writeInt(0);
+   GComparator comparator = GComparator.INSTANCE;
+   int oldSize = this.size, pos = 0, low, high, middle;
+   DNSRecord prevRecord = null, record;
+   for (int index = 0; index < count; index++)
+   {
+    if ((record = records[index]).equals(prevRecord))
+     continue;
+    prevRecord = record;
+    for (low = pos, high = oldSize; low < high;)
+     if (comparator.greater(record,
+         readAt(offsetAt(middle = (low + high) >>> 1))))
+      low = middle + 1;
+      else high = middle;
+    for (; pos < low; pos++, size++)
+     indexOut.writeInt(offsetAt(pos));
+    if (pos < oldSize && record.equals(readAt(offsetAt(pos))))
+     continue;
+    indexOut.writeInt(recordOffsets[index]);
+    size++;
+   }
+   for (; pos < oldSize; pos++, size++)
+    indexOut.writeInt(offsetAt(pos));
+  }
+  finally
+  {
+   indexOut.close();
+  }
+  RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+  try
+  {
+   raf.seek(COUNT_OFFSET);
+   raf.writeInt(size);
+  }
+  finally
+  {
+   raf.close();
+  }
+  closeIndex();
+  if (!tmpFile.renameTo(this.indexFile) &&
+      (!this.indexFile.delete() || !tmpFile.renameTo(this.indexFile)))
+   throw new IOException("Cannot write: " + this.indexFile.getPath());
+  this.appended = 0;
+  openIndex(limit);
+ }
+
+/**
+ * NOTE: Sorts records (and offsets along) from from (inclusive) to
+ * to (exclusive), stable. tmpRecords and tmpOffsets must be copies
+ * of records and offsets.
+ */
+ protected static void sort(DNSRecord[] records, int[] offsets,
+         DNSRecord[] tmpRecords, int[] tmpOffsets, int from, int to)
+ {
+  if (to - from < 2)
+   return;
+  int middle = (from + to) >>> 1;
+  sort(tmpRecords, tmpOffsets, records, offsets, from, middle);
+  sort(tmpRecords, tmpOffsets, records, offsets, middle, to);
+  GComparator comparator = GComparator.INSTANCE;
+  for (int index = from, left = from, right = middle; index < to;
+       index++)
+   if (right >= to || left < middle &&
+       !comparator.greater(tmpRecords[left], tmpRecords[right]))
+   {
+    records[index] = tmpRecords[left];
+    offsets[index] = tmpOffsets[left++];
+   }
+    else
+    {
+     records[index] = tmpRecords[right];
+     offsets[index] = tmpOffsets[right++];
+    }
+ }
+
+/**
+ * NOTE: Result is the number of the (distinct) indexed records.
+ */
+ public synchronized int size()
+ {
+  return this.size;
+ }
+
+/**
+ * NOTE: Result is the indexed record at index (in the sorted order).
+ **
+ * @since 3.1
+ */
+ public synchronized DNSRecord getAt(int index)
+  throws IndexOutOfBoundsException, IOException
+ {
+  if (this.data == null)
+   throw new IOException("DNS records file is closed");
+  if (index < 0 || index >= this.size)
+   throw new IndexOutOfBoundsException("index: " +
+              Integer.toString(index));
+  return readAt(offsetAt(index));
+ }
+
+/**
+ * NOTE: domain must be != null. Result is the index of the first
+ * record (of IN class) of domain or its subdomains, or the index of
+ * the next record (maybe size()) if there is none.
+ **
+ * @since 3.1
+ */
+ public synchronized int findFirst(DNSName domain)
+  throws NullPointerException, IOException
+ {
+  DNSRecord first = new DNSRecord(domain, DNSRecord.SOA, DNSRecord.IN);
+  GComparator comparator = GComparator.INSTANCE;
+  int low = 0, high = size(), middle;
+  while (low < high)
+   if (comparator.greater(first, getAt(middle = (low + high) >>> 1)))
+    low = middle + 1;
+    else high = middle;
+  return low;
+ }
+
+/**
+ * NOTE: The appended records are indexed and the file is closed.
+ **
+ * @since 3.1
+ */
+ public synchronized void close()
+  throws IOException
+ {
+  try
+  {
+   if (this.out != null)
+    try
+    {
+     if (this.appended > 0)
+      checkpoint();
+    }
+    finally
+    {
+     this.out.close();
+     this.out = null;
+    }
+  }
+  finally
+  {
+   this.data = null;
+   closeIndex();
+  }
+ }
+
+ protected DNSRecord readAt(int offset)
+  throws IOException
+ {
+  MappedByteBuffer data = this.data;
+  byte[] bytes = new byte[data.getShort(offset) & 0xFFFF];
+  ByteBuffer buffer = data.duplicate();
+  buffer.position(offset + 2);
+  buffer.get(bytes);
+  int[] ofsRef = new int[1];
+  try
+  {
+   return new DNSRecord(bytes, ofsRef, true);
+  }
+  catch (IllegalArgumentException e)
+  {
+   throw new IOException("Bad record in: " + this.file.getPath());
+  }
+ }
+
+/**
+ * NOTE: Result is the data offset at index of the index file (which
+ * must be open). The index bytes are read a block at a time.
+ */
+ protected int offsetAt(int index)
+  throws IOException
+ {
+  long pos = INDEX_HEADER_LEN + index * 4L;
+  ByteBuffer block = this.block;
+  long blockPos;
+  if ((blockPos = this.blockPos) < 0L || pos < blockPos ||
+      pos + 4L > blockPos + block.limit())
+  {
+   block.clear();
+   this.blockPos = -1L;
+   FileChannel channel = this.index;
+   while (block.hasRemaining() &&
+          channel.read(block, pos + block.position()) > 0);
+   block.flip();
+   if (block.limit() < 4)
+    throw new IOException("Truncated index of: " +
+               this.file.getPath());
+   this.blockPos = blockPos = pos;
+  }
+  return block.getInt((int)(pos - blockPos));
+ }
+
+/**
+ * NOTE: Maps the data file up to end.
+ */
+ protected void map(long end)
+  throws IOException
+ {
+  if (end > Integer.MAX_VALUE)
+   throw new IOException("DNS records file too large: " +
+              this.file.getPath());
+  RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+  try
+  {
+   this.data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+    0L, end);
+  }
+  finally
+  {
+   raf.close();
+  }
+ }
+
+/**
+ * NOTE: Opens the index file if it covers indexed bytes of data,
+ * else there is no index. The channel allows the file to be replaced
+ * (or deleted) while it is open.
+ */
+ protected void openIndex(long indexed)
+  throws IOException
+ {
+  closeIndex();
+  if (indexed < HEADER_LEN || readIndexedLength() != indexed)
+   return;
+  FileChannel channel = FileChannel.open(this.indexFile.toPath(),
+   StandardOpenOption.READ);
+  ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_LEN);
+  while (header.hasRemaining() &&
+         channel.read(header, header.position()) > 0);
+  if (header.hasRemaining())
+  {
+   channel.close();
+   return;
+  }
+  this.size = header.getInt(COUNT_OFFSET);
+  this.index = channel;
+ }
+
+ protected void closeIndex()
+  throws IOException
+ {
+  FileChannel channel = this.index;
+  this.index = null;
+  this.size = 0;
+  this.blockPos = -1L;
+  if (channel != null)
+   channel.close();
+ }
+
+/**
+ * NOTE: Result is the data length covered by the index file or -1 if
+ * the index file is missing or bad.
+ */
+ protected long readIndexedLength()
+ {
+  try
+  {
+   RandomAccessFile raf = new RandomAccessFile(this.indexFile, "r");
+   try
+   {
+    long len;
+    if (raf.length() >= INDEX_HEADER_LEN &&
+        raf.readInt() == INDEX_MAGIC && raf.readInt() == VERSION &&
+        (len = raf.readLong()) >= HEADER_LEN &&
+        raf.length() >= INDEX_HEADER_LEN + raf.readInt() * 4L)
+     return len;
+   }
+   finally
+   {
+    raf.close();
+   }
+  }
+  catch (IOException e) {}
+  return -1L;
+ }
+}
@@ -0,0 +1,76 @@
+/*
+ * @(#) src/net/sf/ivmaidns/dns/DNSResponseHandler.java --
+ * Interface for receivers of multiplexed DNS responses.
+ **
+ * Copyright (c) 2026 TerraMaster contributors
+ * All rights reserved.
+ */
+
+/*
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ **
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License (GPL) for more details.
+ **
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ **
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module. An independent module is a module which is not derived from
+ * or based on this library. If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so. If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package net.sf.ivmaidns.dns;
+
+import java.io.IOException;
+
+import java.net.InetAddress;
+
+/**
+ * Interface for receivers of DNS responses delivered by
+ * <CODE>DNSMultiplexer</CODE>.
+ **
+ * Both methods are called from the multiplexer thread, so they
+ * should return quickly (the other queries are served by the same
+ * thread). Exactly one of <CODE>failed</CODE> or the last
+ * <CODE>received</CODE> (which returns <CODE>false</CODE>) is called
+ * for a query.
+ **
+ * @see DNSMultiplexer
+ **
+ * @version 3.1
+ */
+public interface DNSResponseHandler
+{
+
+/**
+ * NOTE: msgBytes != null (its id is the same as of the query). Result
+ * is true if more messages are expected for the same query (as for a
+ * zone transfer), then the query timeout is restarted.
+ **
+ * @since 3.1
+ */
+ public abstract boolean received(InetAddress server, byte[] msgBytes);
+
+/**
+ * NOTE: e != null. InterruptedIOException means the query timed out.
+ **
+ * @since 3.1
+ */
+ public abstract void failed(InetAddress server, IOException e);
+}
@@ -0,0 +1,81 @@
+/*
+ * @(#) src/net/sf/ivmaidns/dns/DNSTransferConsumer.java --
+ * Interface for receivers of zone transfer records.
+ **
+ * Copyright (c) 2026 TerraMaster contributors
+ * All rights reserved.
+ */
+
+/*
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ **
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License (GPL) for more details.
+ **
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ **
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module. An independent module is a module which is not derived from
+ * or based on this library. If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so. If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package net.sf.ivmaidns.dns;
+
+/**
+ * Interface for receivers of zone transfer records.
+ **
+ * The records are passed by <CODE>DNSZoneTransfer</CODE> one by one,
+ * as each message is received, directly from the message view (so a
+ * record which is not of interest is skipped without being decoded).
+ * The consumer is called by the receiving thread and the next message
+ * is not read until it returns, so a slow consumer slows down the
+ * transfer (through TCP flow control) instead of making it buffer
+ * the zone.
+ **
+ * @see DNSZoneTransfer
+ * @see DNSMsgView
+ **
+ * @version 3.1
+ */
+public interface DNSTransferConsumer
+{
+
+/**
+ * NOTE: The record belongs to the zone (a full zone transfer) or is
+ * added by the increment.
+ */
+ public static final int ADDED = 1;
+
+/**
+ * NOTE: The record is deleted by the increment.
+ */
+ public static final int DELETED = 2;
+
+/**
+ * NOTE: view != null, index is the record index in view, change is
+ * ADDED or DELETED. view is valid only during this call. For an
+ * incremental transfer, each sequence of deleted (added) records
+ * starts with the SOA record of the old (new) version of the zone,
+ * as in RFC1995. Result is false to stop the transfer.
+ **
+ * @since 3.1
+ */
+ public abstract boolean record(DNSMsgView view, int index,
+         int change);
+}
@@ -0,0 +1,342 @@
+/*
+ * @(#) src/net/sf/ivmaidns/dns/DNSZoneTransfer.java --
+ * Class for streaming DNS zone transfers.
+ **
+ * Copyright (c) 2026 TerraMaster contributors
+ * All rights reserved.
+ */
+
+/*
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ **
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License (GPL) for more details.
+ **
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ **
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module. An independent module is a module which is not derived from
+ * or based on this library. If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so. If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package net.sf.ivmaidns.dns;
+
+import java.io.IOException;
+
+/**
+ * Class for streaming DNS zone transfers (AXFR and IXFR).
+ **
+ * The records are handed to a <CODE>DNSTransferConsumer</CODE> as each
+ * message is received, so the zone is never held in memory here:
+ * messages are read one at a time into the same buffer and viewed in
+ * place (see <CODE>DNSMsgView</CODE>). An incremental transfer
+ * (RFC1995) passes the deleted and added records of each version
+ * step; if the server answers with the whole zone instead, the
+ * records are passed as for a full transfer (see isIncremental()).
+ **
+ * @see DNSTransferConsumer
+ * @see DNSConnection
+ **
+ * @version 3.1
+ */
+public final class DNSZoneTransfer
+{
+
+/**
+ * NOTE: transfer() result if the consumer has stopped it.
+ */
+ public static final int STOPPED = -1;
+
+/**
+ * NOTE: transfer() result if a bad message is received.
+ */
+ public static final int BAD_MESSAGE = -2;
+
+/**
+ * NOTE: transfer() result if the first answer record is not the SOA
+ * record of the zone.
+ */
+ public static final int NOT_AUTHORITATIVE = -3;
+
+/**
+ * NOTE: transfer() result if the first message has no answer
+ * records.
+ */
+ public static final int NO_ANSWER = -4;
+
+ protected static final int START = 0;
+
+ protected static final int FIRST = 1;
+
+ protected static final int FULL = 2;
+
+ protected static final int DELETING = 3;
+
+ protected static final int ADDING = 4;
+
+/**
+ * NOTE: connection must be open (when used).
+ */
+ protected final DNSConnection connection;
+
+ protected final byte[] buffer = new byte[DNSConnection.MAX_MSG_LEN];
+
+ protected final DNSMsgView view = new DNSMsgView();
+
+/**
+ * NOTE: soaView views a message holding only soa (see viewSOA()).
+ */
+ protected final DNSMsgView soaView = new DNSMsgView();
+
+/**
+ * NOTE: soa is the first SOA record of the last transfer (or null).
+ */
+ protected DNSRecord soa;
+
+ protected boolean incremental;
+
+ protected int msgCount;
+
+ protected int bytesCount;
+
+ protected int recordsCount;
+
+/**
+ * NOTE: connection must be != null. The connection is opened and
+ * closed by the caller.
+ **
+ * @since 3.1
+ */
+ public DNSZoneTransfer(DNSConnection connection)
+  throws NullPointerException
+ {
+  connection.hashCode();
+  this.connection = connection;
+ }
+
+/**
+ * NOTE: zone and consumer must be != null. The whole zone is
+ * transferred. Result is the server rCode (NOERROR if the transfer
+ * is complete) or STOPPED, BAD_MESSAGE, NOT_AUTHORITATIVE,
+ * NO_ANSWER. If IOException is thrown then the transfer is
+ * incomplete (EOFException if the connection is terminated by
+ * server). Must be synchronized outside.
+ **
+ * @since 3.1
+ */
+ public int transfer(DNSName zone, DNSTransferConsumer consumer)
+  throws NullPointerException, IOException
+ {
+  return transfer(zone, DNSRecord.AXFR, 0, consumer);
+ }
+
+/**
+ * NOTE: zone and consumer must be != null. The changes since serial
+ * version of the zone are transferred (if the zone is up to date then
+ * the consumer is not called at all). The zone is taken as up to
+ * date only if the first SOA is not newer than serial (RFC1982
+ * arithmetic), else the transfer goes on in the next messages. Same
+ * as transfer() otherwise.
+ **
+ * @since 3.1
+ */
+ public int transferIncrement(DNSName zone, int serial,
+         DNSTransferConsumer consumer)
+  throws NullPointerException, IOException
+ {
+  return transfer(zone, DNSRecord.IXFR, serial, consumer);
+ }
+
+ protected int transfer(DNSName zone, int qType, int serial,
+         DNSTransferConsumer consumer)
+  throws NullPointerException, IOException
+ {
+  consumer.hashCode();
+  DNSRecord[] records = new DNSRecord[qType == DNSRecord.IXFR ? 2 : 1];
+  records[0] = new DNSRecord(zone, qType, DNSRecord.IN);
+  if (qType == DNSRecord.IXFR)
+  {
+   Object[] rData = new Object[DNSRecord.SOA_MINTTL_INDEX + 1];
+   rData[DNSRecord.SOA_HOST_INDEX] = DNSName.ROOT;
+   rData[DNSRecord.SOA_EMAIL_INDEX] = DNSName.ROOT;
+   rData[DNSRecord.SOA_SERIAL_INDEX] = new Integer(serial);
+   rData[DNSRecord.SOA_REFRESH_INDEX] = new Integer(0);
+   rData[DNSRecord.SOA_RETRY_INDEX] = new Integer(0);
+   rData[DNSRecord.SOA_EXPIRE_INDEX] = new Integer(0);
+   rData[DNSRecord.SOA_MINTTL_INDEX] = new Integer(0);
+   records[1] = new DNSRecord(zone, DNSRecord.SOA, DNSRecord.IN, 0,
+    rData);
+  }
+  DNSMsgHeader qHeader = DNSMsgHeader.construct(DNSMsgHeader.QUERY,
+   false, 1, 0, records.length - 1, 0, false);
+  this.soa = null;
+  this.incremental = false;
+  this.msgCount = this.bytesCount = this.recordsCount = 0;
+  this.connection.send(DNSConnection.encode(qHeader, records));
+  DNSMsgView view = this.view;
+  int state = START, change = DNSTransferConsumer.ADDED;
+  int id = qHeader.getId(), lastSerial = 0, rCode, index, end;
+  do
+  {
+   byte[] buffer;
+   int len = this.connection.receive(buffer = this.buffer);
+   this.msgCount++;
+   this.bytesCount += len;
+   if (len > buffer.length)
+    return BAD_MESSAGE;
+   view.wrap(buffer, len);
+   if (!view.hasHeader() || !view.isResponse() ||
+       view.getId() != id && view.getId() != 0)
+    return BAD_MESSAGE;
+   if ((rCode = view.getRCode()) != DNSMsgHeader.NOERROR)
+    return rCode;
+   if ((end = view.getRecordCount()) < view.getTotalCount() ||
+       (index = view.getQdCount()) > (end = index + view.getAnCount()))
+    return BAD_MESSAGE;
+   if (state == START && index >= end)
+    return NO_ANSWER;
+   for (; index < end; index++)
+   {
+    boolean isSOA = view.getRType(index) == DNSRecord.SOA;
+    switch (state)
+    {
+    case START:
+     if (!isSOA || view.getRClass(index) != DNSRecord.IN ||
+         !view.nameEquals(index, zone))
+      return NOT_AUTHORITATIVE;
+     this.soa = view.getRecord(index);
+     if (qType == DNSRecord.IXFR)
+     {
+      state = FIRST;
+      continue;
+     }
+     state = FULL;
+     break;
+    case FIRST:
+     if (isSOA)
+     {
+      this.incremental = true;
+      state = DELETING;
+      change = DNSTransferConsumer.DELETED;
+      break;
+     }
+     state = FULL;
+     this.recordsCount++;
+     if (!consumer.record(viewSOA(), 0, change))
+      return STOPPED;
+     break;
+    case FULL:
+     if (isSOA)
+      return DNSMsgHeader.NOERROR;
+     break;
+    case DELETING:
+     if (isSOA)
+     {
+      lastSerial = serialOf(view.getRecord(index));
+      state = ADDING;
+      change = DNSTransferConsumer.ADDED;
+     }
+     break;
+    default:
+     if (isSOA)
+     {
+      if (lastSerial == serialOf(this.soa))
+       return DNSMsgHeader.NOERROR;
+      state = DELETING;
+      change = DNSTransferConsumer.DELETED;
+     }
+    }
+    this.recordsCount++;
+    if (!consumer.record(view, index, change))
+     return STOPPED;
+   }
+   if (state == FIRST && serial - serialOf(this.soa) >= 0)
+   {
+    this.incremental = true;
+    return DNSMsgHeader.NOERROR;
+   }
+  } while (true);
+ }
+
+/**
+ * NOTE: Result is a view of a message holding only the first SOA
+ * record (at index 0). It is passed to the consumer when an IXFR is
+ * answered by a full transfer, as the message the SOA came in may
+ * have been replaced in the buffer by then.
+ */
+ protected DNSMsgView viewSOA()
+ {
+  DNSRecord[] records = new DNSRecord[1];
+  records[0] = this.soa;
+  byte[] msgBytes = DNSConnection.encode(DNSMsgHeader.construct(
+   DNSMsgHeader.QUERY, false, 0, 1, 0, 0, false), records);
+  DNSMsgView soaView = this.soaView;
+  soaView.setNameTable(this.view.getNameTable());
+  return soaView.wrap(msgBytes, msgBytes.length);
+ }
+
+ protected static int serialOf(DNSRecord soa)
+ {
+  Object[] rData;
+  return (rData = soa.getRData()).length > DNSRecord.SOA_SERIAL_INDEX ?
+   ((Number)rData[DNSRecord.SOA_SERIAL_INDEX]).intValue() : 0;
+ }
+
+/**
+ * NOTE: Result is the first SOA record received by the last transfer
+ * (the new version of the zone) or null.
+ **
+ * @since 3.1
+ */
+ public final DNSRecord getSOA()
+ {
+  return this.soa;
+ }
+
+/**
+ * NOTE: Result is true if the last transfer was incremental.
+ **
+ * @since 3.1
+ */
+ public final boolean isIncremental()
+ {
+  return this.incremental;
+ }
+
+ public final int getMsgCount()
+ {
+  return this.msgCount;
+ }
+
+ public final int getBytesCount()
+ {
+  return this.bytesCount;
+ }
+
+/**
+ * NOTE: Result is the number of records passed to the consumer by
+ * the last transfer.
+ **
+ * @since 3.1
+ */
+ public final int getRecordsCount()
+ {
+  return this.recordsCount;
+ }
+}
@@ -48,9 +48,13 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 
 import net.sf.ivmaidns.dns.DNSConnection;
+import net.sf.ivmaidns.dns.DNSDatagramClient;
 import net.sf.ivmaidns.dns.DNSMsgHeader;
+import net.sf.ivmaidns.dns.DNSMsgView;
 import net.sf.ivmaidns.dns.DNSName;
 import net.sf.ivmaidns.dns.DNSRecord;
+import net.sf.ivmaidns.dns.DNSTransferConsumer;
+import net.sf.ivmaidns.dns.DNSZoneTransfer;
 
 import net.sf.ivmaidns.util.GComparator;
 import net.sf.ivmaidns.util.ObjectVector;
@@ -253,17 +257,20 @@ public final class dnslook
   {
    return 9;
   }
-  System.out.println("Connecting to " + serverName + "...");
   DNSConnection connection = new DNSConnection();
-  try
-  {
-   connection.open(server);
-  }
-  catch (IOException e)
+  if (isZone)
   {
-   System.err.println("Could not establish connection to: " +
-    serverName);
-   return 8;
+   System.out.println("Connecting to " + serverName + "...");
+   try
+   {
+    connection.open(server);
+   }
+   catch (IOException e)
+   {
+    System.err.println("Could not establish connection to: " +
+     serverName);
+    return 8;
+   }
   }
   DNSMsgHeader qHeader, header = null;
   DNSRecord[] records = null;
@@ -282,26 +289,47 @@ public final class dnslook
    records[0] = new DNSRecord(qName, isNS ? DNSRecord.NS :
     DNSRecord.ANY, DNSRecord.IN);
    msgBytes = DNSConnection.encode(qHeader, records);
-   try
-   {
-    connection.send(msgBytes);
-   }
-   catch (IOException e)
-   {
-    System.err.println("Data transmission error!");
-    return 7;
-   }
-   System.out.println("Receiving answer...");
-   try
-   {
-    msgBytes = connection.receive(true);
-   }
-   catch (IOException e)
+   if (isZone)
    {
-    connection.close();
-    System.err.println("Data transmission error!");
-    return 7;
+    try
+    {
+     connection.send(msgBytes);
+    }
+    catch (IOException e)
+    {
+     System.err.println("Data transmission error!");
+     return 7;
+    }
+    System.out.println("Receiving answer...");
+    try
+    {
+     msgBytes = connection.receive(true);
+    }
+    catch (IOException e)
+    {
+     connection.close();
+     System.err.println("Data transmission error!");
+     return 7;
+    }
    }
+    else
+    {
+     System.out.println("Receiving answer...");
+     try
+     {
+      msgBytes = new DNSDatagramClient().query(server, msgBytes);
+     }
+     catch (InterruptedIOException e)
+     {
+      System.err.println("No answer from: " + serverName);
+      return 8;
+     }
+     catch (IOException e)
+     {
+      System.err.println("Data transmission error!");
+      return 7;
+     }
+    }
    if ((records = DNSConnection.decode(msgBytes)) == null)
    {
     connection.close();
@@ -414,8 +442,10 @@ public final class dnslook
       serverName = null;
      }
    }
-   int size = -1, receivedBytesCount = 0, time;
+   int size = -1, receivedBytesCount = 0, time = 0;
    String errStr = null;
+   DNSZoneTransfer transfer = new DNSZoneTransfer(connection);
+   ZoneReceiver receiver;
    Object[] soaRData = null;
    do
    {
@@ -460,145 +490,13 @@ public final class dnslook
     }
     System.out.println("Sending zone query for: " +
      qName.getRelativeAt(0));
-    qHeader = DNSMsgHeader.construct(DNSMsgHeader.QUERY, false,
-     1, 0, 0, 0, false);
-    records = new DNSRecord[1];
-    records[0] = new DNSRecord(qName, DNSRecord.AXFR, DNSRecord.IN);
-    msgBytes = DNSConnection.encode(qHeader, records);
-    try
-    {
-     connection.send(msgBytes);
-    }
-    catch (IOException e)
-    {
-     connection.close();
-     System.err.println("Data transmission error!");
-     serverName = null;
-     rcode = 7;
-     continue;
-    }
     System.out.println("Waiting for response...");
-    receivedBytesCount = 0;
+    receiver = new ZoneReceiver(qName, fileName, isPlain);
     errStr = null;
     time = (int)System.currentTimeMillis();
     try
     {
-     if ((records = DNSConnection.decode(msgBytes =
-         connection.receive(true))) == null)
-     {
-      connection.close();
-      System.err.println("Invalid protocol message received!");
-      serverName = null;
-      rcode = 7;
-      continue;
-     }
-     header = new DNSMsgHeader(msgBytes);
-     if (!header.isResponse() ||
-         header.getId() != qHeader.getId() && header.getId() != 0)
-     {
-      connection.close();
-      System.err.println("Bad protocol message header: " +
-       header.toString());
-      serverName = null;
-      rcode = 7;
-      continue;
-     }
-     if ((rcode = header.getRCode()) != DNSMsgHeader.NOERROR)
-     {
-      connection.close();
-      System.err.println(rcode == DNSMsgHeader.REFUSED ?
-       "Zone access denied by this server!" :
-       "Server returned error: " + UnsignedInt.toAbbreviation(rcode,
-       DNSMsgHeader.RCODE_ABBREVS));
-      rcode = rcode == DNSMsgHeader.REFUSED ? 4 : 6;
-      serverName = null;
-      continue;
-     }
-     if ((rcode = header.getAnCount()) <= 0 ||
-         (count = header.getQdCount()) > records.length - rcode)
-     {
-      connection.close();
-      System.err.println("None answer records received!");
-      serverName = null;
-      rcode = 6;
-      continue;
-     }
-     if ((resRecord = records[count]).getRType() != DNSRecord.SOA ||
-         resRecord.getRClass() != DNSRecord.IN ||
-         !(rName = resRecord.getRName()).equals(qName))
-     {
-      connection.close();
-      System.err.println("Non-authoritative record received: " +
-       resRecord.toString(null, null, false));
-      serverName = null;
-      rcode = 6;
-      continue;
-     }
-     qName = rName;
-     soaRData = resRecord.getRData();
-     if (soaRData.length <= DNSRecord.SOA_MINTTL_INDEX)
-     {
-      connection.close();
-      System.err.println("Invalid authority data received!");
-      serverName = null;
-      rcode = 6;
-      continue;
-     }
-     size = 0;
-     if (fileName != null)
-     {
-      DNSRecord[] curRecords = records;
-      receivedBytesCount = msgBytes.length;
-      System.out.print("Getting zone records ");
-      records[0] = resRecord;
-      rcode--;
-      count++;
-      size = 1;
-      do
-      {
-       while (rcode-- > 0 && (resRecord =
-              curRecords[count++]).getRType() != DNSRecord.SOA)
-        if (resRecord.getRClass() == DNSRecord.IN ||
-            resRecord.getRName().isInDomain(qName, false))
-        {
-         if (size % 100 == 1)
-         {
-          System.out.print(".");
-          System.out.flush();
-         }
-         records[size++] = resRecord;
-        }
-       if (rcode >= 0)
-        break;
-       receivedBytesCount +=
-        (msgBytes = connection.receive(true)).length;
-       if ((curRecords = DNSConnection.decode(msgBytes)) == null ||
-           !(header = new DNSMsgHeader(msgBytes)).isResponse() ||
-           (count = header.getQdCount()) >
-           curRecords.length - header.getAnCount())
-       {
-        errStr = "Invalid protocol message received!";
-        break;
-       }
-       if ((rcode = header.getRCode()) != DNSMsgHeader.NOERROR)
-       {
-        errStr = "Server returned error: " +
-         UnsignedInt.toAbbreviation(rcode,
-         DNSMsgHeader.RCODE_ABBREVS);
-        break;
-       }
-       if (records.length - (rcode = header.getAnCount()) < size)
-       {
-        int newSize;
-        DNSRecord[] newRecords;
-        if ((newSize = (size >> 1) + rcode + size + 1) <= size)
-         newSize = -1 >>> 1;
-        System.arraycopy(records, 0,
-         newRecords = new DNSRecord[newSize], 0, size);
-        records = newRecords;
-       }
-      } while (true);
-     }
+     rcode = transfer.transfer(qName, receiver);
     }
     catch (EOFException e)
     {
@@ -614,13 +512,67 @@ public final class dnslook
     }
     time = (int)System.currentTimeMillis() - time;
     connection.close();
-    if (size > 0)
+    receivedBytesCount = transfer.getBytesCount();
+    if ((resRecord = transfer.getSOA()) == null)
+    {
+     if (errStr != null)
+      rcode = 7;
+      else if (rcode == DNSMsgHeader.REFUSED)
+      {
+       errStr = "Zone access denied by this server!";
+       rcode = 4;
+      }
+      else if (rcode > 0)
+      {
+       errStr = "Server returned error: " +
+        UnsignedInt.toAbbreviation(rcode, DNSMsgHeader.RCODE_ABBREVS);
+       rcode = 6;
+      }
+      else if (rcode == DNSZoneTransfer.NO_ANSWER)
+      {
+       errStr = "None answer records received!";
+       rcode = 6;
+      }
+      else if (rcode == DNSZoneTransfer.NOT_AUTHORITATIVE)
+      {
+       errStr = "Non-authoritative record received!";
+       rcode = 6;
+      }
+      else
+      {
+       errStr = "Invalid protocol message received!";
+       rcode = 7;
+      }
+     System.err.println(errStr);
+     serverName = null;
+     continue;
+    }
+    qName = resRecord.getRName();
+    soaRData = resRecord.getRData();
+    if (soaRData.length <= DNSRecord.SOA_MINTTL_INDEX)
+    {
+     System.err.println("Invalid authority data received!");
+     serverName = null;
+     rcode = 6;
+     continue;
+    }
+    if (errStr == null && rcode != DNSMsgHeader.NOERROR &&
+        rcode != DNSZoneTransfer.STOPPED)
+     errStr = rcode > 0 ? "Server returned error: " +
+      UnsignedInt.toAbbreviation(rcode, DNSMsgHeader.RCODE_ABBREVS) :
+      "Invalid protocol message received!";
+    records = receiver.records;
+    if ((size = receiver.size) > 0)
      System.out.println("");
     if (errStr != null)
      System.err.println(errStr);
-    if (size < 0)
-     serverName = null;
-     else break;
+    if (!receiver.close())
+    {
+     System.err.println(receiver.out != null ? "File write error!" :
+      "Cannot create this file!");
+     return 10;
+    }
+    break;
    } while (true);
    if (fileName != null)
    {
@@ -629,7 +581,7 @@ public final class dnslook
      UnsignedInt.toString(receivedBytesCount, false) +
      " bytes) [done in " + UnsignedInt.toString(time, false) +
      " ms]");
-    if (size != 0)
+    if (size != 0 && !isPlain)
     {
      int groups = 1;
      count = size;
@@ -826,3 +778,135 @@ public final class dnslook
   return 0;
  }
 }
+
+/**
+ * Receiver of the zone records for dnslook.
+ **
+ * The records are kept (to be sorted) unless the plain file is
+ * requested, then each record is written to the file as it arrives
+ * (and nothing is kept). If fileName is null then the transfer is
+ * stopped at the first record (the zone is only checked).
+ **
+ * @version 3.2
+ * @author Ivan Maidanski
+ */
+final class ZoneReceiver
+ implements DNSTransferConsumer
+{
+
+ protected final DNSName zone;
+
+ protected final String fileName;
+
+ protected final boolean isPlain;
+
+/**
+ * NOTE: records[0 .. size - 1] are the kept records.
+ */
+ protected DNSRecord[] records = new DNSRecord[100];
+
+ protected int size;
+
+/**
+ * NOTE: The plain file (opened on the first record).
+ */
+ protected BufferedWriter out;
+
+ protected boolean failed;
+
+ protected ZoneReceiver(DNSName zone, String fileName, boolean isPlain)
+  throws NullPointerException
+ {
+  zone.hashCode();
+  this.zone = zone;
+  this.fileName = fileName;
+  this.isPlain = isPlain;
+ }
+
+ public boolean record(DNSMsgView view, int index, int change)
+ {
+  int size;
+  if (this.fileName == null || this.failed)
+   return false;
+  if (view.getRClass(index) != DNSRecord.IN &&
+      !view.isInDomain(index, this.zone, false))
+   return true;
+  DNSRecord resRecord = view.getRecord(index);
+  if ((size = this.size) == 0)
+  {
+   if (this.isPlain)
+   {
+    System.out.println("Saving plain file [" + this.fileName + "]...");
+    try
+    {
+     this.out = new BufferedWriter(
+      new OutputStreamWriter(new FileOutputStream(this.fileName)));
+    }
+    catch (IOException e)
+    {
+     this.failed = true;
+    }
+    catch (SecurityException e)
+    {
+     this.failed = true;
+    }
+    if (this.failed)
+     return false;
+   }
+   System.out.print("Getting zone records ");
+  }
+  if (size % 100 == 1)
+  {
+   System.out.print(".");
+   System.out.flush();
+  }
+  BufferedWriter out;
+  if ((out = this.out) != null)
+   try
+   {
+    out.write(resRecord.toString(null, null, true));
+    out.newLine();
+   }
+   catch (IOException e)
+   {
+    this.failed = true;
+    return false;
+   }
+   else
+   {
+    DNSRecord[] records;
+    if ((records = this.records).length <= size)
+    {
+     int newSize;
+     DNSRecord[] newRecords;
+     if ((newSize = (size >> 1) + size + 1) <= size)
+      newSize = -1 >>> 1;
+     System.arraycopy(records, 0,
+      newRecords = new DNSRecord[newSize], 0, size);
+     this.records = records = newRecords;
+    }
+    records[size] = resRecord;
+   }
+  this.size = size + 1;
+  return true;
+ }
+
+/**
+ * NOTE: Closes the plain file (if any). Result is false if the file
+ * could not be created or written.
+ */
+ protected boolean close()
+ {
+  BufferedWriter out;
+  if ((out = this.out) != null)
+   try
+   {
+    out.close();
+   }
+   catch (IOException e)
+   {
+    this.failed = true;
+   }
+  return !this.failed;
+ }
+}
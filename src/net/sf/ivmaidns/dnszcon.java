@@ -42,18 +42,36 @@ import java.io.*;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import net.sf.ivmaidns.dns.DNSCache;
 import net.sf.ivmaidns.dns.DNSConnection;
 import net.sf.ivmaidns.dns.DNSMsgHeader;
+import net.sf.ivmaidns.dns.DNSMsgView;
 import net.sf.ivmaidns.dns.DNSName;
+import net.sf.ivmaidns.dns.DNSNameTable;
 import net.sf.ivmaidns.dns.DNSRecord;
+import net.sf.ivmaidns.dns.DNSRecordFile;
+import net.sf.ivmaidns.dns.DNSTransferConsumer;
+import net.sf.ivmaidns.dns.DNSZoneTransfer;
 
-import net.sf.ivmaidns.storage.HashedStorage;
+import net.sf.ivmaidns.storage.ConcurrentHashedStorage;
 import net.sf.ivmaidns.storage.ListStorage;
 import net.sf.ivmaidns.storage.ObjectStorage;
 import net.sf.ivmaidns.storage.SortedStorage;
 
 import net.sf.ivmaidns.util.ActivityCore;
 import net.sf.ivmaidns.util.ConstVector;
+import net.sf.ivmaidns.util.GComparator;
 import net.sf.ivmaidns.util.IntVector;
 import net.sf.ivmaidns.util.JavaConsts;
 import net.sf.ivmaidns.util.Lockable;
@@ -85,7 +103,13 @@ public final class dnszcon implements Notifiable
  public static final String LICENSE =
   "This is free software. No warranties. All rights reserved.";
 
- public static final String ARGS_INFO = "<out_text_file>";
+ public static final String ARGS_INFO =
+  "<out_text_file> [<store_file>]";
+
+ public static final String LIST_ARGS_INFO = "-l <store_file> [<zone>]";
+
+ public static final String DIFF_ARGS_INFO =
+  "-d <old_store_file> <new_store_file> [<zone>]";
 
  protected static final int SCREEN_WIDTH = 80;
 
@@ -93,7 +117,7 @@ public final class dnszcon implements Notifiable
 
  protected boolean recurse;
 
- protected final SortedStorage storage = new SortedStorage();
+ protected final DNSStripedStorage storage = new DNSStripedStorage();
 
  private dnszcon() {}
 
@@ -121,13 +145,18 @@ public final class dnszcon implements Notifiable
  public int intMain(String[] args)
   throws NullPointerException
  {
-  if (args.length != 1)
+  int location;
+  if (args.length > 0 && (location = storeMain(args)) >= 0)
+   return location;
+  if (args.length != 1 && args.length != 2)
   {
    System.out.println(NAME + " v" + VERSION + " - " + DESCRIPTION);
    System.out.println(COPYRIGHT);
    System.out.println(LICENSE);
    System.out.println("");
    System.out.println("Usage: " + NAME + " " + ARGS_INFO);
+   System.out.println("   or: " + NAME + " " + LIST_ARGS_INFO);
+   System.out.println("   or: " + NAME + " " + DIFF_ARGS_INFO);
    System.out.println("");
    System.out.println("This tool allows the user to fetch" +
     " (retrieve) Internet DNS records");
@@ -151,12 +180,42 @@ public final class dnszcon implements Notifiable
     " name servers. Subzones for the");
    System.out.println("zone being transferred are retrieved" +
     " only in the recursive mode.");
+   System.out.println("If <store_file> is specified then the" +
+    " records are also appended to this");
+   System.out.println("binary file as they are retrieved (the" +
+    " records already stored there");
+   System.out.println("are loaded on start). A store file may be" +
+    " listed (-l) or compared");
+   System.out.println("with another one (-d) without" +
+    " retrieving anything.");
    return args.length > 0 ? 2 : 0;
   }
-  int location = 0;
+  location = 0;
   DNSName rName = null;
+  DNSRecord[] listed = null;
   DNSClientRobot robot = new DNSClientRobot();
-  SortedStorage storage = this.storage;
+  DNSStripedStorage storage = this.storage;
+  DNSZoneCrawler crawler = new DNSZoneCrawler(storage,
+   DNSZoneCrawler.MAX_TRANSFERS, DNSZoneCrawler.MAX_SERVER_TRANSFERS);
+  DNSRecordFile file = null;
+  if (args.length > 1)
+  {
+   file = new DNSRecordFile(args[1]);
+   try
+   {
+    file.open();
+    int size = file.size();
+    while (location < size)
+     storage.add(file.getAt(location++));
+   }
+   catch (IOException e)
+   {
+    System.err.println("Cannot open store file: " + args[1]);
+    return 10;
+   }
+   System.out.println("Records loaded: " + Integer.toString(location));
+   storage.setFile(file);
+  }
   BufferedReader input =
    new BufferedReader(new InputStreamReader(System.in));
   System.out.println("");
@@ -174,6 +233,7 @@ public final class dnszcon implements Notifiable
   System.out.println(
    " ? - view retriever activity and memory utilization");
   System.out.println(" & - pause/resume activity");
+  System.out.println(" # - checkpoint (index) the store file");
   System.out.println(
    " ! - show statistics, save retrieved records to file and exit");
   System.out.println("");
@@ -195,7 +255,7 @@ public final class dnszcon implements Notifiable
    boolean isDomain = false, isAny = false;
    if (pos < cmdLine.length())
    {
-    location = 0;
+    listed = null;
     char ch = cmdLine.charAt(nextPos = pos);
     while (++nextPos < cmdLine.length() &&
            cmdLine.charAt(nextPos) <= ' ');
@@ -220,16 +280,38 @@ public final class dnszcon implements Notifiable
       if (!robot.isSuspended())
       {
        robot.suspend();
+       crawler.suspend();
        System.out.println("Suspending all...");
        continue;
       }
       robot.resume();
+      crawler.resume();
       System.out.println("Resuming all...");
       continue;
      }
+     if (ch == '#')
+     {
+      if (file == null)
+      {
+       System.out.println("No store file!");
+       continue;
+      }
+      try
+      {
+       file.checkpoint();
+       System.out.println("Records stored: " +
+        Integer.toString(file.size()));
+      }
+      catch (IOException e)
+      {
+       System.err.println("Store file write error!");
+      }
+      continue;
+     }
      if (ch == '?')
      {
       System.out.println(robot.toString(false, true, false));
+      System.out.println(crawler.toString());
       Runtime.getRuntime().gc();
       System.out.println("Free memory: " + Integer.toString(
        (int)(Runtime.getRuntime().freeMemory() >> 10)) + " Kbytes");
@@ -256,44 +338,30 @@ public final class dnszcon implements Notifiable
     pos = nextPos - 1;
     while (++pos < cmdLine.length() && cmdLine.charAt(pos) <= ' ');
     if (pos == cmdLine.length())
-     synchronized (storage)
-     {
-      location = (location =
-       storage.findLessGreater(new DNSRecord(rName,
-       DNSRecord.SOA, DNSRecord.IN), false, 0, false)) > 0 ?
-       storage.siblingLocation(location, true) :
-       storage.childLocation(0, true);
-     }
+    {
+     listed = storage.toArray(rName);
+     location = 0;
+    }
    }
-   if (location > 0)
-    synchronized (storage)
+   if (listed != null && location < listed.length)
+   {
+    int count = SCREEN_HEIGHT - 2;
+    String str = null;
+    DNSRecord prevRecord = null, resRecord = null;
+    do
     {
-     int count = SCREEN_HEIGHT - 2;
-     String str = null;
-     DNSRecord prevRecord = null, resRecord = null;
-     do
+     if (--count > 0 || prevRecord == null)
+      count -= (str = (resRecord = listed[location]).toString(rName,
+       prevRecord, false)).length() / SCREEN_WIDTH;
+     if (count <= 0 && prevRecord != null)
      {
-      if (--count > 0 || prevRecord == null)
-      {
-       if (!(resRecord = (DNSRecord)storage.getAt(location)).
-           getRName().isInDomain(rName, false))
-       {
-        location = 0;
-        break;
-       }
-       count -= (str = resRecord.toString(rName,
-        prevRecord, false)).length() / SCREEN_WIDTH;
-      }
-      if (count <= 0 && prevRecord != null)
-      {
-       System.out.println("<More?>");
-       break;
-      }
-      System.out.println(str);
-      prevRecord = resRecord;
-     } while ((location =
-              storage.siblingLocation(location, true)) > 0);
-    }
+      System.out.println("<More?>");
+      break;
+     }
+     System.out.println(str);
+     prevRecord = resRecord;
+    } while (++location < listed.length);
+   }
    if (pos < cmdLine.length())
    {
     InetAddress[] servers = new InetAddress[16];
@@ -317,19 +385,38 @@ public final class dnszcon implements Notifiable
      while (++pos < cmdLine.length() && cmdLine.charAt(pos) <= ' ');
     } while (pos < cmdLine.length() && count < servers.length);
     if (count > 0)
-     robot.queryAll(servers, new DNSRecord(rName, isDomain ?
-      DNSRecord.AXFR : isAny ? DNSRecord.ANY : DNSRecord.NS,
-      DNSRecord.IN), !(isDomain || isAny), this);
+     if (isDomain && this.recurse)
+      crawler.crawl(rName, servers);
+      else robot.queryAll(servers, new DNSRecord(rName, isDomain ?
+            DNSRecord.AXFR : isAny ? DNSRecord.ANY : DNSRecord.NS,
+            DNSRecord.IN), !(isDomain || isAny), this);
    }
   } while (true);
   this.recurse = false;
   System.out.println("");
   System.out.println(robot.toString(false, true, false));
+  System.out.println(crawler.toString());
   robot.removeAgent(this);
   robot.stop();
+  crawler.stop();
+  if (file != null)
+  {
+   storage.setFile(null);
+   try
+   {
+    file.checkpoint();
+    System.out.println("Records stored: " +
+     Integer.toString(file.size()));
+    file.close();
+   }
+   catch (IOException e)
+   {
+    System.err.println("Store file write error!");
+   }
+  }
   System.out.println("");
   System.out.println(robot.toString(false, false, true));
-  if (storage.childLocation(0, true) > 0)
+  if ((listed = storage.toArray(null)).length > 0)
   {
    System.out.println("Writing records to text file...");
    BufferedWriter out;
@@ -353,14 +440,9 @@ public final class dnszcon implements Notifiable
     out.newLine();
     out.write("; Generated by: " + NAME + " v" + VERSION);
     out.newLine();
-    synchronized (storage)
-    {
-     for (location = storage.childLocation(0, true); location > 0;
-          location = storage.siblingLocation(location, true),
-          out.newLine())
-      out.write(((DNSRecord)storage.getAt(location)).toString(null,
-       null, false));
-    }
+    for (location = 0; location < listed.length;
+         location++, out.newLine())
+     out.write(listed[location].toString(null, null, false));
     out.close();
    }
    catch (IOException e)
@@ -373,6 +455,123 @@ public final class dnszcon implements Notifiable
   return 0;
  }
 
+/**
+ * NOTE: Result is the exit code of the store file listing (-l) or
+ * comparing (-d), or -1 if args are not such a command. The store
+ * files are opened read-only (only the records indexed by their last
+ * checkpoint are seen, a file being retrieved to is not changed).
+ **
+ * @since 3.2
+ */
+ protected int storeMain(String[] args)
+  throws NullPointerException
+ {
+  boolean isDiff;
+  int count = (isDiff = args[0].equals("-d")) ? 3 : 2, index;
+  if (!isDiff && !args[0].equals("-l") || args.length < count ||
+      args.length > count + 1)
+   return -1;
+  DNSName domain = DNSName.ROOT;
+  if (args.length > count)
+   try
+   {
+    domain = new DNSName(args[count], null);
+   }
+   catch (NumberFormatException e)
+   {
+    System.err.println("Illegal name!");
+    return 2;
+   }
+  DNSRecordFile[] files = new DNSRecordFile[count - 1];
+  try
+  {
+   for (index = 1; index < count; index++)
+   {
+    if (!(new File(args[index])).exists())
+    {
+     System.err.println("File not found: " + args[index]);
+     return 10;
+    }
+    try
+    {
+     (files[index - 1] = new DNSRecordFile(args[index])).openReadOnly();
+    }
+    catch (IOException e)
+    {
+     System.err.println("Cannot open store file: " + args[index]);
+     return 10;
+    }
+   }
+   DNSRecord record;
+   if (!isDiff)
+   {
+    DNSRecordFile file = files[0];
+    for (index = file.findFirst(domain);
+         (record = recordAt(file, index, domain)) != null; index++)
+     System.out.println(record.toString(null, null, false));
+    return 0;
+   }
+   DNSRecordFile oldFile = files[0], newFile = files[1];
+   GComparator comparator = GComparator.INSTANCE;
+   int oldIndex = oldFile.findFirst(domain), deleted = 0;
+   int newIndex = newFile.findFirst(domain), added = 0;
+   DNSRecord oldRecord = recordAt(oldFile, oldIndex, domain);
+   DNSRecord newRecord = recordAt(newFile, newIndex, domain);
+   while (oldRecord != null || newRecord != null)
+    if (newRecord == null || oldRecord != null &&
+        comparator.greater(newRecord, oldRecord))
+    {
+     System.out.println("- " + oldRecord.toString(null, null, false));
+     deleted++;
+     oldRecord = recordAt(oldFile, ++oldIndex, domain);
+    }
+     else if (oldRecord == null ||
+              comparator.greater(oldRecord, newRecord))
+     {
+      System.out.println("+ " +
+       newRecord.toString(null, null, false));
+      added++;
+      newRecord = recordAt(newFile, ++newIndex, domain);
+     }
+      else
+      {
+       oldRecord = recordAt(oldFile, ++oldIndex, domain);
+       newRecord = recordAt(newFile, ++newIndex, domain);
+      }
+   System.out.println("; Deleted/added records: " +
+    Integer.toString(deleted) + "/" + Integer.toString(added));
+   return 0;
+  }
+  catch (IOException e)
+  {
+   System.err.println("Store file read error!");
+   return 10;
+  }
+  finally
+  {
+   for (index = 0; index < files.length; index++)
+    if (files[index] != null)
+     try
+     {
+      files[index].close();
+     }
+     catch (IOException e) {}
+  }
+ }
+
+/**
+ * NOTE: Result is the record at index of file if it belongs to
+ * domain, else null.
+ */
+ protected static DNSRecord recordAt(DNSRecordFile file, int index,
+         DNSName domain)
+  throws IOException
+ {
+  DNSRecord record;
+  return index < file.size() && (record = file.getAt(index)).
+   getRName().isInDomain(domain, false) ? record : null;
+ }
+
  public void update(MultiObservable observed, Object argument)
  {
   if (observed instanceof DNSClientRobot &&
@@ -391,17 +590,16 @@ public final class dnszcon implements Notifiable
     {
      try
      {
-      SortedStorage storage;
-      synchronized (storage = this.storage)
-      {
-       storage.add(resRecord, true);
-      }
+      this.storage.add(resRecord);
      }
      catch (OutOfMemoryError e)
      {
       System.err.println("Thread: Out of memory!");
       robot.removeAgent(this);
      }
+     if (qType == DNSRecord.AXFR &&
+         resRecord.getRType() == DNSRecord.A)
+      DNSCache.getDefault().add(resRecord);
      Object[] rData;
      if (qType == DNSRecord.AXFR)
       if (status == 1)
@@ -416,7 +614,8 @@ public final class dnszcon implements Notifiable
         InetAddress[] addresses = null;
         try
         {
-         addresses = InetAddress.getAllByName(name);
+         if ((addresses = cachedAddresses((DNSName)rData[0])) == null)
+          addresses = InetAddress.getAllByName(name);
         }
         catch (UnknownHostException e)
         {
@@ -456,6 +655,36 @@ public final class dnszcon implements Notifiable
  }
 
  public void integrityCheck() {}
+
+/**
+ * NOTE: name must be != null. Result is the addresses of the (not
+ * expired) A records of name seen in the transferred zones, or null
+ * if none are known.
+ **
+ * @since 3.1
+ */
+ protected static InetAddress[] cachedAddresses(DNSName name)
+  throws NullPointerException
+ {
+  DNSRecord[] records = DNSCache.getDefault().get(name,
+   DNSRecord.A, DNSRecord.IN);
+  int index;
+  if (records == null || (index = records.length) == 0)
+   return null;
+  InetAddress[] addresses = new InetAddress[index];
+  String host = name.getRelativeAt(0);
+  try
+  {
+   while (index-- > 0)
+    addresses[index] = InetAddress.getByAddress(host,
+     records[index].getRDataBytes());
+  }
+  catch (UnknownHostException e)
+  {
+   return null;
+  }
+  return addresses;
+ }
 }
 
 /**
@@ -521,9 +750,11 @@ final class DNSClientRobot extends ObservedCore
 
 /**
  * NOTE: queueQdRecords must only contain DNSRecord values of
- * queries.
+ * queries. It is modified only under lock, but may be looked up
+ * without it (for a quick negative answer).
  */
- protected final HashedStorage queueQdRecords = new HashedStorage();
+ protected final ConcurrentHashedStorage queueQdRecords =
+  new ConcurrentHashedStorage();
 
 /**
  * NOTE: queueServers contains triples of the location in
@@ -535,9 +766,11 @@ final class DNSClientRobot extends ObservedCore
 
 /**
  * NOTE: uniqueServers must only contain unique InetAddress values
- * of queries and/or active connection threads.
+ * of queries and/or active connection threads. It is modified only
+ * under lock, but may be looked up without it.
  */
- protected final HashedStorage uniqueServers = new HashedStorage();
+ protected final ConcurrentHashedStorage uniqueServers =
+  new ConcurrentHashedStorage();
 
 /**
  * NOTE: firstServers contains groups of the first location in
@@ -559,10 +792,11 @@ final class DNSClientRobot extends ObservedCore
 /**
  * NOTE: activeQdRecords must only contain DNSRecord values of being
  * processed queries at the locations consistent with activeThreads
- * locations.
+ * locations. It is modified only under lock, but may be looked up
+ * without it.
  */
- protected final HashedStorage activeQdRecords =
-  new HashedStorage();
+ protected final ConcurrentHashedStorage activeQdRecords =
+  new ConcurrentHashedStorage();
 
 /**
  * NOTE: activeAgents must only contain Notifiable values of being
@@ -960,12 +1194,15 @@ final class DNSClientRobot extends ObservedCore
  }
 
 /**
- * NOTE: server may be == null. Result >= 0.
+ * NOTE: server may be == null. Result >= 0. The robot lock is not
+ * taken for an unknown server.
  */
  public final int getServerConnectionsCount(InetAddress server)
  {
   Object lock;
   int location;
+  if (uniqueServers.locationOf(server, 0, true) <= 0)
+   return 0;
   while (true)
    synchronized (lock = this.lock)
    {
@@ -977,12 +1214,14 @@ final class DNSClientRobot extends ObservedCore
 
 /**
  * NOTE: server may be == null. Result >= 0 (0 means server
- * inaccessible).
+ * inaccessible). The robot lock is not taken for an unknown server.
  */
  public final int getMaxServerConnections(InetAddress server)
  {
   Object lock;
   int location;
+  if (uniqueServers.locationOf(server, 0, true) <= 0)
+   return maxServerConnections;
   while (true)
    synchronized (lock = this.lock)
    {
@@ -1074,7 +1313,7 @@ final class DNSClientRobot extends ObservedCore
          int prevActiveLocation, boolean forward)
   throws IllegalArgumentException
  {
-  HashedStorage activeQdRecords = this.activeQdRecords;
+  ConcurrentHashedStorage activeQdRecords = this.activeQdRecords;
   ObjectStorage activeAgents = this.activeAgents;
   Object lock;
   while (true)
@@ -1126,13 +1365,17 @@ final class DNSClientRobot extends ObservedCore
 
 /**
  * NOTE: If qdRecord == null or agent == null then result is false.
+ * The robot lock is not taken if qdRecord is neither queued nor
+ * being processed (the common case of a new query).
  */
  public boolean contains(DNSRecord qdRecord, Notifiable agent,
          boolean includingAccepted)
  {
-  if (agent != null)
+  if (agent != null &&
+      (activeQdRecords.locationOf(qdRecord, 0, true) > 0 ||
+      queueQdRecords.locationOf(qdRecord, 0, true) > 0))
   {
-   HashedStorage activeQdRecords = this.activeQdRecords;
+   ConcurrentHashedStorage activeQdRecords = this.activeQdRecords;
    ObjectStorage activeAgents = this.activeAgents;
    IntVector activeServers = this.activeServers;
    Object lock;
@@ -1148,7 +1391,7 @@ final class DNSClientRobot extends ObservedCore
            (includingAccepted ||
            activeServers.getIntAt(location * 2 - 1) <= 0))
         return true;
-      HashedStorage queueQdRecords = this.queueQdRecords;
+      ConcurrentHashedStorage queueQdRecords = this.queueQdRecords;
       ListStorage queueAgents = this.queueAgents;
       while ((location = queueQdRecords.locationOf(qdRecord,
              location, true)) > 0)
@@ -1206,8 +1449,8 @@ final class DNSClientRobot extends ObservedCore
   DNSRecord[] qdRecords = new DNSRecord[0], newRecords;
   ListStorage queueAgents = this.queueAgents;
   ObjectStorage activeAgents = this.activeAgents;
-  HashedStorage queueQdRecords = this.queueQdRecords;
-  HashedStorage activeQdRecords = this.activeQdRecords;
+  ConcurrentHashedStorage queueQdRecords = this.queueQdRecords;
+  ConcurrentHashedStorage activeQdRecords = this.activeQdRecords;
   Object lock;
   while (true)
    synchronized (lock = this.lock)
@@ -1387,12 +1630,12 @@ final class DNSClientRobot extends ObservedCore
   qdRecord.equals(qdRecord);
   agent.equals(agent);
   ListStorage queueAgents = this.queueAgents;
-  HashedStorage queueQdRecords = this.queueQdRecords;
+  ConcurrentHashedStorage queueQdRecords = this.queueQdRecords;
   IntVector queueServers = this.queueServers;
   IntVector firstServers = this.firstServers;
-  HashedStorage uniqueServers = this.uniqueServers;
+  ConcurrentHashedStorage uniqueServers = this.uniqueServers;
   ObjectStorage activeAgents = this.activeAgents;
-  HashedStorage activeQdRecords = this.activeQdRecords;
+  ConcurrentHashedStorage activeQdRecords = this.activeQdRecords;
   IntVector activeServers = this.activeServers;
   Object lock;
   while (true)
@@ -1495,7 +1738,7 @@ final class DNSClientRobot extends ObservedCore
             Notifiable agent)
  {
   ListStorage queueAgents = this.queueAgents;
-  HashedStorage queueQdRecords = this.queueQdRecords;
+  ConcurrentHashedStorage queueQdRecords = this.queueQdRecords;
   IntVector queueServers = this.queueServers;
   IntVector firstServers = this.firstServers;
   int location = queueQdRecords.emptyLocation();
@@ -1510,7 +1753,7 @@ final class DNSClientRobot extends ObservedCore
   }
   queueQdRecords.setAt(location, qdRecord);
   int firstLoc = 0;
-  HashedStorage uniqueServers = this.uniqueServers;
+  ConcurrentHashedStorage uniqueServers = this.uniqueServers;
   if (uniqueServers.getAt(uniqLoc) == null)
   {
    uniqueServers.setAt(uniqLoc, server);
@@ -1543,11 +1786,11 @@ final class DNSClientRobot extends ObservedCore
  protected boolean activate(int activeLocation, int fellAsleepTime)
  {
   ListStorage queueAgents = this.queueAgents;
-  HashedStorage queueQdRecords = this.queueQdRecords;
+  ConcurrentHashedStorage queueQdRecords = this.queueQdRecords;
   IntVector queueServers = this.queueServers;
   IntVector firstServers = this.firstServers;
   ObjectStorage activeAgents = this.activeAgents;
-  HashedStorage activeQdRecords = this.activeQdRecords;
+  ConcurrentHashedStorage activeQdRecords = this.activeQdRecords;
   IntVector activeServers = this.activeServers;
   Object lock;
   while (true)
@@ -1691,8 +1934,9 @@ final class DNSClientRobot extends ObservedCore
      activeAgents.setAt(activeLocation,
       queueAgents.setAt(location, null));
      activeAgentsSize++;
-     qdRecord = (DNSRecord)queueQdRecords.setAt(location, null);
-     activeQdRecords.setAt(activeLocation, qdRecord);
+     activeQdRecords.setAt(activeLocation,
+      qdRecord = (DNSRecord)queueQdRecords.getAt(location));
+     queueQdRecords.setAt(location, null);
      firstLoc = queueServers.getIntAt(location * 3 - 2);
      int lastLoc = queueServers.getIntAt(location * 3 - 1);
      queueServers.setAt(firstLoc * 3 - 1, lastLoc);
@@ -1730,10 +1974,10 @@ final class DNSClientRobot extends ObservedCore
  protected void answer(int activeLocation, DNSRecord resRecord)
  {
   Object agent;
-  HashedStorage activeQdRecords = this.activeQdRecords;
+  ConcurrentHashedStorage activeQdRecords = this.activeQdRecords;
   IntVector activeServers = this.activeServers;
-  HashedStorage queueQdRecords = this.queueQdRecords;
-  HashedStorage uniqueServers = this.uniqueServers;
+  ConcurrentHashedStorage queueQdRecords = this.queueQdRecords;
+  ConcurrentHashedStorage uniqueServers = this.uniqueServers;
   ListStorage queueAgents = this.queueAgents;
   ObjectStorage activeAgents = this.activeAgents;
   Object lock;
@@ -1870,7 +2114,7 @@ final class DNSClientRobot extends ObservedCore
  protected void purgeInQueue(int location)
  {
   ListStorage queueAgents = this.queueAgents;
-  HashedStorage uniqueServers = this.uniqueServers;
+  ConcurrentHashedStorage uniqueServers = this.uniqueServers;
   IntVector queueServers = this.queueServers;
   IntVector firstServers = this.firstServers;
   int prevLoc = -1;
@@ -1933,7 +2177,7 @@ final class DNSClientRobot extends ObservedCore
  public void interrupt()
  {
   ObjectStorage activeThreads = this.activeThreads;
-  HashedStorage activeQdRecords = this.activeQdRecords;
+  ConcurrentHashedStorage activeQdRecords = this.activeQdRecords;
   Object lock;
   while (true)
    synchronized (lock = this.lock)
@@ -2075,9 +2319,9 @@ final class DNSClientRobot extends ObservedCore
      super.trimToSize();
      stop();
      queueAgents.trimToSize();
-     HashedStorage queueQdRecords = this.queueQdRecords;
+     ConcurrentHashedStorage queueQdRecords = this.queueQdRecords;
      queueQdRecords.trimToSize();
-     HashedStorage uniqueServers = this.uniqueServers;
+     ConcurrentHashedStorage uniqueServers = this.uniqueServers;
      uniqueServers.trimToSize();
      activeQdRecords.trimToSize();
      activeAgents.trimToSize();
@@ -2250,7 +2494,7 @@ final class DNSClientRobotThread extends ActivityCore
   {
    IntVector activeServers = robot.activeServers;
    ObjectStorage activeAgents = robot.activeAgents;
-   ObjectStorage activeQdRecords = robot.activeQdRecords;
+   ConcurrentHashedStorage activeQdRecords = robot.activeQdRecords;
    if (((activeServers.getIntAt(activeLocation * 2 -
        1) + 1) >> 1) == 0 &&
        activeAgents.getAt(activeLocation) == null)
@@ -2633,3 +2877,753 @@ final class DNSClientRobotThread extends ActivityCore
    throw new InternalError("connection: null");
  }
 }
+
+/**
+ * Class for DNS records storage striped by owner name.
+ **
+ * The records are kept in several sorted storages (stripes), each
+ * guarded by its own monitor, the stripe of a record is chosen by the
+ * hash of its name. So the threads adding the records of different
+ * names seldom contend for the same monitor. The stripes are merged
+ * (in the usual sorted order) only when the records are listed. The
+ * record names are interned in a names table, so all the records of
+ * a name (and all the names of a domain) share the same instances.
+ **
+ * @version 3.2
+ * @author TerraMaster contributors
+ */
+final class DNSStripedStorage
+{
+
+ public static final int STRIPES = 16;
+
+ protected final SortedStorage[] stripes;
+
+ protected final DNSNameTable names = new DNSNameTable();
+
+/**
+ * NOTE: file is the store file each new record is appended to (or
+ * null).
+ */
+ protected volatile DNSRecordFile file;
+
+ public DNSStripedStorage()
+ {
+  int index;
+  SortedStorage[] stripes = new SortedStorage[index = STRIPES];
+  while (index-- > 0)
+   stripes[index] = new SortedStorage();
+  this.stripes = stripes;
+ }
+
+/**
+ * NOTE: file may be == null. The records added later are appended to
+ * file (the file must be open).
+ **
+ * @since 3.2
+ */
+ public void setFile(DNSRecordFile file)
+ {
+  this.file = file;
+ }
+
+/**
+ * NOTE: record must be != null. Duplicate records are not added. A
+ * new record is appended to the file (if set), on a write error the
+ * file is unset.
+ */
+ public void add(DNSRecord record)
+  throws NullPointerException
+ {
+  SortedStorage[] stripes = this.stripes;
+  record = record.intern(this.names);
+  SortedStorage stripe = stripes[((record.getRName().hashCode() *
+   JavaConsts.GOLD_MEDIAN) >>> 1) % stripes.length];
+  synchronized (stripe)
+  {
+   if (stripe.locationOf(record, 0, true) > 0)
+    return;
+   stripe.setAt(stripe.emptyLocation(), record);
+  }
+  DNSRecordFile file;
+  if ((file = this.file) != null)
+   try
+   {
+    file.append(record);
+   }
+   catch (IOException e)
+   {
+    this.file = null;
+    System.err.println("Store file write error!");
+   }
+ }
+
+ public boolean isEmpty()
+ {
+  SortedStorage[] stripes = this.stripes;
+  SortedStorage stripe;
+  for (int index = stripes.length; index-- > 0;)
+   synchronized (stripe = stripes[index])
+   {
+    if (stripe.childLocation(0, true) > 0)
+     return false;
+   }
+  return true;
+ }
+
+/**
+ * NOTE: Result is the sorted array of the records of domain and its
+ * subdomains (of all records if domain == null). Result != null.
+ */
+ public DNSRecord[] toArray(DNSName domain)
+ {
+  SortedStorage[] stripes = this.stripes;
+  SortedStorage stripe;
+  int count = stripes.length, index, location, total = 0, size;
+  Object[][] lists = new Object[count][];
+  if (domain != null)
+   domain = this.names.intern(domain);
+  DNSRecord first = domain != null ?
+   new DNSRecord(domain, DNSRecord.SOA, DNSRecord.IN) : null;
+  for (index = 0; index < count; index++)
+   synchronized (stripe = stripes[index])
+   {
+    int start = (location = first != null ?
+     stripe.findLessGreater(first, false, 0, false) : 0) > 0 ?
+     stripe.siblingLocation(location, true) :
+     stripe.childLocation(0, true);
+    for (size = 0, location = start; location > 0 &&
+         (domain == null || ((DNSRecord)stripe.getAt(location)).
+         getRName().isInDomain(domain, false)); size++)
+     location = stripe.siblingLocation(location, true);
+    Object[] list = lists[index] = new Object[size];
+    for (size = 0, location = start; size < list.length; size++)
+    {
+     list[size] = stripe.getAt(location);
+     location = stripe.siblingLocation(location, true);
+    }
+    total += size;
+   }
+  DNSRecord[] records = new DNSRecord[total];
+  int[] positions = new int[count];
+  GComparator comparator = GComparator.INSTANCE;
+  for (int pos = 0; pos < total; pos++)
+  {
+   Object value = null, next;
+   location = -1;
+   for (index = 0; index < count; index++)
+    if ((size = positions[index]) < lists[index].length)
+    {
+     next = lists[index][size];
+     if (location < 0 || comparator.greater(value, next))
+     {
+      value = next;
+      location = index;
+     }
+    }
+   positions[location]++;
+   records[pos] = (DNSRecord)value;
+  }
+  return records;
+ }
+}
+
+/**
+ * Class for parallel recursive DNS zones crawler.
+ **
+ * Each zone is transferred (AXFR) by a task of a work-stealing pool.
+ * The subzones found (delegated by NS records) become new tasks
+ * forked by the same worker, idle workers steal them. The glue
+ * records of a transferred zone are kept in a concurrent table of the
+ * crawler, so the name servers of its subzones are mostly known
+ * without a lookup. The records go to a striped storage. At most
+ * maxServerTransfers zones are transferred from one server at a time.
+ * The number of zones in progress is limited adaptively: the limit
+ * grows by one after as many successful connects as the limit is, and
+ * is halved when a server cannot be reached (it is never below 1 or
+ * above maxTransfers). The tasks over the limit wait in a queue
+ * (instead of blocking pool workers) until a zone is finished.
+ **
+ * @version 3.2
+ * @author TerraMaster contributors
+ */
+final class DNSZoneCrawler
+{
+
+ public static final int MAX_TRANSFERS =
+  DNSClientRobot.MAX_CONNECTIONS;
+
+ public static final int MAX_SERVER_TRANSFERS =
+  DNSClientRobot.MAX_SERVER_CONNECTIONS;
+
+ public static final int INITIAL_LIMIT = 4;
+
+ protected final DNSStripedStorage storage;
+
+ protected final int maxTransfers;
+
+ protected final int maxServerTransfers;
+
+/**
+ * NOTE: pool threads are created on demand (at most maxTransfers).
+ */
+ protected final ForkJoinPool pool;
+
+/**
+ * NOTE: lock guards all the fields below.
+ */
+ protected final Object lock = new Object();
+
+/**
+ * NOTE: serverTransfers maps each server to the int[1] count of its
+ * transfers in flight.
+ */
+ protected final HashMap<InetAddress, int[]> serverTransfers =
+  new HashMap<InetAddress, int[]>();
+
+/**
+ * NOTE: zones contains the names of the crawled subzones (each one
+ * is crawled once).
+ */
+ protected final HashSet<DNSName> zones = new HashSet<DNSName>();
+
+/**
+ * NOTE: queue holds the tasks not admitted yet (see submit()).
+ */
+ protected final LinkedList<ZoneTask> queue = new LinkedList<ZoneTask>();
+
+/**
+ * NOTE: glue maps each name server name to the addresses (A records)
+ * found in the transferred zones. It is not guarded by lock.
+ */
+ protected final ConcurrentHashMap<DNSName, InetAddress[]> glue =
+  new ConcurrentHashMap<DNSName, InetAddress[]>();
+
+ protected int limit = INITIAL_LIMIT;
+
+ protected int admitted;
+
+ protected int inFlight;
+
+ protected int successes;
+
+ protected int pending;
+
+ protected int transfers;
+
+ protected int recordsCount;
+
+ protected boolean suspended;
+
+ protected volatile boolean stopped;
+
+/**
+ * NOTE: storage must be != null, maxTransfers and maxServerTransfers
+ * must be > 0.
+ */
+ public DNSZoneCrawler(DNSStripedStorage storage, int maxTransfers,
+         int maxServerTransfers)
+  throws NullPointerException, IllegalArgumentException
+ {
+  storage.hashCode();
+  if (maxTransfers <= 0 || maxServerTransfers <= 0)
+   throw new IllegalArgumentException("maxTransfers: " +
+              Integer.toString(maxTransfers) +
+              ", maxServerTransfers: " +
+              Integer.toString(maxServerTransfers));
+  this.storage = storage;
+  this.maxTransfers = maxTransfers;
+  this.maxServerTransfers = maxServerTransfers;
+  if (this.limit > maxTransfers)
+   this.limit = maxTransfers;
+  this.pool = new ForkJoinPool(maxTransfers);
+ }
+
+/**
+ * NOTE: zone and servers must be != null, servers[i] may be == null
+ * for any i. The zone and (recursively) all its subzones are
+ * transferred in the background.
+ */
+ public void crawl(DNSName zone, InetAddress[] servers)
+  throws NullPointerException
+ {
+  int count = 0, index = servers.length;
+  while (index-- > 0)
+   if (servers[index] != null)
+    count++;
+  InetAddress[] addresses = new InetAddress[count];
+  for (index = 0; count > 0; index++)
+   if (servers[index] != null)
+    addresses[addresses.length - count--] = servers[index];
+  synchronized (this.lock)
+  {
+   if (this.stopped)
+    return;
+   this.zones.add(zone);
+   this.pending++;
+  }
+  submit(new ZoneTask(zone, addresses, null));
+ }
+
+ public void suspend()
+ {
+  synchronized (this.lock)
+  {
+   this.suspended = true;
+  }
+ }
+
+ public void resume()
+ {
+  Object lock;
+  synchronized (lock = this.lock)
+  {
+   this.suspended = false;
+   dispatch();
+   lock.notifyAll();
+  }
+ }
+
+/**
+ * NOTE: The transfers in progress are abandoned at the next record.
+ */
+ public void stop()
+ {
+  Object lock;
+  synchronized (lock = this.lock)
+  {
+   this.stopped = true;
+   this.pending -= this.queue.size();
+   this.queue.clear();
+   lock.notifyAll();
+  }
+  this.pool.shutdownNow();
+ }
+
+ public String toString()
+ {
+  synchronized (this.lock)
+  {
+   return "Crawler: " + Integer.toString(this.pending) +
+    " zones pending, " + Integer.toString(this.inFlight) +
+    " transfers in flight (limit: " + Integer.toString(this.limit) +
+    "), " + Integer.toString(this.transfers) + " done, " +
+    Integer.toString(this.recordsCount) + " records";
+  }
+ }
+
+/**
+ * NOTE: task is admitted (forked) at once if the number of zones in
+ * progress is below the limit, else it is queued until a zone is
+ * finished. So the pool workers never wait for admission.
+ */
+ protected void submit(ZoneTask task)
+ {
+  synchronized (this.lock)
+  {
+   if (this.stopped)
+   {
+    this.pending--;
+    return;
+   }
+   this.queue.addLast(task);
+   dispatch();
+  }
+ }
+
+/**
+ * NOTE: Must be called with lock held.
+ */
+ protected void dispatch()
+ {
+  while (!this.suspended && !this.stopped &&
+         this.admitted < this.limit && !this.queue.isEmpty())
+  {
+   ZoneTask task = this.queue.removeFirst();
+   this.admitted++;
+   if (ForkJoinTask.inForkJoinPool())
+    task.fork();
+    else this.pool.execute(task);
+  }
+ }
+
+/**
+ * NOTE: Waits for a free transfer slot and a server (not tried yet)
+ * with a free slot. The wait is rare (only while the limit shrinks or
+ * the servers are busy), it is made through managedBlock(), so the
+ * pool may run other tasks meanwhile. Result is the index of the
+ * server in servers or -1 if stopped.
+ */
+ protected int acquire(InetAddress[] servers, boolean[] tried)
+ {
+  SlotBlocker blocker = new SlotBlocker(servers, tried);
+  try
+  {
+   ForkJoinPool.managedBlock(blocker);
+  }
+  catch (InterruptedException e)
+  {
+   Thread.currentThread().interrupt();
+  }
+  return blocker.index;
+ }
+
+/**
+ * NOTE: Must be called with lock held. Result is the index of the
+ * acquired server or -1.
+ */
+ protected int tryAcquire(InetAddress[] servers, boolean[] tried)
+ {
+  if (!this.stopped && !this.suspended && this.inFlight < this.limit)
+   for (int index = 0; index < servers.length; index++)
+    if (!tried[index])
+    {
+     int[] countRef;
+     if ((countRef = this.serverTransfers.get(servers[index])) ==
+         null)
+      this.serverTransfers.put(servers[index],
+       countRef = new int[1]);
+     if (countRef[0] < this.maxServerTransfers)
+     {
+      countRef[0]++;
+      this.inFlight++;
+      return index;
+     }
+    }
+  return -1;
+ }
+
+/**
+ * NOTE: server must be the one acquired. If reached then the limit
+ * is (slowly) increased, else halved.
+ */
+ protected void release(InetAddress server, boolean reached,
+         int count)
+ {
+  Object lock;
+  synchronized (lock = this.lock)
+  {
+   int[] countRef;
+   if (--(countRef = this.serverTransfers.get(server))[0] <= 0)
+    this.serverTransfers.remove(server);
+   this.inFlight--;
+   if (reached)
+   {
+    if (++this.successes >= this.limit)
+    {
+     this.successes = 0;
+     if (this.limit < this.maxTransfers)
+      this.limit++;
+    }
+   }
+    else
+    {
+     this.successes = 0;
+     if ((this.limit >>= 1) <= 0)
+      this.limit = 1;
+    }
+   this.recordsCount += count;
+   dispatch();
+   lock.notifyAll();
+  }
+ }
+
+/**
+ * NOTE: Result is true if the subzone is to be crawled.
+ */
+ protected boolean markZone(DNSName zone)
+ {
+  synchronized (this.lock)
+  {
+   if (this.stopped || !this.zones.add(zone))
+    return false;
+   this.pending++;
+   return true;
+  }
+ }
+
+ protected void finished()
+ {
+  Object lock;
+  synchronized (lock = this.lock)
+  {
+   this.pending--;
+   this.transfers++;
+   this.admitted--;
+   dispatch();
+   lock.notifyAll();
+  }
+ }
+
+/**
+ * NOTE: record must be an A record. Its address is added to the glue
+ * of its name (lock-free).
+ */
+ protected void addGlue(DNSRecord record)
+ {
+  DNSName name = record.getRName();
+  InetAddress address;
+  try
+  {
+   address = InetAddress.getByAddress(name.getRelativeAt(0),
+    record.getRDataBytes());
+  }
+  catch (UnknownHostException e)
+  {
+   return;
+  }
+  ConcurrentHashMap<DNSName, InetAddress[]> glue = this.glue;
+  InetAddress[] addresses, newAddresses;
+  do
+  {
+   int index;
+   if ((addresses = glue.get(name)) == null)
+   {
+    (newAddresses = new InetAddress[1])[0] = address;
+    if (glue.putIfAbsent(name, newAddresses) == null)
+     break;
+    continue;
+   }
+   for (index = addresses.length; index > 0; index--)
+    if (address.equals(addresses[index - 1]))
+     return;
+   System.arraycopy(addresses, 0,
+    newAddresses = new InetAddress[(index = addresses.length) + 1], 0,
+    index);
+   newAddresses[index] = address;
+  } while (!glue.replace(name, addresses, newAddresses));
+ }
+
+/**
+ * NOTE: Result is the addresses of the name servers (the unknown
+ * hosts are skipped). The glue of the crawled zones is looked at
+ * first, then the default cache.
+ */
+ protected InetAddress[] resolve(DNSName[] names)
+ {
+  InetAddress[] servers = new InetAddress[names.length];
+  InetAddress[] addresses;
+  int count = 0;
+  for (int index = 0; index < names.length; index++)
+  {
+   if ((addresses = this.glue.get(names[index])) == null &&
+       (addresses = dnszcon.cachedAddresses(names[index])) == null)
+    try
+    {
+     addresses = InetAddress.getAllByName(
+      names[index].getRelativeAt(0));
+    }
+    catch (UnknownHostException e)
+    {
+     System.err.println(" Host unknown: " +
+      names[index].getRelativeAt(0));
+     continue;
+    }
+    catch (SecurityException e)
+    {
+     continue;
+    }
+   if (servers.length - count < addresses.length)
+   {
+    InetAddress[] newServers =
+     new InetAddress[count + addresses.length + names.length];
+    System.arraycopy(servers, 0, newServers, 0, count);
+    servers = newServers;
+   }
+   System.arraycopy(addresses, 0, servers, count, addresses.length);
+   count += addresses.length;
+  }
+  if (servers.length > count)
+  {
+   System.arraycopy(servers, 0,
+    addresses = new InetAddress[count], 0, count);
+   servers = addresses;
+  }
+  return servers;
+ }
+
+/**
+ * Class for waiting (in a pool worker) for a transfer slot.
+ */
+ protected final class SlotBlocker
+  implements ForkJoinPool.ManagedBlocker
+ {
+
+  protected final InetAddress[] servers;
+
+  protected final boolean[] tried;
+
+/**
+ * NOTE: index is the acquired server (or -1).
+ */
+  protected int index = -1;
+
+  protected SlotBlocker(InetAddress[] servers, boolean[] tried)
+  {
+   this.servers = servers;
+   this.tried = tried;
+  }
+
+  public boolean isReleasable()
+  {
+   synchronized (lock)
+   {
+    return this.index >= 0 || stopped ||
+     (this.index = tryAcquire(this.servers, this.tried)) >= 0;
+   }
+  }
+
+  public boolean block()
+   throws InterruptedException
+  {
+   synchronized (lock)
+   {
+    if (!isReleasable())
+     lock.wait();
+    return isReleasable();
+   }
+  }
+ }
+
+/**
+ * Class for the transfer of one zone (and forking of its subzones).
+ */
+ protected final class ZoneTask extends RecursiveAction
+  implements DNSTransferConsumer
+ {
+
+  private static final long serialVersionUID = 1L;
+
+  protected final DNSName zone;
+
+/**
+ * NOTE: servers are null until nsNames are resolved.
+ */
+  protected InetAddress[] servers;
+
+  protected final DNSName[] nsNames;
+
+/**
+ * NOTE: subzones maps each delegated subzone name to the list of
+ * its name servers names.
+ */
+  protected final HashMap<DNSName, ArrayList<DNSName>> subzones =
+   new HashMap<DNSName, ArrayList<DNSName>>();
+
+  protected ZoneTask(DNSName zone, InetAddress[] servers,
+           DNSName[] nsNames)
+  {
+   this.zone = zone;
+   this.servers = servers;
+   this.nsNames = nsNames;
+  }
+
+  protected void compute()
+  {
+   try
+   {
+    if (this.servers == null)
+     this.servers = resolve(this.nsNames);
+    if (transfer())
+     forkSubzones();
+   }
+   finally
+   {
+    finished();
+   }
+  }
+
+/**
+ * NOTE: The servers are tried in turn until one of them transfers
+ * the zone. Result is true on success.
+ */
+  protected boolean transfer()
+  {
+   DNSName zone = this.zone;
+   InetAddress[] servers = this.servers;
+   boolean[] tried = new boolean[servers.length];
+   int left = servers.length, index, result;
+   while (left-- > 0 && (index = acquire(servers, tried)) >= 0)
+   {
+    tried[index] = true;
+    InetAddress server = servers[index];
+    String prefix = " " + zone.getAbsolute() + " [" +
+     server.getHostName() + "]: ";
+    DNSConnection connection = new DNSConnection();
+    DNSZoneTransfer transfer = new DNSZoneTransfer(connection);
+    boolean reached = false;
+    this.subzones.clear();
+    try
+    {
+     connection.open(server);
+     reached = true;
+     System.out.println(prefix + "transfering zone...");
+     result = transfer.transfer(zone, this);
+    }
+    catch (IOException e)
+    {
+     result = DNSZoneTransfer.STOPPED - 1;
+    }
+    finally
+    {
+     connection.close();
+     release(server, reached, transfer.getRecordsCount());
+    }
+    if (result == DNSMsgHeader.NOERROR)
+    {
+     System.out.println(prefix + "finished(" +
+      Integer.toString(transfer.getRecordsCount()) + ")");
+     return true;
+    }
+    if (result == DNSZoneTransfer.STOPPED || stopped)
+     break;
+    System.out.println(prefix + (!reached ? "could not connect!" :
+     result > 0 || result == DNSZoneTransfer.NOT_AUTHORITATIVE ||
+     result == DNSZoneTransfer.NO_ANSWER ? "query refused!" :
+     "transfer failed!"));
+   }
+   return false;
+  }
+
+  protected void forkSubzones()
+  {
+   for (Map.Entry<DNSName, ArrayList<DNSName>> entry :
+        this.subzones.entrySet())
+   {
+    DNSName subzone = entry.getKey();
+    if (markZone(subzone))
+    {
+     ArrayList<DNSName> nsNames = entry.getValue();
+     submit(new ZoneTask(subzone, null,
+      nsNames.toArray(new DNSName[nsNames.size()])));
+    }
+   }
+  }
+
+  public boolean record(DNSMsgView view, int index, int change)
+  {
+   if (stopped)
+    return false;
+   DNSName zone = this.zone;
+   if (!view.isInDomain(index, zone, false))
+    return true;
+   DNSRecord record = view.getRecord(index);
+   storage.add(record);
+   Object[] rData;
+   int rType;
+   if ((rType = record.getRType()) == DNSRecord.A)
+    addGlue(record);
+    else if (rType == DNSRecord.NS &&
+             view.isInDomain(index, zone, true) &&
+             (rData = record.getRData()).length > 0)
+    {
+     DNSName subzone = record.getRName();
+     ArrayList<DNSName> nsNames;
+     if ((nsNames = this.subzones.get(subzone)) == null)
+      this.subzones.put(subzone, nsNames = new ArrayList<DNSName>());
+     nsNames.add((DNSName)rData[0]);
+    }
+   return true;
+  }
+ }
+}
@@ -0,0 +1,727 @@
+/*
+ * @(#) src/net/sf/ivmaidns/storage/ConcurrentHashedStorage.java --
+ * Class for concurrent storage of hashed elements.
+ **
+ * Copyright (c) 2026 TerraMaster contributors
+ * All rights reserved.
+ */
+
+/*
+ * This is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ **
+ * This software is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License (GPL) for more details.
+ **
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ **
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module. An independent module is a module which is not derived from
+ * or based on this library. If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so. If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package net.sf.ivmaidns.storage;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.sf.ivmaidns.util.GComparator;
+import net.sf.ivmaidns.util.JavaConsts;
+
+/**
+ * Class for concurrent storage of hashed elements.
+ **
+ * Unlike <CODE>HashedStorage</CODE>, this storage may be shared by
+ * many threads without an outer lock. The elements are kept in
+ * fixed-size chunks (which are never copied on growth), so
+ * <CODE>getAt()</CODE>, <CODE>locationOf()</CODE> and the iteration
+ * are lock-free. The hash index is split into segments (open
+ * addressing tables), each with its own monitor held only while the
+ * segment is modified. <CODE>setAt()</CODE> may be called
+ * concurrently for different locations. Since
+ * <CODE>emptyLocation()</CODE> followed by <CODE>setAt()</CODE> is
+ * not atomic, concurrent adders should use
+ * <CODE>addIfAbsent()</CODE> instead. The lookups and the iteration
+ * are weakly consistent (they see all the modifications completed
+ * before them and may see the concurrent ones).
+ **
+ * @see HashedStorage
+ **
+ * @version 3.2
+ * @author TerraMaster contributors
+ */
+public class ConcurrentHashedStorage extends Storage
+ implements Serializable
+{
+
+/**
+ * The class version unique identifier for serialization
+ * interoperability.
+ **
+ * @since 3.2
+ */
+ private static final long serialVersionUID = -2914608133270352915L;
+
+ protected static final int CHUNK_BITS = 6;
+
+ protected static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+ protected static final int SEGMENT_BITS = 4;
+
+/**
+ * NOTE: The minimal count of slots in a segment.
+ */
+ protected static final int MIN_SLOTS = 8;
+
+/**
+ * NOTE: chunks must be != null, chunks[index] != null for any
+ * index. The element at location is in chunks[(location - 1) >>
+ * CHUNK_BITS] at (location - 1) & CHUNK_MASK. chunks array is only
+ * replaced by a longer one (holding the same chunks).
+ */
+ protected transient volatile Chunk[] chunks;
+
+/**
+ * NOTE: chunksLock is the monitor guarding chunks growth (the
+ * storage itself is not used, since it may be locked outside).
+ */
+ protected transient Object chunksLock;
+
+/**
+ * NOTE: segments must be != null, segments length is (1 <<
+ * SEGMENT_BITS), segments[index] != null for any index.
+ */
+ protected transient Segment[] segments;
+
+/**
+ * NOTE: size must be the number of elements in the storage.
+ */
+ protected transient AtomicInteger size;
+
+/**
+ * NOTE: freeHint is the location before which all the locations are
+ * likely to be non-empty (only a hint for emptyLocation()).
+ */
+ protected transient volatile int freeHint;
+
+ public ConcurrentHashedStorage()
+ {
+  init(new Object[0]);
+ }
+
+/**
+ * NOTE: initialValues must be != null, initialValues[index] may be
+ * == null (ignored) for any index. Each value from initialValues is
+ * put to the location of index + 1.
+ */
+ public ConcurrentHashedStorage(Object[] initialValues)
+  throws NullPointerException
+ {
+  init(initialValues);
+ }
+
+/**
+ * NOTE: Called only on construction (no observers notification).
+ */
+ protected void init(Object[] elements)
+ {
+  int count = elements.length, location = 0, hash;
+  Chunk[] chunks = new Chunk[(count +
+   CHUNK_MASK) >> CHUNK_BITS];
+  for (int index = 0; index < chunks.length; index++)
+   chunks[index] = new Chunk();
+  Segment[] segments = new Segment[1 << SEGMENT_BITS];
+  for (int index = 0; index < segments.length; index++)
+   segments[index] = new Segment();
+  Object value;
+  this.chunks = chunks;
+  this.chunksLock = new Object();
+  this.segments = segments;
+  this.freeHint = 1;
+  count = 0;
+  while (location < elements.length)
+   if ((value = elements[location++]) != null)
+   {
+    chunks[(location - 1) >> CHUNK_BITS].set((location - 1) &
+     CHUNK_MASK, value);
+    segmentOf(hash = value.hashCode() *
+     JavaConsts.GOLD_MEDIAN).add(hash, location);
+    count++;
+   }
+  this.size = new AtomicInteger(count);
+ }
+
+/**
+ * NOTE: Result is the segment of the index for the (mixed) hash.
+ */
+ protected final Segment segmentOf(int hash)
+ {
+  return this.segments[hash >>> (JavaConsts.INT_SIZE -
+   SEGMENT_BITS)];
+ }
+
+/**
+ * NOTE: mask must be a power of two minus 1. Result is the first
+ * slot to probe for the (mixed) hash.
+ */
+ protected static final int slotOf(int hash, int mask)
+ {
+  return ((hash >>> (JavaConsts.INT_SIZE - SEGMENT_BITS -
+   JavaConsts.SHORT_SIZE)) ^ hash) & mask;
+ }
+
+/**
+ * NOTE: Result is the count of elements. Result >= 0.
+ */
+ public final int size()
+ {
+  return this.size.get();
+ }
+
+/**
+ * NOTE: Only the index is compacted (the removed entries are
+ * purged). Locations are not re-ordered.
+ */
+ protected void minimizeCapacity()
+ {
+  Segment[] segments = this.segments;
+  Segment segment;
+  for (int index = segments.length; index-- > 0;)
+   synchronized (segment = segments[index])
+   {
+    segment.rebuild(segment.count);
+   }
+ }
+
+/**
+ * NOTE: The effectiveness is constant (typically). Under concurrent
+ * modification the result may be occupied on return.
+ */
+ public int emptyLocation()
+ {
+  Chunk[] chunks = this.chunks;
+  int hint, location = hint = this.freeHint;
+  int capacity = chunks.length << CHUNK_BITS;
+  while (location <= capacity && chunks[(location - 1) >>
+         CHUNK_BITS].get((location - 1) & CHUNK_MASK) != null)
+   location++;
+  if (location > hint && this.freeHint == hint)
+   this.freeHint = location;
+  return location;
+ }
+
+/**
+ * NOTE: location must be > 0. Result is the chunk holding location
+ * (the chunks are added under chunksLock if needed).
+ */
+ protected final Chunk chunkAt(int location)
+ {
+  Chunk[] chunks = this.chunks;
+  int index = (location - 1) >> CHUNK_BITS, count;
+  if (index >= chunks.length)
+   synchronized (this.chunksLock)
+   {
+    if (index >= (count = (chunks = this.chunks).length))
+    {
+     Chunk[] newChunks;
+     if ((count += count >> 1) <= index)
+      count = index + 1;
+     System.arraycopy(chunks, 0,
+      newChunks = new Chunk[count], 0, chunks.length);
+     for (count = chunks.length; count < newChunks.length; count++)
+      newChunks[count] = new Chunk();
+     this.chunks = chunks = newChunks;
+    }
+   }
+  return chunks[index];
+ }
+
+/**
+ * NOTE: location must be > 0. Result is the first (or the last, if
+ * not forward) non-empty location starting from location
+ * (inclusive), or 0 if none.
+ */
+ protected final int scan(int location, boolean forward)
+ {
+  Chunk[] chunks = this.chunks;
+  int capacity = chunks.length << CHUNK_BITS;
+  if (forward)
+  {
+   while (location <= capacity)
+    if (chunks[(location - 1) >> CHUNK_BITS].get((location - 1) &
+        CHUNK_MASK) != null)
+     return location;
+     else location++;
+  }
+   else
+   {
+    if (location > capacity)
+     location = capacity;
+    while (location > 0)
+     if (chunks[(location - 1) >> CHUNK_BITS].get((location - 1) &
+         CHUNK_MASK) != null)
+      return location;
+      else location--;
+   }
+  return 0;
+ }
+
+/**
+ * NOTE: prevLoc must be >= 0 and insertion after prevLoc must be
+ * possible in this storage (according to the semantics of array),
+ * otherwise ArrayStoreException is thrown. Insertion is entirely
+ * performed through setAt operation. Observers notification is
+ * performed.
+ */
+ public int insertAt(int prevLoc, int emptyLocation, Object value)
+  throws IllegalArgumentException, ArrayStoreException
+ {
+  int location;
+  if ((location = prevLoc) != 0)
+  {
+   if (prevLoc < 0)
+    location = -prevLoc;
+   if (getAt(location) == null)
+    throw new IllegalArgumentException("prevLoc: " +
+               Integer.toString(prevLoc));
+  }
+  if (emptyLocation != 0 && (emptyLocation < 0 ||
+      getAt(emptyLocation) != null))
+   throw new IllegalArgumentException("emptyLocation: " +
+              Integer.toString(emptyLocation));
+  if (value != null && prevLoc >= 0)
+  {
+   boolean isFree = true;
+   if (prevLoc < emptyLocation)
+   {
+    if ((location = scan(prevLoc + 1, true)) > 0 &&
+        location < emptyLocation)
+     isFree = false;
+   }
+    else if (emptyLocation > 0 || getAt(prevLoc + 1) != null)
+     isFree = false;
+   if (isFree)
+   {
+    if (emptyLocation == 0)
+     emptyLocation = prevLoc + 1;
+    setAt(emptyLocation, value);
+    return emptyLocation;
+   }
+  }
+  throw new ArrayStoreException("prevLoc: " +
+             Integer.toString(prevLoc) + ", emptyLocation: " +
+             Integer.toString(emptyLocation) + ", value: " +
+             (value != null ? value.toString() : "null"));
+ }
+
+/**
+ * NOTE: No equals checking is performed here. May be called
+ * concurrently for different locations. The effectiveness is nearly
+ * constant. Observers notification is performed.
+ */
+ public Object setAt(int location, Object value)
+  throws IllegalArgumentException
+ {
+  if (location <= 0)
+   throw new IllegalArgumentException("location: " +
+              Integer.toString(location));
+  Chunk chunk = chunkAt(location);
+  int index = (location - 1) & CHUNK_MASK, hash;
+  Object oldValue;
+  Segment segment;
+  if (value != null)
+   synchronized (segment = segmentOf(hash = value.hashCode() *
+                 JavaConsts.GOLD_MEDIAN))
+   {
+    if ((oldValue = chunk.getAndSet(index, value)) != value)
+     segment.add(hash, location);
+   }
+   else if ((oldValue = chunk.getAndSet(index, null)) == null)
+    return null;
+  if (oldValue == null)
+  {
+   this.size.incrementAndGet();
+   if (this.freeHint == location)
+    this.freeHint = location + 1;
+  }
+   else if (oldValue != value)
+   {
+    synchronized (segment = segmentOf(hash = oldValue.hashCode() *
+                  JavaConsts.GOLD_MEDIAN))
+    {
+     segment.remove(hash, location);
+    }
+    if (value == null)
+    {
+     this.size.decrementAndGet();
+     if (this.freeHint > location)
+      this.freeHint = location;
+    }
+   }
+  index = 0;
+  if (value == null)
+  {
+   if (!hasObservers())
+    return oldValue;
+   index = location;
+   while (--index > 0 && getAt(index) == null);
+   location = -location;
+  }
+  notifyObservers(index, location, oldValue);
+  return oldValue;
+ }
+
+/**
+ * NOTE: If value == null then ArrayStoreException is thrown. value
+ * is added unless this storage contains an equal value already.
+ * Unlike add(value, true), this is atomic. Observers notification
+ * is performed. Result is the location of the added value (result
+ * > 0) or the negated location of the found one (result < 0).
+ **
+ * @since 3.2
+ */
+ public int addIfAbsent(Object value)
+  throws ArrayStoreException
+ {
+  if (value == null)
+   throw new ArrayStoreException("value: null");
+  int hash = value.hashCode() * JavaConsts.GOLD_MEDIAN, location;
+  Segment segment = segmentOf(hash);
+  synchronized (segment)
+  {
+   if ((location = locationOf(value, 0, true)) > 0)
+    return -location;
+   while (!chunkAt(location = emptyLocation()).compareAndSet(
+          (location - 1) & CHUNK_MASK, null, value));
+   segment.add(hash, location);
+  }
+  this.size.incrementAndGet();
+  if (this.freeHint == location)
+   this.freeHint = location + 1;
+  notifyObservers(0, location, null);
+  return location;
+ }
+
+/**
+ * NOTE: All non-empty locations are valid. Lock-free.
+ */
+ public final Object getAt(int location)
+ {
+  Chunk[] chunks = this.chunks;
+  int index;
+  return location > 0 && (index = (location - 1) >> CHUNK_BITS) <
+   chunks.length ? chunks[index].get((location - 1) & CHUNK_MASK) :
+   null;
+ }
+
+ public final boolean isValidAt(int location)
+ {
+  return getAt(location) != null;
+ }
+
+ public int childLocation(int parentLocation, boolean forward)
+  throws IllegalArgumentException
+ {
+  if (parentLocation == 0)
+   return scan(forward ? 1 : -1 >>> 1, forward);
+  if (getAt(parentLocation) == null)
+   throw new IllegalArgumentException("location: " +
+              Integer.toString(parentLocation));
+  return 0;
+ }
+
+ public int siblingLocation(int location, boolean forward)
+  throws IllegalArgumentException
+ {
+  if (getAt(location) == null)
+   throw new IllegalArgumentException("location: " +
+              Integer.toString(location));
+  return (location = forward ? location + 1 : location - 1) > 0 ?
+   scan(location, forward) : 0;
+ }
+
+ public int parentLocation(int location)
+  throws IllegalArgumentException
+ {
+  if (getAt(location) == null)
+   throw new IllegalArgumentException("location: " +
+              Integer.toString(location));
+  return 0;
+ }
+
+/**
+ * NOTE: value is compared against elements. The found locations are
+ * ordered as in HashedStorage. Lock-free. The effectiveness is
+ * nearly constant (may be linear in the worst case).
+ */
+ public int locationOf(Object value, int prevLocation,
+         boolean forward)
+  throws IllegalArgumentException
+ {
+  if (prevLocation != 0 && getAt(prevLocation) == null)
+   throw new IllegalArgumentException("location: " +
+              Integer.toString(prevLocation));
+  int foundLoc = 0;
+  if (value != null)
+  {
+   int hash = value.hashCode() * JavaConsts.GOLD_MEDIAN, location;
+   AtomicIntegerArray slots = segmentOf(hash).slots;
+   int mask = (slots.length() >> 1) - 1, index = slotOf(hash, mask);
+   if (!forward && prevLocation == 0)
+    prevLocation = -1 >>> 1;
+   while ((location = slots.get((index << 1) + 1)) != 0)
+   {
+    if (location > 0 && slots.get(index << 1) == hash &&
+        (forward ? location > prevLocation && (foundLoc == 0 ||
+        foundLoc > location) : location < prevLocation &&
+        foundLoc < location) && value.equals(getAt(location)))
+     foundLoc = location;
+    index = (index + 1) & mask;
+   }
+  }
+  return foundLoc;
+ }
+
+/**
+ * NOTE: If value == null then 0 is returned. If greater then
+ * elements are compared against value else value is compared
+ * against elements. Here, the comparison is performed through
+ * GComparator INSTANCE. The effectiveness is linear.
+ */
+ public int findLessGreater(Object value, boolean greater,
+         int prevLocation, boolean forward)
+  throws IllegalArgumentException
+ {
+  if (value != null)
+  {
+   GComparator comparator = GComparator.INSTANCE;
+   if (greater)
+    while ((prevLocation =
+           nextLocation(prevLocation, forward)) > 0 &&
+           !comparator.greater(getAt(prevLocation), value));
+    else while ((prevLocation =
+                nextLocation(prevLocation, forward)) > 0 &&
+                !comparator.greater(value, getAt(prevLocation)));
+  }
+   else if (prevLocation != 0)
+   {
+    parentLocation(prevLocation);
+    prevLocation = 0;
+   }
+  return prevLocation;
+ }
+
+/**
+ * NOTE: Result is the elements at their locations minus 1 (up to
+ * the last non-empty location). Result != null.
+ */
+ protected final Object[] elementsArray()
+ {
+  int location = scan(-1 >>> 1, false);
+  Object[] elements = new Object[location];
+  while (location > 0)
+   elements[location - 1] = getAt(location--);
+  return elements;
+ }
+
+/**
+ * NOTE: The clone has its own chunks and index (but shares the
+ * elements).
+ */
+ public Object clone()
+ {
+  ConcurrentHashedStorage storage =
+   (ConcurrentHashedStorage)super.clone();
+  storage.init(elementsArray());
+  return storage;
+ }
+
+/**
+ * NOTE: Shallow check for integrity of this object. Must be
+ * synchronized outside. For debug purpose only.
+ */
+ public void integrityCheck()
+ {
+  super.integrityCheck();
+  if (this.chunks == null)
+   throw new InternalError("chunks: null");
+  Segment[] segments = this.segments;
+  int location = 0, count = 0, hash, index;
+  while ((location = scan(location + 1, true)) > 0)
+  {
+   count++;
+   if (segmentOf(hash = getAt(location).hashCode() *
+       JavaConsts.GOLD_MEDIAN).indexOf(hash, location) < 0)
+    throw new InternalError("Not indexed at: " +
+               Integer.toString(location));
+  }
+  if (this.size.get() != count)
+   throw new InternalError("size: " +
+              Integer.toString(this.size.get()));
+  for (index = 0; index < segments.length; index++)
+   count -= segments[index].count;
+  if (count != 0)
+   throw new InternalError("Index entries mismatch: " +
+              Integer.toString(-count));
+ }
+
+ private void writeObject(ObjectOutputStream out)
+  throws IOException
+ {
+  out.defaultWriteObject();
+  Object[] elements = elementsArray();
+  int location = 0;
+  out.writeInt(elements.length);
+  while (location < elements.length)
+   out.writeObject(elements[location++]);
+ }
+
+ private void readObject(ObjectInputStream in)
+  throws IOException, ClassNotFoundException
+ {
+  in.defaultReadObject();
+  int location = 0, capacity;
+  if ((capacity = in.readInt()) < 0)
+   capacity = -1 >>> 1;
+  Object[] elements = new Object[capacity];
+  while (location < capacity)
+   elements[location++] = in.readObject();
+  init(elements);
+ }
+
+/**
+ * Class for a chunk of the elements (CHUNK_MASK + 1 locations).
+ */
+ protected static final class Chunk
+  extends AtomicReferenceArray<Object>
+ {
+
+  private static final long serialVersionUID = 6241837409953276821L;
+
+  protected Chunk()
+  {
+   super(CHUNK_MASK + 1);
+  }
+ }
+
+/**
+ * Class for a segment of the index (an open addressing hash table).
+ */
+ protected static final class Segment
+ {
+
+/**
+ * NOTE: slots contains pairs of the (mixed) hash and the location
+ * (0 means a free slot, -1 means a removed entry). There is always
+ * a free slot. slots is only replaced (by rebuild()), so a reader
+ * may probe it without the monitor.
+ */
+  protected volatile AtomicIntegerArray slots =
+   new AtomicIntegerArray(MIN_SLOTS << 1);
+
+/**
+ * NOTE: count is the number of entries, used is the number of
+ * entries and removed entries.
+ */
+  protected int count;
+
+  protected int used;
+
+  protected Segment() {}
+
+/**
+ * NOTE: Result is the slot of the entry, or -1 if not found.
+ */
+  protected int indexOf(int hash, int location)
+  {
+   AtomicIntegerArray slots = this.slots;
+   int mask = (slots.length() >> 1) - 1, index = slotOf(hash, mask);
+   int value;
+   while ((value = slots.get((index << 1) + 1)) != 0)
+   {
+    if (value == location && slots.get(index << 1) == hash)
+     return index;
+    index = (index + 1) & mask;
+   }
+   return -1;
+  }
+
+/**
+ * NOTE: Must be synchronized outside.
+ */
+  protected void add(int hash, int location)
+  {
+   AtomicIntegerArray slots = this.slots;
+   if ((this.used + 1) << 2 > (slots.length() >> 1) * 3)
+    slots = rebuild(this.count + 1);
+   int mask = (slots.length() >> 1) - 1, index = slotOf(hash, mask);
+   int value;
+   while ((value = slots.get((index << 1) + 1)) > 0)
+    index = (index + 1) & mask;
+   if (value == 0)
+    this.used++;
+   slots.set(index << 1, hash);
+   slots.set((index << 1) + 1, location);
+   this.count++;
+  }
+
+/**
+ * NOTE: Must be synchronized outside.
+ */
+  protected void remove(int hash, int location)
+  {
+   int index;
+   if ((index = indexOf(hash, location)) >= 0)
+   {
+    this.slots.set((index << 1) + 1, -1);
+    this.count--;
+   }
+  }
+
+/**
+ * NOTE: count must be >= this count. The removed entries are
+ * purged. Must be synchronized outside. Result is the new slots.
+ */
+  protected AtomicIntegerArray rebuild(int count)
+  {
+   AtomicIntegerArray oldSlots = this.slots, slots;
+   int len = MIN_SLOTS, index, location, hash;
+   while (len < (count << 1) && len > 0)
+    len <<= 1;
+   slots = new AtomicIntegerArray(len << 1);
+   int mask = len - 1;
+   for (len = oldSlots.length() >> 1; len-- > 0;)
+    if ((location = oldSlots.get((len << 1) + 1)) > 0)
+    {
+     index = slotOf(hash = oldSlots.get(len << 1), mask);
+     while (slots.get((index << 1) + 1) != 0)
+      index = (index + 1) & mask;
+     slots.set(index << 1, hash);
+     slots.set((index << 1) + 1, location);
+    }
+   this.used = this.count;
+   return this.slots = slots;
+  }
+ }
+}